@@ -0,0 +1,69 @@
+package de.engehausen.cc1.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct byte buffers of a fixed size. Allocating direct buffers
+ * is expensive and their memory is only freed on garbage collection, so
+ * reading many files (or many blocks of a file) into fresh buffers would
+ * churn through native memory; instead, buffers are taken from the pool and
+ * given back after use. The pool holds at most a given number of idle buffers,
+ * surplus buffers are left to garbage collection.
+ */
+class BufferPool {
+
+	private final int bufferSize;
+	private final int maxIdle;
+	private final Queue<ByteBuffer> idle;
+	private final AtomicInteger idleCount;
+
+	/**
+	 * Creates the pool.
+	 * @param size the capacity of the buffers in bytes
+	 * @param maxIdleBuffers the maximum number of idle buffers kept in the pool
+	 */
+	BufferPool(final int size, final int maxIdleBuffers) {
+		bufferSize = size;
+		maxIdle = maxIdleBuffers;
+		idle = new ConcurrentLinkedQueue<>();
+		idleCount = new AtomicInteger();
+	}
+
+	/**
+	 * Returns the capacity of the buffers of the pool.
+	 * @return the capacity in bytes
+	 */
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Takes a cleared buffer from the pool, allocating one if none is idle.
+	 * @return a cleared direct buffer, never <code>null</code>.
+	 */
+	ByteBuffer acquire() {
+		final ByteBuffer result = idle.poll();
+		if (result == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		idleCount.decrementAndGet();
+		result.clear();
+		return result;
+	}
+
+	/**
+	 * Gives a buffer back to the pool. The buffer must not be used afterwards.
+	 * @param buffer a buffer taken from this pool, may be <code>null</code>.
+	 */
+	void release(final ByteBuffer buffer) {
+		if (buffer != null && idleCount.incrementAndGet() <= maxIdle) {
+			idle.offer(buffer);
+		} else if (buffer != null) {
+			idleCount.decrementAndGet();
+		}
+	}
+
+}
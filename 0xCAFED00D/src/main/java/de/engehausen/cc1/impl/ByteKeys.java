@@ -0,0 +1,80 @@
+package de.engehausen.cc1.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hashes and compares words kept as bytes, each preceded by its length, in
+ * the arenas of the tables counting words without interning them, see
+ * {@link OffHeapWordCounts} and {@link SpillingWordCounter}.
+ */
+final class ByteKeys {
+
+	private ByteKeys() {
+		// not instantiated
+	}
+
+	/**
+	 * Hashes the given bytes, mixing the bits so that both the high bits
+	 * and the low bits of the hash are distributed.
+	 * @param chars the bytes of the word
+	 * @param offset the offset of the word in the array
+	 * @param length the length of the word
+	 * @return the hash
+	 */
+	static int hash(final byte[] chars, final int offset, final int length) {
+		int h = 0;
+		for (int i = offset; i < offset + length; i++) {
+			h = 31*h + chars[i];
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Indicates whether the word at the given offset of the arena equals the given word.
+	 * @param arena the arena, must not be <code>null</code>.
+	 * @param entry the offset of the word in the arena, preceded by its length
+	 * @param chars the bytes of the other word
+	 * @param offset the offset of the other word in the array
+	 * @param length the length of the other word
+	 * @return <code>true</code> if the words are equal.
+	 */
+	static boolean matches(final ByteBuffer arena, final int entry, final byte[] chars, final int offset, final int length) {
+		if (arena.getInt(entry) != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (arena.get(entry + Integer.BYTES + i) != chars[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares two words in the given arenas, by unsigned bytes.
+	 * @param a the arena of the first word
+	 * @param aOffset the offset of the first word, preceded by its length
+	 * @param b the arena of the second word
+	 * @param bOffset the offset of the second word, preceded by its length
+	 * @return a negative number, zero or a positive number if the first word is
+	 * less than, equal to or greater than the second word
+	 */
+	static int compare(final ByteBuffer a, final int aOffset, final ByteBuffer b, final int bOffset) {
+		final int aLength = a.getInt(aOffset);
+		final int bLength = b.getInt(bOffset);
+		final int length = Math.min(aLength, bLength);
+		for (int i = Integer.BYTES; i < Integer.BYTES + length; i++) {
+			final int result = (a.get(aOffset + i) & 0xff) - (b.get(bOffset + i) & 0xff);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return aLength - bLength;
+	}
+
+}
@@ -0,0 +1,376 @@
+package de.engehausen.cc1.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * A word spliterator for sources that can only be read sequentially, such
+ * as the standard input, pipes or decompressing streams.
+ * <p>A background thread reads the source ahead in blocks, into pooled direct
+ * buffers; two blocks are queued while the next is being read ("double
+ * buffering"). A block ends after its last separator, the partial word at its
+ * end is carried over to the start of the next block. Each block is tokenized
+ * by a {@link WordSpliterator}.</p>
+ * <p>Splitting hands off the next block that has been read to the returned
+ * spliterator. After traversing it, that spliterator continues with the next
+ * block read, just like this one; that way a few spliterators keep pulling
+ * blocks from the shared queue in parallel until the end of the source.
+ * The number of such spliterators is limited to a few per worker thread of the
+ * common fork/join pool, which also bounds the number of blocks in memory.</p>
+ * <p>The reading thread is started on first use. Closing the spliterator stops
+ * the thread and closes the source; an error reading the source is reported as
+ * an {@link IllegalStateException} when the blocks read before have been consumed.</p>
+ * <p>Callers must close the spliterator when they stop traversing it early,
+ * e.g. after a short-circuiting operation such as <code>findFirst</code> or
+ * <code>limit</code>; for a stream, close it in {@link java.util.stream.Stream#onClose(Runnable)}.
+ * A spliterator abandoned without closing is detected once it has been garbage
+ * collected: the reading thread, waiting for room in the queue, then ends and
+ * closes the source.</p>
+ */
+public class ChannelWordSpliterator implements Spliterator<Word>, Closeable {
+
+	/**
+	 * The default block size, 1MB.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1024*1024;
+
+	// the number of blocks read ahead
+	private static final int READ_AHEAD = 2;
+	// the number of spliterators pulling blocks per worker thread
+	private static final int SPLITS_PER_WORKER = 4;
+	// marks the end of the source in the queue
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+	// the time between checks whether the spliterators have been abandoned while the queue is full
+	private static final long ABANDON_CHECK_MILLIS = 100;
+
+	/**
+	 * Reads the source in blocks, on a thread of its own.
+	 */
+	private static class BlockReader implements Runnable {
+
+		private final ReadableByteChannel channel;
+		private final byte[] table;
+		private final boolean utf8;
+		private final BufferPool pool;
+		private final BlockingQueue<ByteBuffer> queue;
+		private final AtomicInteger splits;
+		private final int maxSplits;
+		// referenced by all spliterators sharing the reader, cleared once they are all unreachable
+		private final WeakReference<Object> owner;
+		private Thread thread;
+		private volatile IOException error;
+
+		BlockReader(final ReadableByteChannel source, final byte[] translation, final boolean unicode, final int blockSize, final Object spliterators) {
+			channel = source;
+			owner = new WeakReference<>(spliterators);
+			table = translation;
+			utf8 = unicode;
+			maxSplits = SPLITS_PER_WORKER*ForkJoinPool.getCommonPoolParallelism();
+			// blocks being read, queued or tokenized
+			pool = new BufferPool(blockSize, maxSplits + READ_AHEAD + 2);
+			queue = new ArrayBlockingQueue<>(READ_AHEAD + 1);
+			splits = new AtomicInteger();
+		}
+
+		/**
+		 * Takes the next block read, waiting for it if necessary.
+		 * @return the next block, or <code>null</code> at the end of the source.
+		 */
+		ByteBuffer take() {
+			synchronized (this) {
+				if (thread == null) {
+					thread = new Thread(this, "word-reader");
+					thread.setDaemon(true);
+					thread.start();
+				}
+			}
+			final ByteBuffer result;
+			try {
+				result = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+			if (result == END) {
+				// let the other spliterators know
+				queue.offer(END);
+				if (error != null) {
+					throw new IllegalStateException(error);
+				}
+				return null;
+			}
+			return result;
+		}
+
+		/**
+		 * Gives a block that has been tokenized back to the pool.
+		 * @param block the block, may be <code>null</code>.
+		 */
+		void release(final ByteBuffer block) {
+			pool.release(block);
+		}
+
+		@Override
+		public void run() {
+			final byte[] carry = new byte[pool.getBufferSize()];
+			int carried = 0;
+			try {
+				boolean eof = false;
+				while (!eof) {
+					final ByteBuffer block = pool.acquire();
+					block.put(carry, 0, carried);
+					while (block.hasRemaining() && !eof) {
+						eof = channel.read(block) < 0;
+					}
+					block.flip();
+					int limit = block.limit();
+					if (!eof) {
+						// the block ends after its last separator, unless the block is a single word
+						while (limit > 0 && !WordSpliterator.isSeparator(table, utf8, block.get(limit - 1))) {
+							limit--;
+						}
+						if (limit == 0) {
+							limit = block.limit();
+						}
+					}
+					carried = block.limit() - limit;
+					for (int i = 0; i < carried; i++) {
+						carry[i] = block.get(limit + i);
+					}
+					block.limit(limit);
+					if (!block.hasRemaining()) {
+						pool.release(block);
+					} else if (!put(block)) {
+						abandon();
+						return;
+					}
+				}
+			} catch (IOException e) {
+				// reported after the blocks read before
+				error = e;
+			} catch (InterruptedException e) {
+				end();
+				return;
+			}
+			try {
+				if (!put(END)) {
+					abandon();
+				}
+			} catch (InterruptedException e) {
+				end();
+			}
+		}
+
+		/**
+		 * Queues the given block, waiting for room in the queue as long as
+		 * the spliterators are in use.
+		 * @param block the block
+		 * @return <code>true</code> if queued, <code>false</code> if the spliterators have been abandoned
+		 * @throws InterruptedException if interrupted, i.e. closed
+		 */
+		private boolean put(final ByteBuffer block) throws InterruptedException {
+			while (!queue.offer(block, ABANDON_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (owner.get() == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Ends reading when the spliterators have been abandoned without closing them.
+		 */
+		private void abandon() {
+			end();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nobody is left to report it to
+			}
+		}
+
+		/**
+		 * Ends reading when closed, the queued blocks are not needed anymore.
+		 */
+		private void end() {
+			queue.clear();
+			queue.offer(END);
+		}
+
+		void close() throws IOException {
+			synchronized (this) {
+				if (thread != null) {
+					thread.interrupt();
+				}
+			}
+			channel.close();
+		}
+
+	}
+
+	private final BlockReader reader;
+	// shared by all spliterators of the source, see BlockReader#owner
+	private final Object owner;
+	private final TokenAlphabet alphabet;
+	private final Charset charset;
+	// the block being tokenized and its spliterator
+	private ByteBuffer block;
+	private WordSpliterator current;
+
+	/**
+	 * Creates the spliterator for the given <code>US-ASCII</code> input stream.
+	 * @param stream the stream to read, must not be <code>null</code>.
+	 */
+	public ChannelWordSpliterator(final InputStream stream) {
+		this(Channels.newChannel(stream), TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates the spliterator for the given channel, alphabet, encoding and block size.
+	 * @param channel the channel to read, must not be <code>null</code>.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param encoding the encoding of the source; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @param blockSize the size of the blocks read at a time; words longer than a block are split
+	 * @throws IllegalArgumentException if the encoding or block size is not supported
+	 */
+	public ChannelWordSpliterator(final ReadableByteChannel channel, final TokenAlphabet tokenAlphabet, final Charset encoding, final int blockSize) {
+		Objects.requireNonNull(channel);
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Invalid block size: "+blockSize);
+		}
+		alphabet = tokenAlphabet;
+		charset = WordSpliterator.checkEncoding(encoding);
+		owner = new Object();
+		reader = new BlockReader(channel, alphabet.getTable(), StandardCharsets.UTF_8.equals(encoding), blockSize, owner);
+	}
+
+	/**
+	 * Copy constructor for splitting, handing off a block.
+	 * @param parent the spliterator that is split, providing the reader and configuration
+	 * @param handOff the block handed off
+	 */
+	protected ChannelWordSpliterator(final ChannelWordSpliterator parent, final ByteBuffer handOff) {
+		reader = parent.reader;
+		owner = parent.owner;
+		alphabet = parent.alphabet;
+		charset = parent.charset;
+		block = handOff;
+		current = new WordSpliterator(handOff, alphabet, charset);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean tryAdvance(final Consumer<? super Word> wordConsumer) {
+		do {
+			if (current != null && current.tryAdvance(wordConsumer)) {
+				return true;
+			}
+		} while (nextBlock());
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forEachRemaining(final Consumer<? super Word> wordConsumer) {
+		do {
+			if (current != null) {
+				current.forEachRemaining(wordConsumer);
+			}
+		} while (nextBlock());
+	}
+
+	/**
+	 * Releases the block that has been tokenized and takes the next one.
+	 * @return <code>true</code> if there is a next block, <code>false</code> at the end of the source.
+	 */
+	private boolean nextBlock() {
+		reader.release(block);
+		current = null;
+		block = reader.take();
+		if (block == null) {
+			return false;
+		}
+		current = new WordSpliterator(block, alphabet, charset);
+		return true;
+	}
+
+	/**
+	 * Tries to split the iterator, handing off the next block read.
+	 * This waits for the block to be read if necessary.
+	 * @return <code>null</code> if the maximum number of spliterators has been
+	 * reached or the source has been read completely, a word spliterator for the
+	 * next block otherwise.
+	 */
+	@Override
+	public Spliterator<Word> trySplit() {
+		if (reader.splits.incrementAndGet() > reader.maxSplits) {
+			return null;
+		}
+		final ByteBuffer next = reader.take();
+		return next == null ? null : new ChannelWordSpliterator(this, next);
+	}
+
+	/**
+	 * Returns {@link Long#MAX_VALUE}, the size of the source is unknown.
+	 * @return <code>Long.MAX_VALUE</code>
+	 */
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the characteristics of the spliterator, which are the
+	 * same as those of the {@link WordSpliterator}.
+	 * @return the characteristics of the spliterator.
+	 */
+	@Override
+	public int characteristics() {
+		return NONNULL|IMMUTABLE|CONCURRENT;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Comparator<? super Word> getComparator() {
+		return Word.COMPARATOR;
+	}
+
+	/**
+	 * Stops reading and closes the source. The spliterator and all
+	 * spliterators split from it must not be used afterwards.
+	 * @throws IOException in case of error closing the source
+	 */
+	@Override
+	public void close() throws IOException {
+		current = null;
+		block = null;
+		reader.close();
+	}
+
+}
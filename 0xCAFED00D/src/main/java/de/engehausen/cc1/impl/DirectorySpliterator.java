@@ -0,0 +1,285 @@
+package de.engehausen.cc1.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * A word spliterator for all files of a directory tree, so that a single
+ * parallel stream covers all of them with an even load.
+ * <p>The files are collected when the spliterator is created, ordered by
+ * path. Splitting divides the files into two groups of about the same number of
+ * bytes; once a spliterator is down to a single large file, splitting
+ * continues within the file, using a {@link WordSpliterator} mapping it.</p>
+ * <p>Small files, up to {@link #SMALL_FILE_SIZE} bytes, are not worth
+ * mapping: they are read into direct buffers taken from a pool shared by all
+ * spliterators split from the same root, and given back as soon as the file
+ * has been traversed.</p>
+ */
+public class DirectorySpliterator implements Spliterator<Word>, Closeable {
+
+	/**
+	 * The maximum size of a file read into a pooled buffer, 256K. Larger files are mapped.
+	 */
+	public static final int SMALL_FILE_SIZE = 256*1024;
+
+	// the default ratio of words per byte, see WordSpliterator
+	private static final int BYTES_PER_WORD = 8;
+
+	private final Path[] files;
+	// offsets[i] is the total size of the files before file i, with an additional final entry
+	private final long[] offsets;
+	private final TokenAlphabet alphabet;
+	private final Charset charset;
+	private final BufferPool pool;
+	// the range of files not opened yet
+	private int index;
+	private int end;
+	// the spliterator of the file being traversed, its pooled buffer, whether it may be split and whether parts were split off
+	private Spliterator<Word> current;
+	private ByteBuffer pooled;
+	private boolean splittable;
+	private boolean shared;
+
+	/**
+	 * Creates the spliterator for the files of the given directory tree.
+	 * @param directory the root of the directory tree, must not be <code>null</code>.
+	 * @param filter the filter selecting the files to read, matching their paths
+	 * as found walking the directory tree; <code>null</code> selects all files.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param encoding the encoding of the files; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. directory not found
+	 */
+	public DirectorySpliterator(final Path directory, final PathMatcher filter, final TokenAlphabet tokenAlphabet, final Charset encoding) throws IOException {
+		final Map<Path, Long> sizes = new TreeMap<>();
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+				// empty files have no words
+				if (attributes.isRegularFile() && attributes.size() > 0 && (filter == null || filter.matches(file))) {
+					sizes.put(file, Long.valueOf(attributes.size()));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		files = sizes.keySet().toArray(new Path[sizes.size()]);
+		offsets = new long[files.length + 1];
+		for (int i = 0; i < files.length; i++) {
+			offsets[i + 1] = offsets[i] + sizes.get(files[i]).longValue();
+		}
+		alphabet = tokenAlphabet;
+		charset = WordSpliterator.checkEncoding(encoding);
+		// with more idle buffers than worker threads, there is no need to allocate once warmed up
+		pool = new BufferPool(SMALL_FILE_SIZE, 2*ForkJoinPool.getCommonPoolParallelism());
+		index = 0;
+		end = files.length;
+	}
+
+	/**
+	 * Copy constructor for splitting off a group of files.
+	 * @param parent the spliterator that is split, providing the files and configuration
+	 * @param from the index of the first file of the group
+	 * @param to the index after the last file of the group
+	 */
+	protected DirectorySpliterator(final DirectorySpliterator parent, final int from, final int to) {
+		files = parent.files;
+		offsets = parent.offsets;
+		alphabet = parent.alphabet;
+		charset = parent.charset;
+		pool = parent.pool;
+		index = from;
+		end = to;
+	}
+
+	/**
+	 * Returns the number of files not traversed yet, including the file being traversed.
+	 * @return the number of files
+	 */
+	public int getFileCount() {
+		return end - index + (current == null ? 0 : 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean tryAdvance(final Consumer<? super Word> wordConsumer) {
+		do {
+			if (current != null) {
+				if (current.tryAdvance(wordConsumer)) {
+					return true;
+				}
+				finishFile();
+			}
+		} while (nextFile());
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forEachRemaining(final Consumer<? super Word> wordConsumer) {
+		do {
+			if (current != null) {
+				current.forEachRemaining(wordConsumer);
+				finishFile();
+			}
+		} while (nextFile());
+	}
+
+	/**
+	 * Opens the next file, if any.
+	 * @return <code>true</code> if a file has been opened, <code>false</code>
+	 * if there are no more files.
+	 */
+	private boolean nextFile() {
+		if (index >= end) {
+			return false;
+		}
+		current = open(index++);
+		return true;
+	}
+
+	/**
+	 * Opens the given file: maps it if it is large, reads it into a pooled buffer otherwise.
+	 * @param i the index of the file
+	 * @return the spliterator of the words of the file
+	 */
+	private Spliterator<Word> open(final int i) {
+		final long size = offsets[i + 1] - offsets[i];
+		shared = false;
+		try {
+			if (size > pool.getBufferSize()) {
+				splittable = true;
+				return new WordSpliterator(files[i].toFile(), WordSpliterator.ADAPTIVE_THRESHOLD, alphabet, charset);
+			}
+			splittable = false;
+			pooled = pool.acquire();
+			// the size when the directory was walked
+			pooled.limit((int) size);
+			try (final FileChannel channel = FileChannel.open(files[i], StandardOpenOption.READ)) {
+				while (pooled.hasRemaining() && channel.read(pooled) >= 0);
+			}
+			pooled.flip();
+			return new WordSpliterator(pooled, alphabet, charset);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Finishes the file that has been traversed, giving back its pooled buffer.
+	 * A mapped file is closed, unmapping any windows left, unless parts of it
+	 * have been split off: these may still be traversed by other threads, and
+	 * each part releases its windows while being traversed.
+	 */
+	private void finishFile() {
+		if (!shared && current instanceof WordSpliterator) {
+			((WordSpliterator) current).close();
+		}
+		current = null;
+		pool.release(pooled);
+		pooled = null;
+	}
+
+	/**
+	 * Tries to split the iterator. If there are at least two files left, they
+	 * are split into two groups of about the same number of bytes. If there is
+	 * only one large file left, the file is split.
+	 * @return <code>null</code> if splitting is not possible, a word
+	 * spliterator for the other half otherwise.
+	 */
+	@Override
+	public Spliterator<Word> trySplit() {
+		if (end - index >= 2) {
+			final long middle = (offsets[index] + offsets[end]) / 2;
+			int split = Arrays.binarySearch(offsets, index + 1, end, middle);
+			if (split < 0) {
+				// the first file starting after the middle...
+				split = -split - 1;
+				if (split > index + 1 && middle - offsets[split - 1] < offsets[split] - middle) {
+					// ...or the last one starting before it, whichever is closer
+					split--;
+				}
+			}
+			split = Math.max(index + 1, Math.min(end - 1, split));
+			final DirectorySpliterator result = new DirectorySpliterator(this, split, end);
+			end = split;
+			return result;
+		}
+		if (current == null && index < end && offsets[index + 1] - offsets[index] > pool.getBufferSize()) {
+			nextFile();
+		}
+		if (current == null || !splittable) {
+			return null;
+		}
+		final Spliterator<Word> result = current.trySplit();
+		shared |= result != null;
+		return result;
+	}
+
+	/**
+	 * Estimates the number of words in the spliterator.
+	 * @return an estimate of the words in the spliterator.
+	 */
+	@Override
+	public long estimateSize() {
+		final long estimate = (offsets[end] - offsets[index]) / BYTES_PER_WORD;
+		return current == null ? estimate : estimate + current.estimateSize();
+	}
+
+	/**
+	 * Returns the characteristics of the spliterator, which are the
+	 * same as those of the {@link WordSpliterator}.
+	 * @return the characteristics of the spliterator.
+	 */
+	@Override
+	public int characteristics() {
+		return NONNULL|IMMUTABLE|CONCURRENT;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Comparator<? super Word> getComparator() {
+		return Word.COMPARATOR;
+	}
+
+	/**
+	 * Closes the file being traversed, if any. The spliterator must
+	 * not be used afterwards.
+	 * @throws IOException in case of error
+	 */
+	@Override
+	public void close() throws IOException {
+		if (current instanceof Closeable) {
+			((Closeable) current).close();
+		}
+		current = null;
+		pooled = null;
+		index = end;
+	}
+
+}
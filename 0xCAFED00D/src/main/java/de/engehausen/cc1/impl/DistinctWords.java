@@ -0,0 +1,94 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Counts the distinct words of a file in parallel, without building a map
+ * of all words and their counts.
+ * <p>The estimate is computed by a {@link HyperLogLog} sketch per part of the
+ * split word spliterator; the words are hashed directly from their bytes
+ * by {@link WordSpliterator#forEachHash(java.util.function.LongConsumer)},
+ * and the sketches of the parts are merged. The memory used is bounded by
+ * the precision of the sketch, regardless of the size of the vocabulary.</p>
+ * <p>The exact count, e.g. for comparison, interns the words and sets the
+ * bits of their ordinals in a bit set per part, merging the bit sets. Words
+ * are interned for the lifetime of the JVM (see {@link Word}), so the memory
+ * used by the exact count grows with the vocabulary and is not given back.</p>
+ */
+public final class DistinctWords {
+
+	private DistinctWords() {
+		// not instantiated
+	}
+
+	/**
+	 * Estimates the number of distinct words of the given file.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param precision the precision of the sketch, see {@link HyperLogLog#HyperLogLog(int)}
+	 * @return the estimated number of distinct words
+	 * @throws IOException in case of error, e.g. file not found
+	 */
+	public static long estimate(final File file, final int precision) throws IOException {
+		try (final WordSpliterator spliterator = new WordSpliterator(file)) {
+			return sketch(spliterator, precision).estimate();
+		}
+	}
+
+	/**
+	 * Builds the sketch of the remaining words of the given spliterator,
+	 * in the common fork/join pool.
+	 * @param spliterator the spliterator, must not be <code>null</code>.
+	 * It has been traversed afterwards.
+	 * @param precision the precision of the sketch, see {@link HyperLogLog#HyperLogLog(int)}
+	 * @return the sketch, never <code>null</code>.
+	 */
+	public static HyperLogLog sketch(final WordSpliterator spliterator, final int precision) {
+		// fails early on an invalid precision
+		final HyperLogLog empty = new HyperLogLog(precision);
+		return ForkJoinPool.commonPool().invoke(new LeafTraversal<>(spliterator, part -> {
+			final HyperLogLog sketch = new HyperLogLog(empty.getPrecision());
+			part.forEachHash(sketch::add);
+			return sketch;
+		}, (first, second) -> {
+			first.merge(second);
+			return first;
+		}));
+	}
+
+	/**
+	 * Counts the distinct words of the given file exactly, interning them.
+	 * @param file the file, must not be <code>null</code>.
+	 * @return the number of distinct words
+	 * @throws IOException in case of error, e.g. file not found
+	 */
+	public static long count(final File file) throws IOException {
+		try (final WordSpliterator spliterator = new WordSpliterator(file)) {
+			return count(spliterator);
+		}
+	}
+
+	/**
+	 * Counts the distinct remaining words of the given spliterator exactly,
+	 * in the common fork/join pool. The words are interned and stay interned
+	 * for the lifetime of the JVM.
+	 * @param spliterator the spliterator, must not be <code>null</code>.
+	 * It has been traversed afterwards.
+	 * @return the number of distinct words
+	 */
+	public static long count(final WordSpliterator spliterator) {
+		return ForkJoinPool.commonPool().invoke(new LeafTraversal<>(spliterator, part -> {
+			final BitSet ordinals = new BitSet();
+			part.forEachRemaining(word -> ordinals.set(word.getOrdinal()));
+			return ordinals;
+		}, (first, second) -> {
+			first.or(second);
+			return first;
+		})).cardinality();
+	}
+
+}
@@ -0,0 +1,503 @@
+package de.engehausen.cc1.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Maps windows of a file into memory on demand. A single mapping is
+ * limited to <code>Integer.MAX_VALUE</code> bytes; mapping a file in windows
+ * supports files of any size and keeps the address space in use bounded.
+ * <p>The file is only open while windows are mapped or bytes are read: from
+ * the {@link FileChannel} JavaDoc, "a mapping, once established, is not
+ * dependent upon the file channel that was used to create it. Closing the
+ * channel, in particular, has no effect upon the validity of the mapping."
+ * Threads mapping or reading at the same time share one channel, as both
+ * mapping and positional reads of a {@link FileChannel} are safe for concurrent
+ * use; the last of them closes it. Thus windows that are never closed do not
+ * hold a file descriptor. A thread interrupted while using the channel closes
+ * it (see {@link java.nio.channels.InterruptibleChannel}); the other threads
+ * then reopen it transparently, unless the windows have been closed.</p>
+ * <p>A mapping is only released when its buffer is garbage collected
+ * (see <a href="http://bugs.java.com/view_bug.do?bug_id=4724038">JDK bug 4724038</a>),
+ * which may take arbitrarily long in a long-running process. Therefore windows
+ * are reference counted and unmapped explicitly through the cleaner of the
+ * buffer once released by all spliterators sharing them, and all windows
+ * still mapped are unmapped on {@link #close()}. If the cleaner is not
+ * accessible, unmapping falls back to garbage collection.</p>
+ * <p>Alternatively, windows are read into direct buffers taken from a
+ * {@link BufferPool} using positional reads, e.g. on network file systems
+ * where page faults of mapped files stall the reading threads. The window
+ * size is the capacity of the pooled buffers then, and released windows give
+ * their buffers back to the pool.</p>
+ * <p>The spliterators working on the windows divide the file at split points
+ * given by a {@link SplitRule}: windows end at the last split point within the
+ * window size, see {@link #endAtLastSplit(ByteBuffer, SplitRule)}, and ranges
+ * are split at the first split point found by reading a few bytes, see
+ * {@link #findSplit(long, long, SplitRule)}.</p>
+ */
+class FileWindows implements Closeable {
+
+	/**
+	 * Decides where the bytes of a file may be divided, such that the parts
+	 * can be scanned separately.
+	 */
+	@FunctionalInterface
+	interface SplitRule {
+
+		/**
+		 * Indicates whether the bytes may be divided between the two given bytes.
+		 * @param before the byte before the split point
+		 * @param after the byte after the split point
+		 * @return <code>true</code> if the bytes can be divided between the two bytes.
+		 */
+		boolean isSplit(byte before, byte after);
+
+	}
+
+	/**
+	 * A window of the file, shared by the spliterators working on parts of it.
+	 */
+	static final class Window {
+
+		private final ByteBuffer bytes;
+		private final AtomicInteger references;
+		private volatile boolean released;
+
+		private Window(final ByteBuffer buffer) {
+			bytes = buffer;
+			references = new AtomicInteger(1);
+		}
+
+		/**
+		 * Returns the bytes of the window.
+		 * @return the bytes, either mapped or read, never <code>null</code>.
+		 */
+		ByteBuffer buffer() {
+			return bytes;
+		}
+
+		/**
+		 * Indicates whether the window has been unmapped or its buffer returned
+		 * to the pool, so its bytes must no longer be accessed.
+		 * @return <code>true</code> if released.
+		 */
+		boolean isReleased() {
+			return released;
+		}
+
+	}
+
+	// the number of bytes read at a time when looking for a split point
+	private static final int PROBE_SIZE = 256;
+	// the number of bytes mapped and not released yet, across all files
+	private static final AtomicLong MAPPED_BYTES = new AtomicLong();
+	// unmaps a buffer, null if not supported by the runtime
+	private static final Predicate<ByteBuffer> UNMAPPER = createUnmapper();
+
+	/**
+	 * Returns the number of bytes of all windows that are currently mapped and
+	 * have not been released yet. This is meant for monitoring long-running processes.
+	 * @return the number of mapped bytes
+	 */
+	static long getMappedBytes() {
+		return MAPPED_BYTES.get();
+	}
+
+	/**
+	 * Indicates whether windows are unmapped explicitly. If not, released windows
+	 * remain mapped until they are garbage collected.
+	 * @return <code>true</code> if windows are unmapped explicitly.
+	 */
+	static boolean isUnmapSupported() {
+		return UNMAPPER != null;
+	}
+
+	/**
+	 * Unmaps a buffer mapped elsewhere, e.g. for writing. The buffer must
+	 * not be accessed afterwards. Without explicit unmapping, this does nothing.
+	 * @param buffer the mapped buffer, must not be <code>null</code>.
+	 */
+	static void unmap(final ByteBuffer buffer) {
+		if (UNMAPPER != null) {
+			UNMAPPER.test(buffer);
+		}
+	}
+
+	private static Predicate<ByteBuffer> createUnmapper() {
+		try {
+			// Java 9 and later
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			final Object unsafe = theUnsafe.get(null);
+			return buffer -> invoke(invokeCleaner, unsafe, buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// not available, try the Java 8 way
+		}
+		try {
+			final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return buffer -> {
+				try {
+					return invoke(clean, cleaner.invoke(buffer));
+				} catch (IllegalAccessException | InvocationTargetException e) {
+					return false;
+				}
+			};
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// not available, fall back to garbage collection
+			return null;
+		}
+	}
+
+	private static boolean invoke(final Method method, final Object target, final Object... arguments) {
+		try {
+			method.invoke(target, arguments);
+			return true;
+		} catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	private final File file;
+	private final long size;
+	private final int windowSize;
+	private final BufferPool pool;
+	private final Set<Window> windows;
+	// the channel shared by the threads mapping or reading, guarded by this
+	private FileChannel channel;
+	private int users;
+	private volatile boolean closed;
+
+	/**
+	 * Creates the windows for the given file.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param windowSize the maximum size of a window in bytes, must be positive
+	 * @throws IOException in case of error, e.g. file not found
+	 */
+	FileWindows(final File file, final int windowSize) throws IOException {
+		this(file, windowSize, null);
+	}
+
+	/**
+	 * Creates the windows for the given file, read into buffers of the given pool.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param bufferPool the pool of the buffers to read the windows into, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. file not found
+	 */
+	FileWindows(final File file, final BufferPool bufferPool) throws IOException {
+		this(file, bufferPool.getBufferSize(), bufferPool);
+	}
+
+	private FileWindows(final File file, final int windowSize, final BufferPool bufferPool) throws IOException {
+		Objects.requireNonNull(file);
+		if (!file.exists()) {
+			throw new IOException("Not found: "+file.getCanonicalPath());
+		}
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("Invalid window size: "+windowSize);
+		}
+		this.file = file;
+		this.windowSize = windowSize;
+		pool = bufferPool;
+		windows = ConcurrentHashMap.newKeySet();
+		try (final FileChannel sizing = open()) {
+			size = sizing.size();
+		}
+	}
+
+	/**
+	 * Returns the size of the file at the time the windows were created.
+	 * @return the size of the file in bytes
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Returns the maximum size of a window.
+	 * @return the maximum size of a window in bytes
+	 */
+	int windowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Indicates whether the windows are mapped, rather than read into pooled buffers.
+	 * @return <code>true</code> if the windows are mapped.
+	 */
+	boolean isMapped() {
+		return pool == null;
+	}
+
+	/**
+	 * Indicates whether the windows have been closed.
+	 * @return <code>true</code> if closed.
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Maps or reads the given region of the file. The caller holds the only
+	 * reference to the window and must {@link #release(Window)} it when done.
+	 * @param position the offset of the region in the file
+	 * @param length the length of the region, at most the window size
+	 * @return the region, never <code>null</code>. If the file has been
+	 * truncated, a region read may be shorter than requested.
+	 * @throws IOException in case of error, or if closed
+	 */
+	Window map(final long position, final int length) throws IOException {
+		assert length <= windowSize;
+		if (closed) {
+			throw new IOException("Closed: "+file);
+		}
+		final Window result;
+		if (pool == null) {
+			result = new Window(mapRegion(position, length));
+			MAPPED_BYTES.addAndGet(length);
+		} else {
+			final ByteBuffer buffer = pool.acquire();
+			buffer.limit(length);
+			try {
+				read(buffer, position);
+			} catch (IOException e) {
+				pool.release(buffer);
+				throw e;
+			}
+			buffer.flip();
+			result = new Window(buffer);
+		}
+		windows.add(result);
+		return result;
+	}
+
+	/**
+	 * Adds a reference to the given window, e.g. when a spliterator
+	 * working on the window is split.
+	 * @param window the window, must not be <code>null</code>.
+	 */
+	void retain(final Window window) {
+		window.references.incrementAndGet();
+	}
+
+	/**
+	 * Releases a reference to the given window. The window is unmapped
+	 * when the last reference has been released.
+	 * @param window the window, may be <code>null</code>.
+	 */
+	void release(final Window window) {
+		if (window != null && window.references.decrementAndGet() == 0) {
+			unmap(window);
+		}
+	}
+
+	/**
+	 * Unmaps all windows that are still mapped, or gives their buffers back
+	 * to the pool, respectively, and closes the file. The windows must not be
+	 * accessed anymore afterwards; further attempts to map windows fail.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			closeChannel();
+		}
+		for (Window window : windows) {
+			unmap(window);
+		}
+	}
+
+	/**
+	 * Reads bytes of the file into the given buffer, until the buffer
+	 * is full or the end of the file is reached. This is meant for probing
+	 * a few bytes without mapping them.
+	 * @param destination the buffer to read into
+	 * @param position the offset in the file to read from
+	 * @throws IOException in case of error, or if closed
+	 */
+	void read(final ByteBuffer destination, final long position) throws IOException {
+		final int start = destination.position();
+		while (true) {
+			final FileChannel current = acquire();
+			try {
+				// continues after the bytes read before a retry
+				long offset = position + destination.position() - start;
+				while (destination.hasRemaining()) {
+					final int count = current.read(destination, offset);
+					if (count < 0) {
+						break;
+					}
+					offset += count;
+				}
+				return;
+			} catch (ClosedChannelException e) {
+				rethrowIfFinal(e);
+			} finally {
+				release();
+			}
+		}
+	}
+
+	/**
+	 * Finds the first split point at or after the given offset, by reading the
+	 * bytes from the byte before the offset up to the split point.
+	 * @param offset the offset in the file, positive
+	 * @param fence the offset to stop at
+	 * @param rule the rule deciding the split points, must not be <code>null</code>.
+	 * @return the offset of the first split point at or after the given offset,
+	 * or the fence if there is none before it.
+	 * @throws IOException in case of error, or if closed
+	 */
+	long findSplit(final long offset, final long fence, final SplitRule rule) throws IOException {
+		final ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+		// the byte before the offset is needed as well
+		long position = offset - 1;
+		// keeps the channel open for all probes
+		acquire();
+		try {
+			return findSplit(probe, position, fence, rule);
+		} finally {
+			release();
+		}
+	}
+
+	private long findSplit(final ByteBuffer probe, final long start, final long fence, final SplitRule rule) throws IOException {
+		long position = start;
+		while (position + 1 < fence) {
+			probe.clear();
+			probe.limit((int) Math.min(PROBE_SIZE, fence - position));
+			read(probe, position);
+			probe.flip();
+			if (probe.limit() < 2) {
+				// the file has been truncated
+				break;
+			}
+			for (int i = 1; i < probe.limit(); i++) {
+				if (rule.isSplit(probe.get(i - 1), probe.get(i))) {
+					return position + i;
+				}
+			}
+			// the last byte read is the byte before the next probe
+			position += probe.limit() - 1;
+		}
+		return fence;
+	}
+
+	/**
+	 * Ends the given bytes of a window at their last split point, so that
+	 * nothing scanned spans two windows. If there is no split point at all,
+	 * the bytes are left as they are, cutting what spans the end of the window.
+	 * @param bytes the bytes of a window followed by further bytes, must not be <code>null</code>.
+	 * @param rule the rule deciding the split points, must not be <code>null</code>.
+	 */
+	static void endAtLastSplit(final ByteBuffer bytes, final SplitRule rule) {
+		int limit = bytes.limit() - 1;
+		while (limit > 0 && !rule.isSplit(bytes.get(limit - 1), bytes.get(limit))) {
+			limit--;
+		}
+		if (limit > 0) {
+			bytes.limit(limit);
+		}
+	}
+
+	private ByteBuffer mapRegion(final long position, final int length) throws IOException {
+		while (true) {
+			final FileChannel current = acquire();
+			try {
+				return current.map(FileChannel.MapMode.READ_ONLY, position, length);
+			} catch (ClosedChannelException e) {
+				rethrowIfFinal(e);
+			} finally {
+				release();
+			}
+		}
+	}
+
+	/**
+	 * Returns the channel shared by the threads mapping or reading, opening
+	 * it if there is none or if it has been closed by an interrupt of another
+	 * thread. Each call must be followed by a call of {@link #release()}.
+	 * @return the open channel, never <code>null</code>.
+	 * @throws IOException in case of error, or if closed
+	 */
+	private synchronized FileChannel acquire() throws IOException {
+		if (closed) {
+			throw new IOException("Closed: "+file);
+		}
+		if (channel == null || !channel.isOpen()) {
+			channel = open();
+		}
+		users++;
+		return channel;
+	}
+
+	/**
+	 * Closes the channel once no thread maps or reads anymore.
+	 */
+	private synchronized void release() {
+		if (--users == 0) {
+			closeChannel();
+		}
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing was written, nothing is lost
+			}
+			channel = null;
+		}
+	}
+
+	/**
+	 * Throws the given exception if the windows have been closed or if the
+	 * current thread has been interrupted; otherwise another thread has been
+	 * interrupted while using the channel, and the operation may be retried.
+	 * @param e the exception of the channel
+	 * @throws IOException the given exception, if final
+	 */
+	private void rethrowIfFinal(final ClosedChannelException e) throws IOException {
+		if (closed || e instanceof ClosedByInterruptException) {
+			throw e;
+		}
+	}
+
+	private void unmap(final Window window) {
+		// only the first attempt to remove the window unmaps it
+		if (windows.remove(window)) {
+			window.released = true;
+			if (pool != null) {
+				pool.release(window.bytes);
+			} else {
+				MAPPED_BYTES.addAndGet(-window.bytes.capacity());
+				if (UNMAPPER != null) {
+					UNMAPPER.test(window.bytes);
+				}
+			}
+		}
+	}
+
+	private FileChannel open() throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+}
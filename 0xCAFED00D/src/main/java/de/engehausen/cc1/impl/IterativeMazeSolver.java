@@ -0,0 +1,144 @@
+package de.engehausen.cc1.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.engehausen.cc1.api.Maze;
+import de.engehausen.cc1.api.Maze.Direction;
+import de.engehausen.cc1.api.Position;
+import de.engehausen.cc1.challenge.MazeSolver;
+
+/**
+ * A back-tracking maze solver searching in the same order as the
+ * {@link RecursiveMazeSolver}, but without recursion: the search is
+ * driven by an explicit stack of frames in an <code>int[]</code>, so the
+ * length of the route is not limited by the size of the thread stack.
+ * Large mazes are solved on threads with the default stack size.
+ * <p>A frame holds the coordinate of a position on the current route and,
+ * packed into one <code>int</code>, the direction the position was entered
+ * from and the index of the next direction to try. The route is the
+ * sequence of positions of the frames on the stack.</p>
+ * <p>Visited positions are kept in a bitmap of 64&times;64 tiles, one bit
+ * per position; tiles are created as the search reaches them. A neighbor
+ * that has been visited is skipped before creating a position for it.</p>
+ */
+public class IterativeMazeSolver implements MazeSolver {
+
+	// the ints of a frame: x, y, and the arrival direction and index of the next direction
+	private static final int FRAME = 3;
+	private static final int ARRIVAL_SHIFT = 3;
+	private static final int INDEX_MASK = (1 << ARRIVAL_SHIFT) - 1;
+	// the directions to search, by arrival direction ordinal plus one, zero at the start
+	private static final Direction[][] NEXT;
+	private static final int[] DX;
+	private static final int[] DY;
+
+	static {
+		final Direction[] all = Direction.values();
+		NEXT = new Direction[all.length + 1][];
+		NEXT[0] = RecursiveMazeSolver.directionsAfter(null);
+		DX = new int[all.length];
+		DY = new int[all.length];
+		for (Direction direction : all) {
+			NEXT[direction.ordinal() + 1] = RecursiveMazeSolver.directionsAfter(direction);
+			final Position neighbor = Position.at(0, 0).neighborAt(direction);
+			DX[direction.ordinal()] = neighbor.getX();
+			DY[direction.ordinal()] = neighbor.getY();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<Position> getEscapeRoute(final Maze maze, final Position start, final Position exit) throws IllegalStateException {
+		final List<Position> path = new ArrayList<>(1024);
+		final Visited visited = new Visited();
+		int[] stack = new int[FRAME * 1024];
+		path.add(start);
+		visited.add(start.getX(), start.getY());
+		if (exit.equals(start)) {
+			return path;
+		}
+		stack[0] = start.getX();
+		stack[1] = start.getY();
+		stack[2] = 0;
+		int top = 0;
+		while (top >= 0) {
+			final int state = stack[top + 2];
+			final Direction[] directions = NEXT[state >>> ARRIVAL_SHIFT];
+			final int index = state & INDEX_MASK;
+			if (index == directions.length) {
+				// all directions searched, back-track
+				path.remove(path.size() - 1);
+				top -= FRAME;
+				continue;
+			}
+			stack[top + 2] = state + 1;
+			final Direction direction = directions[index];
+			if (maze.canGo(direction, path.get(path.size() - 1))) {
+				final int x = stack[top] + DX[direction.ordinal()];
+				final int y = stack[top + 1] + DY[direction.ordinal()];
+				if (visited.add(x, y)) {
+					final Position next = Position.at(x, y);
+					path.add(next);
+					if (exit.equals(next)) {
+						return path;
+					}
+					top += FRAME;
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, 2 * stack.length);
+					}
+					stack[top] = x;
+					stack[top + 1] = y;
+					stack[top + 2] = (direction.ordinal() + 1) << ARRIVAL_SHIFT;
+				}
+			}
+		}
+		throw new IllegalStateException("there is no route to the exit");
+	}
+
+	/**
+	 * The visited positions, one bit per position in tiles of 64&times;64 positions.
+	 */
+	private static final class Visited {
+
+		private static final int TILE_SHIFT = 6;
+		private static final int TILE_MASK = (1 << TILE_SHIFT) - 1;
+
+		private final Map<Long, long[]> tiles;
+		// the tile used last, as the search mostly stays within a tile
+		private long lastKey;
+		private long[] lastTile;
+
+		Visited() {
+			tiles = new HashMap<>();
+		}
+
+		/**
+		 * Marks the given position as visited.
+		 * @param x the x component of the position
+		 * @param y the y component of the position
+		 * @return <code>true</code> if the position had not been visited before.
+		 */
+		boolean add(final int x, final int y) {
+			final long key = ((long) (x >> TILE_SHIFT) << 32) | ((y >> TILE_SHIFT) & 0xffffffffL);
+			if (lastTile == null || key != lastKey) {
+				lastTile = tiles.computeIfAbsent(Long.valueOf(key), k -> new long[1 << TILE_SHIFT]);
+				lastKey = key;
+			}
+			final long bit = 1L << (x & TILE_MASK);
+			final int row = y & TILE_MASK;
+			if ((lastTile[row] & bit) != 0) {
+				return false;
+			}
+			lastTile[row] |= bit;
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,71 @@
+package de.engehausen.cc1.impl;
+
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Traverses the leaves of the split tree of a word spliterator in parallel.
+ * The task splits its spliterator as long as possible, forking a task for
+ * each part split off, and then traverses the rest of the spliterator as a
+ * leaf. The results of the leaves are merged in the order of the parts of
+ * the file: a part is always merged with the part following it.
+ * @param <R> the type of the result of a leaf
+ */
+final class LeafTraversal<R> extends RecursiveTask<R> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient WordSpliterator spliterator;
+	private final transient Function<? super WordSpliterator, R> leaf;
+	private final transient BinaryOperator<R> merge;
+
+	/**
+	 * Creates the traversal of the given spliterator.
+	 * @param words the spliterator, must not be <code>null</code>. It has been traversed afterwards.
+	 * @param leafTraversal traverses a leaf and returns its result, must not be <code>null</code>.
+	 * @param mergeResults merges the result of a part with the result of the part following it,
+	 * must not be <code>null</code>.
+	 */
+	LeafTraversal(final WordSpliterator words, final Function<? super WordSpliterator, R> leafTraversal, final BinaryOperator<R> mergeResults) {
+		spliterator = words;
+		leaf = leafTraversal;
+		merge = mergeResults;
+	}
+
+	/**
+	 * Creates the traversal of the given spliterator, for leaves without a result.
+	 * @param words the spliterator, must not be <code>null</code>. It has been traversed afterwards.
+	 * @param leafTraversal traverses a leaf, must not be <code>null</code>.
+	 * @return the traversal, never <code>null</code>.
+	 */
+	static LeafTraversal<Void> of(final WordSpliterator words, final Consumer<? super WordSpliterator> leafTraversal) {
+		return new LeafTraversal<>(words, part -> {
+			leafTraversal.accept(part);
+			return null;
+		}, (first, second) -> null);
+	}
+
+	/**
+	 * Returns the spliterator traversed.
+	 * @return the spliterator, never <code>null</code>.
+	 */
+	WordSpliterator getSpliterator() {
+		return spliterator;
+	}
+
+	@Override
+	protected R compute() {
+		final WordSpliterator split = spliterator.trySplit();
+		if (split != null) {
+			// the part split off follows the part of this spliterator
+			final LeafTraversal<R> second = new LeafTraversal<>(split, leaf, merge);
+			second.fork();
+			final R first = compute();
+			return merge.apply(first, second.join());
+		}
+		return leaf.apply(spliterator);
+	}
+
+}
@@ -0,0 +1,316 @@
+package de.engehausen.cc1.impl;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongPredicate;
+import java.util.function.ObjLongConsumer;
+
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Counts words in direct memory, outside of the heap, so the garbage collector
+ * has the same small amount of work regardless of the size of the vocabulary.
+ * The words are not interned while counting; they are passed as bytes by a
+ * {@link WordSpliterator}, see {@link WordSpliterator#forEachBytes(WordBytesConsumer)}.
+ * <p>The table is divided into stripes selected by the high bits of the hash of
+ * a word, each stripe guarded by its own lock, so threads counting concurrently
+ * rarely wait for each other. A stripe is an open addressing hash table in a
+ * direct buffer, each slot holding the hash of a word, the offset of the word
+ * in an arena and its count; the arena is a direct buffer holding the bytes of
+ * the words, each preceded by its length. Slots and arena grow by doubling,
+ * copying the old buffer into a new one and freeing the old one.</p>
+ * <p>The counts are iterated stripe by stripe, see {@link #forEach(ObjLongConsumer)};
+ * the top words are selected creating strings for candidates only, see
+ * {@link #getTopWords(int)}.</p>
+ * <p>The table is {@link Closeable}: closing it frees the direct memory,
+ * without waiting for garbage collection. The table must not be used afterwards.</p>
+ */
+public class OffHeapWordCounts implements WordBytesConsumer, Closeable {
+
+	/**
+	 * The default number of stripes.
+	 */
+	public static final int DEFAULT_STRIPES = 64;
+
+	// slot layout: hash, offset of the word in the arena plus one (zero if empty), count
+	private static final int SLOT_BYTES = 16;
+	private static final int OFFSET = 4;
+	private static final int COUNT = 8;
+	private static final int INITIAL_SLOTS = 1024;
+	private static final int INITIAL_ARENA = 16*1024;
+	// the largest number of slots of a stripe, keeping the slots within one buffer
+	private static final int MAX_SLOTS = 1 << 26;
+
+	private final Stripe[] stripes;
+	private final int stripeShift;
+
+	/**
+	 * Creates the table with the default number of stripes.
+	 */
+	public OffHeapWordCounts() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * Creates the table.
+	 * @param stripeCount the number of stripes, a power of two
+	 */
+	public OffHeapWordCounts(final int stripeCount) {
+		if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+			throw new IllegalArgumentException("Not a power of two: "+stripeCount);
+		}
+		stripes = new Stripe[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe();
+		}
+		// a single stripe uses no bits at all
+		stripeShift = stripeCount == 1 ? 32 : Integer.numberOfLeadingZeros(stripeCount) + 1;
+	}
+
+	/**
+	 * Counts one occurrence of a word.
+	 * @param chars the <code>UTF-8</code> encoded characters, never <code>null</code>.
+	 * @param offset the offset of the word in the array
+	 * @param length the length of the word
+	 */
+	@Override
+	public void accept(final byte[] chars, final int offset, final int length) {
+		add(chars, offset, length, 1L);
+	}
+
+	/**
+	 * Adds to the count of a word.
+	 * @param chars the <code>UTF-8</code> encoded characters, never <code>null</code>.
+	 * @param offset the offset of the word in the array
+	 * @param length the length of the word
+	 * @param delta the amount to add
+	 */
+	public void add(final byte[] chars, final int offset, final int length, final long delta) {
+		final int hash = ByteKeys.hash(chars, offset, length);
+		stripe(hash).add(hash, chars, offset, length, delta);
+	}
+
+	/**
+	 * Counts the remaining words of the given spliterator, in the common fork/join pool.
+	 * @param spliterator the spliterator, must not be <code>null</code>.
+	 * It has been traversed afterwards.
+	 */
+	public void count(final WordSpliterator spliterator) {
+		ForkJoinPool.commonPool().invoke(LeafTraversal.of(spliterator, part -> part.forEachBytes(this)));
+	}
+
+	/**
+	 * Returns the count of the given word.
+	 * @param word the (case-folded) word, must not be <code>null</code>.
+	 * @return the count, zero if the word has not been counted
+	 */
+	public long getCount(final String word) {
+		final byte[] chars = word.getBytes(StandardCharsets.UTF_8);
+		final int hash = ByteKeys.hash(chars, 0, chars.length);
+		return stripe(hash).get(hash, chars);
+	}
+
+	/**
+	 * Returns the number of distinct words counted.
+	 * @return the number of distinct words
+	 */
+	public long size() {
+		long result = 0;
+		for (Stripe stripe : stripes) {
+			result += stripe.size();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes of direct memory allocated.
+	 * @return the number of bytes
+	 */
+	public long getOffHeapBytes() {
+		long result = 0;
+		for (Stripe stripe : stripes) {
+			result += stripe.capacity();
+		}
+		return result;
+	}
+
+	/**
+	 * Passes each distinct word and its count to the given consumer, in no
+	 * particular order. The stripe of the word is locked during the call,
+	 * so the consumer must not update the table.
+	 * @param consumer the consumer of the words and their counts, must not be <code>null</code>.
+	 */
+	public void forEach(final ObjLongConsumer<String> consumer) {
+		for (Stripe stripe : stripes) {
+			stripe.forEach(count -> true, consumer);
+		}
+	}
+
+	/**
+	 * Returns the words counted most often, by descending count and then in
+	 * lexicographical order. Strings are only created for the words that may be
+	 * among the top words, and only the top words are interned.
+	 * @param k the number of words to return
+	 * @return the top words, at most <code>k</code>, never <code>null</code>.
+	 */
+	public List<Word> getTopWords(final int k) {
+		final TopWords top = new TopWords(k);
+		for (Stripe stripe : stripes) {
+			stripe.forEach(top::accepts, top::offer);
+		}
+		return top.getWords();
+	}
+
+	/**
+	 * Frees the direct memory of the table.
+	 */
+	@Override
+	public void close() {
+		for (Stripe stripe : stripes) {
+			stripe.free();
+		}
+	}
+
+	// the high bits of the hash select the stripe, its low bits the slot
+	private Stripe stripe(final int hash) {
+		return stripes[stripeShift == 32 ? 0 : hash >>> stripeShift];
+	}
+
+	private static ByteBuffer allocate(final int capacity) {
+		return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * A part of the table, guarded by its own lock.
+	 */
+	private static final class Stripe {
+
+		private ByteBuffer slots;
+		private ByteBuffer arena;
+		private int mask;
+		private int size;
+
+		Stripe() {
+			slots = allocate(INITIAL_SLOTS * SLOT_BYTES);
+			arena = allocate(INITIAL_ARENA);
+			mask = INITIAL_SLOTS - 1;
+		}
+
+		synchronized void add(final int hash, final byte[] chars, final int offset, final int length, final long delta) {
+			for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+				final int base = slot * SLOT_BYTES;
+				final int entry = slots.getInt(base + OFFSET);
+				if (entry == 0) {
+					if (arena.remaining() < Integer.BYTES + length) {
+						growArena(Integer.BYTES + length);
+					}
+					slots.putInt(base, hash);
+					slots.putInt(base + OFFSET, arena.position() + 1);
+					slots.putLong(base + COUNT, delta);
+					arena.putInt(length);
+					arena.put(chars, offset, length);
+					if (++size > (mask + 1) / 4 * 3) {
+						growSlots();
+					}
+					return;
+				}
+				if (slots.getInt(base) == hash && ByteKeys.matches(arena, entry - 1, chars, offset, length)) {
+					slots.putLong(base + COUNT, slots.getLong(base + COUNT) + delta);
+					return;
+				}
+			}
+		}
+
+		synchronized long get(final int hash, final byte[] chars) {
+			for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+				final int base = slot * SLOT_BYTES;
+				final int entry = slots.getInt(base + OFFSET);
+				if (entry == 0) {
+					return 0L;
+				}
+				if (slots.getInt(base) == hash && ByteKeys.matches(arena, entry - 1, chars, 0, chars.length)) {
+					return slots.getLong(base + COUNT);
+				}
+			}
+		}
+
+		synchronized void forEach(final LongPredicate filter, final ObjLongConsumer<String> consumer) {
+			byte[] word = new byte[64];
+			for (int base = 0; base < slots.capacity(); base += SLOT_BYTES) {
+				final int entry = slots.getInt(base + OFFSET);
+				if (entry != 0) {
+					final long count = slots.getLong(base + COUNT);
+					if (filter.test(count)) {
+						final int length = arena.getInt(entry - 1);
+						if (length > word.length) {
+							word = new byte[Math.max(length, 2*word.length)];
+						}
+						for (int i = 0; i < length; i++) {
+							word[i] = arena.get(entry - 1 + Integer.BYTES + i);
+						}
+						consumer.accept(new String(word, 0, length, StandardCharsets.UTF_8), count);
+					}
+				}
+			}
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		synchronized long capacity() {
+			return (long) slots.capacity() + arena.capacity();
+		}
+
+		synchronized void free() {
+			FileWindows.unmap(slots);
+			FileWindows.unmap(arena);
+			slots = null;
+			arena = null;
+		}
+
+		private void growArena(final int minimum) {
+			final long capacity = Math.max(2L * arena.capacity(), (long) arena.position() + minimum);
+			if (capacity > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("Stripe full, use more stripes");
+			}
+			final ByteBuffer old = arena;
+			final ByteBuffer copy = old.duplicate();
+			copy.flip();
+			arena = allocate((int) capacity);
+			arena.put(copy);
+			FileWindows.unmap(old);
+		}
+
+		private void growSlots() {
+			final int count = 2 * (mask + 1);
+			if (count > MAX_SLOTS) {
+				throw new IllegalStateException("Stripe full, use more stripes");
+			}
+			final ByteBuffer old = slots;
+			slots = allocate(count * SLOT_BYTES);
+			mask = count - 1;
+			for (int base = 0; base < old.capacity(); base += SLOT_BYTES) {
+				final int entry = old.getInt(base + OFFSET);
+				if (entry != 0) {
+					final int hash = old.getInt(base);
+					int slot = hash & mask;
+					while (slots.getInt(slot * SLOT_BYTES + OFFSET) != 0) {
+						slot = (slot + 1) & mask;
+					}
+					final int target = slot * SLOT_BYTES;
+					slots.putInt(target, hash);
+					slots.putInt(target + OFFSET, entry);
+					slots.putLong(target + COUNT, old.getLong(base + COUNT));
+				}
+			}
+			FileWindows.unmap(old);
+		}
+
+	}
+
+}
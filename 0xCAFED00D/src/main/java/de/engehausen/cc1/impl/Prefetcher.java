@@ -0,0 +1,186 @@
+package de.engehausen.cc1.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the bytes of mapped files ahead of the spliterators traversing them,
+ * so that their pages are in the page cache when the spliterators get there.
+ * On a cold page cache, a thread traversing a mapped file otherwise stalls on
+ * a page fault for every few pages it reaches, waiting for the disk each time.
+ * Attach an instance to the root spliterator using
+ * {@link WordSpliterator#setPrefetcher(Prefetcher)} before the stream is run.
+ * <p>Each spliterator requests the bytes up to the prefetch distance ahead of
+ * its position whenever it has consumed half of that distance. The requests of
+ * all spliterators are read by a single thread of minimum priority, in chunks,
+ * into a buffer whose contents are discarded. The bytes are read rather than
+ * touched through the mapping, so a window unmapped while its bytes are read
+ * ahead does no harm.</p>
+ * <p>The memory budget bounds the bytes requested but not read yet; requests
+ * exceeding it are dropped, as the prefetcher lags behind the spliterators then
+ * anyway. Prefetching is of no use on a warm page cache, where it only costs
+ * the copying of the bytes on the prefetching thread.</p>
+ * <p>The bytes are read through the {@link FileWindows} of the spliterator,
+ * which share their channel with the threads mapping windows at the same time.
+ * Closing the prefetcher waits for its thread to end, so nothing is read
+ * anymore once {@link #close()} returns; close the prefetcher before closing
+ * the spliterators it reads for.</p>
+ */
+public class Prefetcher implements Closeable {
+
+	/**
+	 * The default prefetch distance, 8MB.
+	 */
+	public static final int DEFAULT_DISTANCE = 8*1024*1024;
+
+	/**
+	 * The default memory budget, 64MB.
+	 */
+	public static final long DEFAULT_BUDGET = 64*1024*1024;
+
+	// the number of bytes read at a time
+	private static final int CHUNK_SIZE = 256*1024;
+	// stops the prefetching thread
+	private static final Request END = new Request(null, 0L, 0);
+
+	/**
+	 * A range of a file to read ahead.
+	 */
+	private static class Request {
+
+		private final FileWindows windows;
+		private final long position;
+		private final int length;
+
+		Request(final FileWindows fileWindows, final long offset, final int count) {
+			windows = fileWindows;
+			position = offset;
+			length = count;
+		}
+
+	}
+
+	private final int distance;
+	private final long budget;
+	private final BlockingQueue<Request> queue;
+	private final AtomicLong pending;
+	private final AtomicLong prefetched;
+	private final AtomicLong dropped;
+	private final Thread thread;
+	private volatile boolean closed;
+
+	/**
+	 * Creates the prefetcher with the default distance and memory budget.
+	 */
+	public Prefetcher() {
+		this(DEFAULT_DISTANCE, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Creates the prefetcher with the given distance and memory budget.
+	 * @param prefetchDistance the number of bytes read ahead of the position of each spliterator
+	 * @param memoryBudget the maximum number of bytes requested but not read yet
+	 * @throws IllegalArgumentException if the distance or budget is not positive
+	 */
+	public Prefetcher(final int prefetchDistance, final long memoryBudget) {
+		if (prefetchDistance <= 0 || memoryBudget <= 0) {
+			throw new IllegalArgumentException("Invalid distance or budget: "+prefetchDistance+", "+memoryBudget);
+		}
+		distance = prefetchDistance;
+		budget = memoryBudget;
+		queue = new LinkedBlockingQueue<>();
+		pending = new AtomicLong();
+		prefetched = new AtomicLong();
+		dropped = new AtomicLong();
+		thread = new Thread(this::run, "word-prefetch");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Returns the number of bytes read ahead of each spliterator.
+	 * @return the prefetch distance in bytes
+	 */
+	public int getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Returns the number of bytes that have been read ahead.
+	 * @return the number of bytes prefetched
+	 */
+	public long getPrefetchedBytes() {
+		return prefetched.get();
+	}
+
+	/**
+	 * Returns the number of bytes whose prefetching has been dropped,
+	 * because it exceeded the memory budget.
+	 * @return the number of bytes dropped
+	 */
+	public long getDroppedBytes() {
+		return dropped.get();
+	}
+
+	/**
+	 * Requests the given range of the file to be read ahead.
+	 * @param windows the windows of the file
+	 * @param position the offset of the range in the file
+	 * @param length the length of the range
+	 */
+	void request(final FileWindows windows, final long position, final int length) {
+		if (pending.addAndGet(length) > budget) {
+			pending.addAndGet(-length);
+			dropped.addAndGet(length);
+		} else {
+			queue.offer(new Request(windows, position, length));
+		}
+	}
+
+	private void run() {
+		final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+		try {
+			for (Request request = queue.take(); request != END; request = queue.take()) {
+				long position = request.position;
+				final long end = position + request.length;
+				try {
+					while (position < end && !closed) {
+						chunk.clear();
+						chunk.limit((int) Math.min(CHUNK_SIZE, end - position));
+						request.windows.read(chunk, position);
+						position += chunk.limit();
+					}
+				} catch (IOException e) {
+					// the spliterator reports the error when it gets there
+				}
+				pending.addAndGet(-request.length);
+				prefetched.addAndGet(position - request.position);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the prefetching thread, dropping the requests not read yet,
+	 * and waits for the thread to end. A read in progress is interrupted.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		queue.clear();
+		queue.offer(END);
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -67,6 +67,16 @@ public class RecursiveMazeSolver implements MazeSolver {
 		return asSet.toArray(new Direction[asSet.size()-1]);
 	}
 	
+	/**
+	 * Returns the directions searched after arriving from the given direction,
+	 * in the order searched by {@link #nextDirections(Position, State)}.
+	 * @param last the direction of the last move, <code>null</code> at the start
+	 * @return the directions, never <code>null</code>. Must not be modified.
+	 */
+	static Direction[] directionsAfter(final Direction last) {
+		return DIRECTIONS.get(last);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -0,0 +1,40 @@
+package de.engehausen.cc1.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the boundaries of segments, such as lines or sentences, in the bytes of
+ * a file for a {@link SegmentSpliterator}. Detectors work on single bytes, so
+ * the file is expected in a single-byte encoding or in <code>UTF-8</code>
+ * with US-ASCII boundaries.
+ * <p>The detectors for lines, sentences and words are {@link SegmentSpliterator#LINES},
+ * {@link SegmentSpliterator#SENTENCES} and {@link SegmentSpliterator#words(de.engehausen.cc1.api.TokenAlphabet)}.</p>
+ */
+public interface SegmentDetector {
+
+	/**
+	 * Indicates whether a segment may start between the two given bytes.
+	 * Splitting the bytes there must not change the segments found: scanning
+	 * the bytes before and the bytes after separately must find the same
+	 * segments as scanning all of them.
+	 * @param before the byte before the split point
+	 * @param after the byte after the split point
+	 * @return <code>true</code> if the bytes can be split between the two bytes.
+	 */
+	boolean isSplit(byte before, byte after);
+
+	/**
+	 * Finds the next segment in the given bytes. Reaching the limit ends a segment,
+	 * so the limit must be a split point or the end of the file.
+	 * @param bytes the bytes, must not be <code>null</code>. Accessed using
+	 * absolute positions only.
+	 * @param position the position to start at
+	 * @param limit the position to end at
+	 * @param bounds receives the start (inclusive) and end (exclusive) of the
+	 * contents of the segment found, must have a length of at least two.
+	 * @return the position following the segment found, to continue at,
+	 * or <code>-1</code> if there is no further segment.
+	 */
+	int next(ByteBuffer bytes, int position, int limit, int[] bounds);
+
+}
@@ -0,0 +1,502 @@
+package de.engehausen.cc1.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+
+/**
+ * A spliterator of the segments of a file, such as its lines or sentences,
+ * found by a {@link SegmentDetector}. It maps the file the same way as the
+ * {@link WordSpliterator}, using the split points of {@link FileWindows}: in
+ * windows of at most {@link WordSpliterator#DEFAULT_WINDOW_SIZE} bytes, each
+ * ending at the last split point of the detector within the window size, so
+ * that segments do not span two windows. Only a segment longer than a window
+ * without any split point is cut at the end of the window. Splitting divides
+ * the file at split points found by reading a few bytes, without mapping them.
+ * <p>The segments are zero-copy {@link CharSequence} views of the mapped bytes;
+ * no {@link String} is created unless {@link CharSequence#toString()} is called.
+ * A view is only valid during the call of the consumer it is passed to: accessing
+ * it once its window has been released throws an {@link IllegalStateException}.
+ * Segments needed longer must be copied using {@link CharSequence#toString()}.</p>
+ * <p>The file is expected in <code>ISO-8859-1</code> (the default), <code>US-ASCII</code>
+ * or <code>UTF-8</code>. The single-byte encodings map each byte to the character of
+ * the same value. In <code>UTF-8</code>, a view of US-ASCII bytes does the same, while
+ * a view containing multi-byte characters decodes its bytes on first access.</p>
+ * <p>Splitting returns a prefix of the remaining segments, so the spliterator is
+ * {@link Spliterator#ORDERED}: e.g. a parallel stream of lines keeps the order
+ * of the lines. Operations buffering the segments of later parts, such as
+ * {@link java.util.stream.Stream#forEachOrdered(Consumer)} or collecting them,
+ * must copy them first, e.g. by mapping them with {@link CharSequence#toString()}.
+ * A spliterator that has started traversing a window is not split.</p>
+ * <p>The spliterator is {@link Closeable}: closing it unmaps all windows of
+ * the file still mapped, by this spliterator or any spliterator split from it.</p>
+ */
+public class SegmentSpliterator implements Spliterator<CharSequence>, Closeable {
+
+	/**
+	 * Lines, ended by <code>\n</code>, with a trailing <code>\r</code> removed.
+	 * Empty lines are segments as well; the last line of the file need not be ended.
+	 */
+	public static final SegmentDetector LINES = new SegmentDetector() {
+		@Override
+		public boolean isSplit(final byte before, final byte after) {
+			return before == '\n';
+		}
+		@Override
+		public int next(final ByteBuffer bytes, final int position, final int limit, final int[] bounds) {
+			if (position >= limit) {
+				return -1;
+			}
+			int end = position;
+			while (end < limit && bytes.get(end) != '\n') {
+				end++;
+			}
+			final int next = end < limit ? end + 1 : limit;
+			if (end > position && bytes.get(end - 1) == '\r') {
+				end--;
+			}
+			bounds[0] = position;
+			bounds[1] = end;
+			return next;
+		}
+	};
+
+	/**
+	 * Sentences, ended by <code>.</code>, <code>!</code> or <code>?</code>
+	 * followed by white space or the end of the file, so that e.g. numbers
+	 * such as <code>3.14</code> do not end a sentence, and an ellipsis ends it only once.
+	 * The sentences include their terminator but no leading or trailing white space;
+	 * text without terminator at the end of the file is a sentence as well.
+	 */
+	public static final SegmentDetector SENTENCES = new SegmentDetector() {
+		@Override
+		public boolean isSplit(final byte before, final byte after) {
+			return isTerminator(before) && isWhitespace(after);
+		}
+		@Override
+		public int next(final ByteBuffer bytes, final int position, final int limit, final int[] bounds) {
+			int start = position;
+			while (start < limit && isWhitespace(bytes.get(start))) {
+				start++;
+			}
+			if (start >= limit) {
+				return -1;
+			}
+			int end = start;
+			while (end < limit) {
+				if (isTerminator(bytes.get(end++)) && (end == limit || isWhitespace(bytes.get(end)))) {
+					bounds[0] = start;
+					bounds[1] = end;
+					return end;
+				}
+			}
+			while (isWhitespace(bytes.get(end - 1))) {
+				end--;
+			}
+			bounds[0] = start;
+			bounds[1] = end;
+			return limit;
+		}
+	};
+
+	private final FileWindows windows;
+	private final SegmentDetector detector;
+	private final int splitThreshold;
+	private final boolean utf8;
+	// the start and end of a segment found by the detector
+	private final int[] bounds;
+
+	// the offset in the file of the first byte not mapped yet
+	private long origin;
+	// the offset in the file at which this spliterator ends
+	private long fence;
+	// the window being traversed and its buffer
+	private FileWindows.Window window;
+	private ByteBuffer buffer;
+
+	/**
+	 * Creates the spliterator of the segments of the given file with an
+	 * adaptive splitting threshold.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param segmentDetector the detector of the segments, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. file not found
+	 */
+	public SegmentSpliterator(final File file, final SegmentDetector segmentDetector) throws IOException {
+		this(file, segmentDetector, WordSpliterator.ADAPTIVE_THRESHOLD);
+	}
+
+	/**
+	 * Creates the spliterator of the segments of the given file in the given
+	 * encoding with an adaptive splitting threshold.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param segmentDetector the detector of the segments, must not be <code>null</code>.
+	 * @param charset the encoding of the file; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. file not found
+	 * @throws IllegalArgumentException if the encoding is not supported
+	 */
+	public SegmentSpliterator(final File file, final SegmentDetector segmentDetector, final Charset charset) throws IOException {
+		this(file, segmentDetector, WordSpliterator.ADAPTIVE_THRESHOLD, charset, WordSpliterator.DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Creates the spliterator of the segments of the given file.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param segmentDetector the detector of the segments, must not be <code>null</code>.
+	 * @param threshold the minimum size of remaining bytes in the file for which it is worthwile
+	 * to split the iterator, or {@link WordSpliterator#ADAPTIVE_THRESHOLD}.
+	 * @throws IOException in case of error, e.g. file not found
+	 */
+	public SegmentSpliterator(final File file, final SegmentDetector segmentDetector, final int threshold) throws IOException {
+		this(file, segmentDetector, threshold, WordSpliterator.DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Creates the spliterator of the segments of the given file.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param segmentDetector the detector of the segments, must not be <code>null</code>.
+	 * @param threshold the minimum size of remaining bytes in the file for which it is worthwile
+	 * to split the iterator, or {@link WordSpliterator#ADAPTIVE_THRESHOLD}.
+	 * @param windowSize the maximum number of bytes mapped at a time, must be positive
+	 * @throws IOException in case of error, e.g. file not found
+	 */
+	public SegmentSpliterator(final File file, final SegmentDetector segmentDetector, final int threshold, final int windowSize) throws IOException {
+		this(file, segmentDetector, threshold, StandardCharsets.ISO_8859_1, windowSize);
+	}
+
+	/**
+	 * Creates the spliterator of the segments of the given file in the given encoding.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param segmentDetector the detector of the segments, must not be <code>null</code>.
+	 * @param threshold the minimum size of remaining bytes in the file for which it is worthwile
+	 * to split the iterator, or {@link WordSpliterator#ADAPTIVE_THRESHOLD}.
+	 * @param charset the encoding of the file; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @param windowSize the maximum number of bytes mapped at a time, must be positive
+	 * @throws IOException in case of error, e.g. file not found
+	 * @throws IllegalArgumentException if the encoding is not supported
+	 */
+	public SegmentSpliterator(final File file, final SegmentDetector segmentDetector, final int threshold, final Charset charset, final int windowSize) throws IOException {
+		utf8 = WordSpliterator.isUtf8(charset);
+		windows = new FileWindows(file, windowSize);
+		detector = Objects.requireNonNull(segmentDetector);
+		origin = 0L;
+		fence = windows.size();
+		splitThreshold = threshold > 0 ? threshold : WordSpliterator.adaptiveThreshold(fence, ForkJoinPool.getCommonPoolParallelism());
+		bounds = new int[2];
+	}
+
+	/**
+	 * Creates a spliterator for a part of the file of the given spliterator.
+	 * @param parent the spliterator being split
+	 * @param from the offset of the part in the file
+	 * @param to the end of the part in the file
+	 */
+	private SegmentSpliterator(final SegmentSpliterator parent, final long from, final long to) {
+		windows = parent.windows;
+		detector = parent.detector;
+		splitThreshold = parent.splitThreshold;
+		utf8 = parent.utf8;
+		bounds = new int[2];
+		origin = from;
+		fence = to;
+	}
+
+	/**
+	 * Returns the detector of the words of the given alphabet, a byte being
+	 * a word character if it is one in the table of the alphabet. The words
+	 * are not case-folded; each byte is taken as a character, so the words of
+	 * a file in <code>UTF-8</code> are better found by a {@link WordSpliterator}.
+	 * @param alphabet the alphabet, must not be <code>null</code>.
+	 * @return the detector, never <code>null</code>.
+	 */
+	public static SegmentDetector words(final TokenAlphabet alphabet) {
+		final byte[] table = alphabet.getTable();
+		return new SegmentDetector() {
+			@Override
+			public boolean isSplit(final byte before, final byte after) {
+				return table[before & 0xff] == 0;
+			}
+			@Override
+			public int next(final ByteBuffer bytes, final int position, final int limit, final int[] bounds) {
+				int start = position;
+				while (start < limit && table[bytes.get(start) & 0xff] == 0) {
+					start++;
+				}
+				if (start >= limit) {
+					return -1;
+				}
+				int end = start + 1;
+				while (end < limit && table[bytes.get(end) & 0xff] != 0) {
+					end++;
+				}
+				bounds[0] = start;
+				bounds[1] = end;
+				return end;
+			}
+		};
+	}
+
+	/**
+	 * Passes the next segment to the given consumer, without copying it.
+	 * @param action the consumer of a view of the segment, valid during the call only;
+	 * must not be <code>null</code>.
+	 * @return <code>false</code> if there are no segments remaining.
+	 */
+	@Override
+	public boolean tryAdvance(final Consumer<? super CharSequence> action) {
+		while (nextWindow()) {
+			final int next = detector.next(buffer, buffer.position(), buffer.limit(), bounds);
+			if (next >= 0) {
+				buffer.position(next);
+				action.accept(new View(window, buffer, bounds[0], bounds[1], utf8));
+				return true;
+			}
+			buffer.position(buffer.limit());
+		}
+		return false;
+	}
+
+	/**
+	 * Passes the remaining segments to the given consumer, without copying them.
+	 * @param action the consumer of views of the segments, each valid during
+	 * its call only; must not be <code>null</code>.
+	 */
+	@Override
+	public void forEachRemaining(final Consumer<? super CharSequence> action) {
+		while (nextWindow()) {
+			final FileWindows.Window current = window;
+			final ByteBuffer bytes = buffer;
+			final int limit = bytes.limit();
+			int position = bytes.position();
+			while ((position = detector.next(bytes, position, limit, bounds)) >= 0) {
+				action.accept(new View(current, bytes, bounds[0], bounds[1], utf8));
+			}
+			bytes.position(limit);
+		}
+	}
+
+	/**
+	 * Splits off the first half of the remaining bytes, ending at a split point
+	 * of the detector, unless this spliterator has started traversing a window.
+	 * @return the spliterator of the first half, or <code>null</code>
+	 */
+	@Override
+	public SegmentSpliterator trySplit() {
+		if ((buffer != null && buffer.hasRemaining()) || fence - origin <= splitThreshold) {
+			return null;
+		}
+		final long split;
+		try {
+			split = windows.findSplit(origin + (fence - origin) / 2, fence, detector::isSplit);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		if (split <= origin || split >= fence) {
+			return null;
+		}
+		final SegmentSpliterator result = new SegmentSpliterator(this, origin, split);
+		origin = split;
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes remaining, an upper bound of the number of
+	 * segments remaining.
+	 * @return the number of bytes remaining
+	 */
+	@Override
+	public long estimateSize() {
+		return fence - origin + (buffer == null ? 0 : buffer.remaining());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int characteristics() {
+		return ORDERED|NONNULL|IMMUTABLE;
+	}
+
+	/**
+	 * Unmaps all windows of the file still mapped, by this spliterator or any
+	 * spliterator split from it or that it was split from.
+	 */
+	@Override
+	public void close() {
+		buffer = null;
+		window = null;
+		windows.close();
+	}
+
+	/**
+	 * Makes sure a window with bytes remaining is being traversed, releasing
+	 * the previous window and mapping the next one if needed.
+	 * @return <code>false</code> if there are no bytes remaining.
+	 */
+	private boolean nextWindow() {
+		if (buffer != null) {
+			if (buffer.hasRemaining()) {
+				return true;
+			}
+			buffer = null;
+			windows.release(window);
+			window = null;
+		}
+		if (origin >= fence) {
+			return false;
+		}
+		final int length = (int) Math.min(fence - origin, windows.windowSize());
+		try {
+			window = windows.map(origin, length);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		final ByteBuffer bytes = window.buffer();
+		if (bytes.limit() < length) {
+			// the file has been truncated, this is the last window
+			fence = origin + bytes.limit();
+		} else if (origin + length < fence) {
+			FileWindows.endAtLastSplit(bytes, detector::isSplit);
+		}
+		buffer = bytes;
+		origin += bytes.limit();
+		return true;
+	}
+
+	/**
+	 * Indicates whether the given byte ends a sentence, if followed by white space.
+	 * @param b the byte
+	 * @return <code>true</code> for <code>.</code>, <code>!</code> and <code>?</code>
+	 */
+	private static boolean isTerminator(final byte b) {
+		return b == '.' || b == '!' || b == '?';
+	}
+
+	/**
+	 * Indicates whether the given byte is white space, i.e. a US-ASCII
+	 * space or control character.
+	 * @param b the byte
+	 * @return <code>true</code> if white space.
+	 */
+	private static boolean isWhitespace(final byte b) {
+		return b >= 0 && b <= ' ';
+	}
+
+	/**
+	 * A segment, viewing the bytes of a window without copying them. A segment
+	 * of <code>UTF-8</code> bytes containing multi-byte characters is decoded
+	 * on first access instead.
+	 */
+	private static final class View implements CharSequence {
+
+		private final FileWindows.Window window;
+		private final ByteBuffer bytes;
+		private final int start;
+		private final int end;
+		// whether the bytes may contain multi-byte characters not decoded yet
+		private boolean utf8;
+		private String decoded;
+
+		View(final FileWindows.Window window, final ByteBuffer bytes, final int start, final int end, final boolean utf8) {
+			this.window = window;
+			this.bytes = bytes;
+			this.start = start;
+			this.end = end;
+			this.utf8 = utf8;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int length() {
+			return decoded() == null ? end - start : decoded.length();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public char charAt(final int index) {
+			if (decoded() != null) {
+				return decoded.charAt(index);
+			}
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException(Integer.toString(index));
+			}
+			checkValid();
+			return (char) (bytes.get(start + index) & 0xff);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public CharSequence subSequence(final int from, final int to) {
+			if (decoded() != null) {
+				return decoded.subSequence(from, to);
+			}
+			if (from < 0 || to > end - start || from > to) {
+				throw new IndexOutOfBoundsException(from+", "+to);
+			}
+			return new View(window, bytes, start + from, start + to, false);
+		}
+
+		/**
+		 * Copies the bytes of the segment into a string.
+		 * @return the segment as a string, never <code>null</code>.
+		 */
+		@Override
+		public String toString() {
+			if (decoded() != null) {
+				return decoded;
+			}
+			checkValid();
+			final byte[] copy = new byte[end - start];
+			for (int i = 0; i < copy.length; i++) {
+				copy[i] = bytes.get(start + i);
+			}
+			return new String(copy, StandardCharsets.ISO_8859_1);
+		}
+
+		/**
+		 * Decodes the <code>UTF-8</code> bytes of the segment unless they are
+		 * all US-ASCII, which are viewed like single-byte characters.
+		 * @return the decoded segment, or <code>null</code> if the bytes are viewed.
+		 */
+		private String decoded() {
+			if (utf8) {
+				checkValid();
+				for (int i = start; i < end; i++) {
+					if (bytes.get(i) < 0) {
+						final ByteBuffer slice = bytes.duplicate();
+						slice.limit(end);
+						slice.position(start);
+						decoded = StandardCharsets.UTF_8.decode(slice).toString();
+						break;
+					}
+				}
+				utf8 = false;
+			}
+			return decoded;
+		}
+
+		private void checkValid() {
+			if (window.isReleased()) {
+				throw new IllegalStateException("The window of the segment has been released");
+			}
+		}
+
+	}
+
+}
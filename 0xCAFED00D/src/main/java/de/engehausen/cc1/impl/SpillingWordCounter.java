@@ -0,0 +1,389 @@
+package de.engehausen.cc1.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ObjLongConsumer;
+
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Counts words exactly in bounded memory, for vocabularies that do not fit
+ * into the heap. Unlike {@link TopTenWordsImpl}, the words are not interned
+ * while counting: a {@link WordSpliterator} passes their bytes, see
+ * {@link WordSpliterator#forEachBytes(WordBytesConsumer)}.
+ * <p>The parts of the split spliterator are counted in parallel, each thread
+ * counting into a table of its own. The tables of all threads together
+ * never use more than the memory budget; a table that is full is sorted and
+ * spilled to a run file in the given directory, and emptied. The run files
+ * are written and read memory-mapped, outside of the heap.</p>
+ * <p>The global counts are produced by merging all runs at once, see
+ * {@link #forEachCount(ObjLongConsumer)}, keeping only a cursor per run
+ * in the heap; the top words are selected while merging, see {@link #getTopWords(int)}.</p>
+ * <p>The counter is {@link Closeable}: closing it deletes the run files.</p>
+ */
+public class SpillingWordCounter implements Closeable {
+
+	/**
+	 * The default memory budget of the count tables, in bytes.
+	 */
+	public static final long DEFAULT_BUDGET = 64L*1024*1024;
+
+	// the smallest budget of the table of a thread
+	private static final long MIN_TABLE_BUDGET = 64*1024;
+	// the largest arena of a table, keeping run files mappable at once
+	private static final int MAX_ARENA = 1 << 30;
+	// the bytes per slot of a table: offset, hash and count
+	private static final int SLOT_BYTES = 16;
+
+	private final File directory;
+	private final long tableBudget;
+	private final Map<Thread, Table> tables;
+	private final Queue<File> runs;
+
+	/**
+	 * Creates the counter with the default memory budget, spilling to the
+	 * temporary directory.
+	 */
+	public SpillingWordCounter() {
+		this(new File(System.getProperty("java.io.tmpdir")), DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Creates the counter.
+	 * @param runDirectory the directory for the run files, must exist
+	 * @param budget the memory budget of the count tables of all threads in bytes
+	 */
+	public SpillingWordCounter(final File runDirectory, final long budget) {
+		if (!runDirectory.isDirectory()) {
+			throw new IllegalArgumentException("Not a directory: "+runDirectory);
+		}
+		directory = runDirectory;
+		// the caller of the pool may count as well
+		tableBudget = budget / (ForkJoinPool.getCommonPoolParallelism() + 1);
+		if (tableBudget < MIN_TABLE_BUDGET) {
+			throw new IllegalArgumentException("Budget too small: "+budget);
+		}
+		tables = new ConcurrentHashMap<>();
+		runs = new ConcurrentLinkedQueue<>();
+	}
+
+	/**
+	 * Counts the remaining words of the given spliterator, in the common fork/join pool.
+	 * The counts add up over several calls. All counts are spilled afterwards.
+	 * @param spliterator the spliterator, must not be <code>null</code>.
+	 * It has been traversed afterwards.
+	 */
+	public void count(final WordSpliterator spliterator) {
+		try {
+			// a leaf is counted completely before its thread takes the next task
+			ForkJoinPool.commonPool().invoke(LeafTraversal.of(spliterator, part -> part.forEachBytes(tables.computeIfAbsent(Thread.currentThread(), thread -> new Table()))));
+			for (Table table : tables.values()) {
+				table.spill();
+			}
+		} finally {
+			// the tables are allocated again by the next count
+			tables.clear();
+		}
+	}
+
+	/**
+	 * Passes each distinct word counted and its count to the given consumer,
+	 * in lexicographical order of the code points of the words.
+	 * @param consumer the consumer of the words and their counts, must not be <code>null</code>.
+	 * @throws IOException in case of error reading the runs
+	 */
+	public void forEachCount(final ObjLongConsumer<String> consumer) throws IOException {
+		final List<FileWindows> windows = new ArrayList<>(runs.size());
+		try {
+			final PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(1, runs.size()));
+			for (File run : runs) {
+				final FileWindows runWindows = new FileWindows(run, (int) run.length());
+				windows.add(runWindows);
+				final Cursor cursor = new Cursor(runWindows.map(0, (int) run.length()).buffer());
+				if (cursor.next()) {
+					queue.add(cursor);
+				}
+			}
+			byte[] word = new byte[64];
+			while (!queue.isEmpty()) {
+				final Cursor first = queue.poll();
+				final int length = first.length;
+				if (length > word.length) {
+					word = new byte[Math.max(length, 2*word.length)];
+				}
+				first.copy(word);
+				long count = first.count;
+				if (first.next()) {
+					queue.add(first);
+				}
+				// the same word in other runs
+				while (!queue.isEmpty() && queue.peek().matches(word, length)) {
+					final Cursor same = queue.poll();
+					count += same.count;
+					if (same.next()) {
+						queue.add(same);
+					}
+				}
+				consumer.accept(new String(word, 0, length, StandardCharsets.UTF_8), count);
+			}
+		} finally {
+			for (FileWindows runWindows : windows) {
+				runWindows.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the words counted most often, by descending count and then in
+	 * lexicographical order. Only these words are interned.
+	 * @param k the number of words to return
+	 * @return the top words, at most <code>k</code>, never <code>null</code>.
+	 * @throws IOException in case of error reading the runs
+	 */
+	public List<Word> getTopWords(final int k) throws IOException {
+		final TopWords top = new TopWords(k);
+		forEachCount(top::offer);
+		return top.getWords();
+	}
+
+	/**
+	 * Returns the number of run files spilled so far.
+	 * @return the number of runs
+	 */
+	public int getRunCount() {
+		return runs.size();
+	}
+
+	/**
+	 * Deletes the run files.
+	 */
+	@Override
+	public void close() {
+		for (File run = runs.poll(); run != null; run = runs.poll()) {
+			if (!run.delete()) {
+				run.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Writes a sorted run of words and their counts.
+	 * @param arena the arena holding the words, each preceded by its length
+	 * @param offsets the offsets of the words in the arena, sorted
+	 * @param counts the counts of the words
+	 * @param size the number of words
+	 */
+	private void write(final ByteBuffer arena, final int[] offsets, final long[] counts, final int size) {
+		long total = 0;
+		for (int i = 0; i < size; i++) {
+			total += Integer.BYTES + arena.getInt(offsets[i]) + Long.BYTES;
+		}
+		try {
+			final File run = File.createTempFile("words-", ".run", directory);
+			runs.add(run);
+			try (final FileChannel channel = FileChannel.open(run.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				final MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, total);
+				for (int i = 0; i < size; i++) {
+					final int offset = offsets[i];
+					final int length = arena.getInt(offset);
+					out.putInt(length);
+					for (int j = offset + Integer.BYTES; j < offset + Integer.BYTES + length; j++) {
+						out.put(arena.get(j));
+					}
+					out.putLong(counts[i]);
+				}
+				out.force();
+				FileWindows.unmap(out);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The count table of a thread: an open addressing hash table of words
+	 * stored in a byte arena, each preceded by its length.
+	 */
+	private final class Table implements WordBytesConsumer {
+
+		private final ByteBuffer arena;
+		private final int[] offsets;
+		private final int[] hashes;
+		private final long[] counts;
+		private final int mask;
+		private final int capacity;
+		private int size;
+
+		Table() {
+			final int slots = Integer.highestOneBit((int) Math.min(1 << 28, tableBudget / 2 / SLOT_BYTES));
+			arena = ByteBuffer.allocate((int) Math.min(MAX_ARENA, tableBudget - (long) slots * SLOT_BYTES));
+			offsets = new int[slots];
+			hashes = new int[slots];
+			counts = new long[slots];
+			Arrays.fill(offsets, -1);
+			mask = slots - 1;
+			capacity = slots / 4 * 3;
+		}
+
+		@Override
+		public void accept(final byte[] chars, final int offset, final int length) {
+			final int hash = ByteKeys.hash(chars, offset, length);
+			for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+				final int entry = offsets[slot];
+				if (entry < 0) {
+					if (size == capacity || arena.remaining() < Integer.BYTES + length) {
+						spill();
+						if (arena.remaining() < Integer.BYTES + length) {
+							throw new IllegalStateException("Word longer than the arena: "+length);
+						}
+						// the table is empty now
+						slot = hash & mask;
+					}
+					offsets[slot] = arena.position();
+					hashes[slot] = hash;
+					counts[slot] = 1L;
+					arena.putInt(length);
+					arena.put(chars, offset, length);
+					size++;
+					return;
+				}
+				if (hashes[slot] == hash && ByteKeys.matches(arena, entry, chars, offset, length)) {
+					counts[slot]++;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Writes the words of the table to a sorted run and empties the table.
+		 */
+		void spill() {
+			if (size == 0) {
+				return;
+			}
+			// move the entries to the front, in place
+			int used = 0;
+			for (int slot = 0; slot < offsets.length; slot++) {
+				if (offsets[slot] >= 0) {
+					offsets[used] = offsets[slot];
+					counts[used] = counts[slot];
+					used++;
+				}
+			}
+			sort(0, used - 1);
+			write(arena, offsets, counts, used);
+			Arrays.fill(offsets, -1);
+			arena.clear();
+			size = 0;
+		}
+
+		/**
+		 * Sorts the entries between the given indexes (inclusive) by their words,
+		 * using quicksort; the words of a table are distinct.
+		 * @param low the first index
+		 * @param high the last index
+		 */
+		private void sort(final int low, final int high) {
+			int from = low;
+			int to = high;
+			while (from < to) {
+				final int pivot = offsets[from + (to - from) / 2];
+				int i = from;
+				int j = to;
+				while (i <= j) {
+					while (ByteKeys.compare(arena, offsets[i], arena, pivot) < 0) {
+						i++;
+					}
+					while (ByteKeys.compare(arena, offsets[j], arena, pivot) > 0) {
+						j--;
+					}
+					if (i <= j) {
+						swap(i++, j--);
+					}
+				}
+				// recurse into the smaller part, keeping the stack depth logarithmic
+				if (j - from < to - i) {
+					sort(from, j);
+					from = i;
+				} else {
+					sort(i, to);
+					to = j;
+				}
+			}
+		}
+
+		private void swap(final int i, final int j) {
+			final int offset = offsets[i];
+			offsets[i] = offsets[j];
+			offsets[j] = offset;
+			final long count = counts[i];
+			counts[i] = counts[j];
+			counts[j] = count;
+		}
+
+	}
+
+	/**
+	 * Reads the words of a run in order.
+	 */
+	private static final class Cursor implements Comparable<Cursor> {
+
+		private final ByteBuffer bytes;
+		// the offset of the current word, preceded by its length
+		private int offset;
+		private int length;
+		private long count;
+
+		Cursor(final ByteBuffer run) {
+			bytes = run;
+			offset = -1;
+		}
+
+		/**
+		 * Moves to the next word of the run.
+		 * @return <code>false</code> if there are no more words.
+		 */
+		boolean next() {
+			final int position = offset < 0 ? 0 : offset + Integer.BYTES + length + Long.BYTES;
+			if (position >= bytes.limit()) {
+				return false;
+			}
+			offset = position;
+			length = bytes.getInt(offset);
+			count = bytes.getLong(offset + Integer.BYTES + length);
+			return true;
+		}
+
+		void copy(final byte[] word) {
+			for (int i = 0; i < length; i++) {
+				word[i] = bytes.get(offset + Integer.BYTES + i);
+			}
+		}
+
+		boolean matches(final byte[] word, final int wordLength) {
+			return ByteKeys.matches(bytes, offset, word, 0, wordLength);
+		}
+
+		@Override
+		public int compareTo(final Cursor other) {
+			return ByteKeys.compare(bytes, offset, other.bytes, other.offset);
+		}
+
+	}
+
+}
@@ -0,0 +1,192 @@
+package de.engehausen.cc1.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Statistics of the split tree of a {@link WordSpliterator}, showing
+ * how evenly the work was balanced between the threads of a parallel stream.
+ * Attach an instance to the root spliterator using
+ * {@link WordSpliterator#setStatistics(SplitStatistics)} before the stream
+ * is run; the textual dump is available using {@link #toString()}.
+ * <p>A leaf is a spliterator that has been traversed, recording the
+ * number of bytes and words it covered, the time it took and the thread
+ * traversing it.</p>
+ */
+public class SplitStatistics {
+
+	/**
+	 * The statistics of a traversed spliterator.
+	 */
+	public static class Leaf {
+
+		private final String thread;
+		private final long bytes;
+		private final long words;
+		private final long nanos;
+
+		/**
+		 * Creates the leaf statistics.
+		 * @param threadName the name of the thread traversing the leaf
+		 * @param byteCount the number of bytes covered
+		 * @param wordCount the number of words found
+		 * @param duration the duration of the traversal in nanoseconds
+		 */
+		public Leaf(final String threadName, final long byteCount, final long wordCount, final long duration) {
+			thread = threadName;
+			bytes = byteCount;
+			words = wordCount;
+			nanos = duration;
+		}
+
+		/**
+		 * Returns the name of the thread that traversed the leaf.
+		 * @return the thread name, never <code>null</code>.
+		 */
+		public String getThread() {
+			return thread;
+		}
+
+		/**
+		 * Returns the number of bytes covered by the leaf.
+		 * @return the number of bytes
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Returns the number of words found in the leaf.
+		 * @return the number of words
+		 */
+		public long getWords() {
+			return words;
+		}
+
+		/**
+		 * Returns the time it took to traverse the leaf.
+		 * @return the duration in nanoseconds
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+	}
+
+	private final AtomicInteger splits;
+	private final Queue<Leaf> leaves;
+
+	/**
+	 * Creates empty statistics.
+	 */
+	public SplitStatistics() {
+		splits = new AtomicInteger();
+		leaves = new ConcurrentLinkedQueue<>();
+	}
+
+	/**
+	 * Records a successful split.
+	 */
+	public void split() {
+		splits.incrementAndGet();
+	}
+
+	/**
+	 * Records a traversed leaf, using the name of the current thread.
+	 * @param bytes the number of bytes covered by the leaf
+	 * @param words the number of words found
+	 * @param nanos the duration of the traversal in nanoseconds
+	 */
+	public void leaf(final long bytes, final long words, final long nanos) {
+		leaves.add(new Leaf(Thread.currentThread().getName(), bytes, words, nanos));
+	}
+
+	/**
+	 * Returns the number of successful splits.
+	 * @return the number of splits
+	 */
+	public int getSplitCount() {
+		return splits.get();
+	}
+
+	/**
+	 * Returns the traversed leaves.
+	 * @return the leaves, never <code>null</code>.
+	 */
+	public List<Leaf> getLeaves() {
+		return new ArrayList<>(leaves);
+	}
+
+	/**
+	 * Returns the load imbalance between the threads, i.e. the maximum number
+	 * of bytes traversed by a thread divided by the mean number of bytes
+	 * traversed per thread.
+	 * @return the imbalance, <code>1</code> for perfect balance; zero if nothing
+	 * has been traversed.
+	 */
+	public double getImbalance() {
+		final Map<String, long[]> threads = perThread();
+		long max = 0;
+		long total = 0;
+		for (long[] values : threads.values()) {
+			max = Math.max(max, values[1]);
+			total += values[1];
+		}
+		return total == 0 ? 0d : max * threads.size() / (double) total;
+	}
+
+	/**
+	 * Returns a textual dump of the statistics: the number of splits and leaves,
+	 * the distribution of bytes and words per leaf, the totals per thread and
+	 * the load imbalance.
+	 * @return the statistics dump
+	 */
+	@Override
+	public String toString() {
+		final List<Leaf> all = getLeaves();
+		final StringBuilder sb = new StringBuilder(256);
+		sb.append("splits: ").append(getSplitCount()).append(", leaves: ").append(all.size()).append('\n');
+		if (!all.isEmpty()) {
+			long minBytes = Long.MAX_VALUE, maxBytes = 0, totalBytes = 0;
+			long minWords = Long.MAX_VALUE, maxWords = 0, totalWords = 0;
+			for (Leaf leaf : all) {
+				minBytes = Math.min(minBytes, leaf.bytes);
+				maxBytes = Math.max(maxBytes, leaf.bytes);
+				totalBytes += leaf.bytes;
+				minWords = Math.min(minWords, leaf.words);
+				maxWords = Math.max(maxWords, leaf.words);
+				totalWords += leaf.words;
+			}
+			sb.append(String.format("bytes per leaf: min %d, mean %d, max %d%n", minBytes, totalBytes / all.size(), maxBytes));
+			sb.append(String.format("words per leaf: min %d, mean %d, max %d%n", minWords, totalWords / all.size(), maxWords));
+		}
+		for (Map.Entry<String, long[]> entry : perThread().entrySet()) {
+			final long[] values = entry.getValue();
+			sb.append(String.format("  %s: %d leaves, %d bytes, %d words, %.1fms%n", entry.getKey(), values[0], values[1], values[2], values[3] / 1e6));
+		}
+		sb.append(String.format("imbalance (max/mean bytes per thread): %.2f", getImbalance()));
+		return sb.toString();
+	}
+
+	/**
+	 * Sums up the leaves per thread.
+	 * @return the thread names mapped to the number of leaves, bytes, words and nanoseconds
+	 */
+	private Map<String, long[]> perThread() {
+		final Map<String, long[]> result = new TreeMap<>();
+		for (Leaf leaf : leaves) {
+			final long[] values = result.computeIfAbsent(leaf.thread, name -> new long[4]);
+			values[0]++;
+			values[1] += leaf.bytes;
+			values[2] += leaf.words;
+			values[3] += leaf.nanos;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,314 @@
+package de.engehausen.cc1.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * A source of the words of a growing file, such as a log file, like <code>tail -f</code>.
+ * <p>Each {@link #poll(Consumer)} reads only the bytes appended since the previous
+ * one, in blocks, and publishes their words to a consumer. The appended bytes
+ * are read rather than mapped: they are usually few, and a mapping would have
+ * to be replaced whenever the file grows. The partial word at the end of the
+ * file is not published, but read again by the next poll, once it is followed
+ * by a separator.</p>
+ * <p>Rotation is detected by the file key (the inode) of the file changing,
+ * e.g. when the file has been renamed and a new one created in its place. File
+ * systems without file keys, such as those of Windows, are detected to have
+ * rotated the file by its creation time changing, or by the file in its place
+ * being smaller than the file still open. The
+ * rest of the old file is read to its end, including its last word, before
+ * continuing with the start of the new file. A file shrinking, e.g. when it is
+ * truncated in place, is read again from its start.</p>
+ * <p>{@link #follow(Consumer, long, TimeUnit)} polls on a thread of its own,
+ * publishing the words with a latency bounded by the polling interval.
+ * Closing the source stops following it.</p>
+ */
+public class TailWordSource implements Closeable {
+
+	/**
+	 * The default block size, 64KB.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 64*1024;
+
+	private final Path path;
+	private final TokenAlphabet alphabet;
+	private final Charset charset;
+	private final byte[] table;
+	private final boolean utf8;
+	private final ByteBuffer block;
+	private FileChannel channel;
+	// the file key, or the creation time on file systems without file keys
+	private Object identity;
+	// the offset of the first byte not published yet
+	private long position;
+	private ScheduledExecutorService follower;
+	private volatile IOException error;
+
+	/**
+	 * Creates the source for the given <code>US-ASCII</code> file, starting at its beginning.
+	 * @param file the file to follow, must not be <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	public TailWordSource(final File file) throws IOException {
+		this(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, false);
+	}
+
+	/**
+	 * Creates the source for the given file, alphabet and encoding.
+	 * @param file the file to follow, must not be <code>null</code>.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param encoding the encoding of the file; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @param skipExisting <code>true</code> to publish only the words appended after
+	 * the source was created, <code>false</code> to start at the beginning of the file
+	 * @throws IOException in case of error
+	 */
+	public TailWordSource(final File file, final TokenAlphabet tokenAlphabet, final Charset encoding, final boolean skipExisting) throws IOException {
+		this(file, tokenAlphabet, encoding, skipExisting, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates the source for the given file, alphabet, encoding and block size.
+	 * @param file the file to follow, must not be <code>null</code>.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param encoding the encoding of the file, must not be <code>null</code>.
+	 * @param skipExisting <code>true</code> to start at the end of the file
+	 * @param blockSize the size of the blocks read at a time; words longer than a block are split
+	 * @throws IOException in case of error
+	 */
+	TailWordSource(final File file, final TokenAlphabet tokenAlphabet, final Charset encoding, final boolean skipExisting, final int blockSize) throws IOException {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Invalid block size: "+blockSize);
+		}
+		path = file.toPath();
+		alphabet = tokenAlphabet;
+		charset = WordSpliterator.checkEncoding(encoding);
+		table = alphabet.getTable();
+		utf8 = StandardCharsets.UTF_8.equals(encoding);
+		block = ByteBuffer.allocateDirect(blockSize);
+		open();
+		if (skipExisting) {
+			position = lastSeparator();
+		}
+	}
+
+	/**
+	 * Publishes the words appended to the file since the previous poll.
+	 * @param consumer the consumer of the words, must not be <code>null</code>.
+	 * @return the number of bytes read whose words have been published
+	 * @throws IOException in case of error
+	 */
+	public synchronized long poll(final Consumer<? super Word> consumer) throws IOException {
+		if (channel == null) {
+			throw new IOException("Closed: "+path);
+		}
+		long result = 0;
+		if (isRotated()) {
+			// the old file is complete, including its last word
+			result += read(consumer, true);
+			channel.close();
+			open();
+		}
+		return result + read(consumer, false);
+	}
+
+	/**
+	 * Polls the file periodically on a thread of its own, until the source is closed.
+	 * An error reading the file stops following it; the error is thrown by {@link #close()}.
+	 * @param consumer the consumer of the words, must not be <code>null</code>.
+	 * It is called by the polling thread only.
+	 * @param interval the delay between the end of a poll and the start of the next one
+	 * @param unit the unit of the interval, must not be <code>null</code>.
+	 * @throws IllegalStateException if the file is already being followed
+	 */
+	public synchronized void follow(final Consumer<? super Word> consumer, final long interval, final TimeUnit unit) {
+		Objects.requireNonNull(consumer);
+		if (follower != null) {
+			throw new IllegalStateException("Already following "+path);
+		}
+		follower = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "word-tailer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		follower.scheduleWithFixedDelay(() -> {
+			try {
+				synchronized (this) {
+					// the source may have been closed while waiting for the lock
+					if (channel != null) {
+						poll(consumer);
+					}
+				}
+			} catch (IOException e) {
+				error = e;
+				// an exception stops the periodic execution
+				throw new IllegalStateException(e);
+			}
+		}, 0L, interval, unit);
+	}
+
+	/**
+	 * Returns the offset of the first byte of the file whose words have not been published yet.
+	 * @return the offset in bytes, in the file currently followed
+	 */
+	public synchronized long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Stops following the file, waiting for a running poll to finish, and closes it.
+	 * The partial word at the end of the file is not published.
+	 * @throws IOException in case of error, including an error reading the file while following it
+	 */
+	@Override
+	public void close() throws IOException {
+		final ScheduledExecutorService executor;
+		synchronized (this) {
+			executor = follower;
+		}
+		if (executor != null) {
+			executor.shutdown();
+		}
+		synchronized (this) {
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private void open() throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		identity = identity(Files.readAttributes(path, BasicFileAttributes.class));
+		position = 0;
+	}
+
+	/**
+	 * Returns the offset after the last separator in the last block of the file,
+	 * so the partial word at the end of the file is published once complete.
+	 * @return the offset in bytes
+	 * @throws IOException in case of error
+	 */
+	private long lastSeparator() throws IOException {
+		final long size = channel.size();
+		final long start = Math.max(0L, size - block.capacity());
+		block.clear();
+		block.limit((int) (size - start));
+		while (block.hasRemaining() && channel.read(block, start + block.position()) >= 0) {
+			// read until the block is full
+		}
+		int limit = block.position();
+		while (limit > 0 && !WordSpliterator.isSeparator(table, utf8, block.get(limit - 1))) {
+			limit--;
+		}
+		return limit == 0 && start > 0 ? size : start + limit;
+	}
+
+	/**
+	 * Indicates whether another file has taken the place of the file being read.
+	 * @return <code>true</code> if the file has been rotated.
+	 * @throws IOException in case of error
+	 */
+	private boolean isRotated() throws IOException {
+		// the size of the open file first, it may grow in the meantime
+		final long openSize = channel.size();
+		final BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			// moved away, but not replaced yet
+			return false;
+		}
+		return isReplaced(attributes, identity, openSize);
+	}
+
+	/**
+	 * Returns what identifies a file: its file key, or its creation time if the
+	 * file system has no file keys.
+	 * @param attributes the attributes of the file
+	 * @return the identity of the file, never <code>null</code>.
+	 */
+	static Object identity(final BasicFileAttributes attributes) {
+		final Object key = attributes.fileKey();
+		return key != null ? key : attributes.creationTime();
+	}
+
+	/**
+	 * Indicates whether the file at the path is another file than the one open.
+	 * @param attributes the attributes of the file at the path
+	 * @param identity the identity of the open file, see {@link #identity(BasicFileAttributes)}
+	 * @param openSize the size of the open file, taken before the attributes
+	 * @return <code>true</code> if the file has been replaced.
+	 */
+	static boolean isReplaced(final BasicFileAttributes attributes, final Object identity, final long openSize) {
+		if (attributes.fileKey() != null) {
+			return !attributes.fileKey().equals(identity);
+		}
+		// a file only grows, unless truncated, which is detected by the open file shrinking
+		return !attributes.creationTime().equals(identity) || attributes.size() < openSize;
+	}
+
+	/**
+	 * Reads the bytes from the current position to the end of the file and publishes their words.
+	 * @param consumer the consumer of the words
+	 * @param complete <code>true</code> if the file does not grow anymore, so its last word is complete
+	 * @return the number of bytes read whose words have been published
+	 * @throws IOException in case of error
+	 */
+	private long read(final Consumer<? super Word> consumer, final boolean complete) throws IOException {
+		final long size = channel.size();
+		if (size < position) {
+			// truncated
+			position = 0;
+		}
+		final long start = position;
+		while (position < size) {
+			block.clear();
+			block.limit((int) Math.min(block.capacity(), size - position));
+			while (block.hasRemaining() && channel.read(block, position + block.position()) >= 0) {
+				// read until the block is full
+			}
+			block.flip();
+			int limit = block.limit();
+			if (!complete || position + limit < size) {
+				// the block ends after its last separator, unless the block is a single word
+				while (limit > 0 && !WordSpliterator.isSeparator(table, utf8, block.get(limit - 1))) {
+					limit--;
+				}
+				if (limit == 0) {
+					if (block.limit() < block.capacity()) {
+						// a partial word at the end of the file, to be completed
+						break;
+					}
+					limit = block.limit();
+				}
+			}
+			block.limit(limit);
+			new WordSpliterator(block, alphabet, charset).forEachRemaining(consumer);
+			position += limit;
+		}
+		return position - start;
+	}
+
+}
@@ -0,0 +1,93 @@
+package de.engehausen.cc1.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Selects the words counted most often from words and their counts offered
+ * one at a time, keeping only the best words seen so far. The words are
+ * ordered by descending count and then lexicographically, like {@link TopTenWordsImpl}.
+ * <p>Callers having the count before the word can check {@link #accepts(long)}
+ * first, so the word is only created for candidates.</p>
+ */
+final class TopWords {
+
+	private static final Comparator<Counted> RANKING = (a, b) -> {
+		final int result = Long.compare(b.count, a.count);
+		return result != 0 ? result : a.word.compareTo(b.word);
+	};
+
+	private final int size;
+	// the worst of the top words is at the head
+	private final PriorityQueue<Counted> top;
+
+	/**
+	 * Creates the selection.
+	 * @param k the number of words to select
+	 */
+	TopWords(final int k) {
+		size = Math.max(0, k);
+		top = new PriorityQueue<>(size + 1, RANKING.reversed());
+	}
+
+	/**
+	 * Indicates whether a word of the given count may be one of the top words.
+	 * @param count the count of the word
+	 * @return <code>true</code> if the word should be offered.
+	 */
+	boolean accepts(final long count) {
+		return size > 0 && (top.size() < size || count >= top.peek().count);
+	}
+
+	/**
+	 * Offers a word and its count.
+	 * @param word the word, must not be <code>null</code>.
+	 * @param count the count of the word
+	 */
+	void offer(final String word, final long count) {
+		if (accepts(count)) {
+			final Counted counted = new Counted(word, count);
+			if (top.size() < size) {
+				top.add(counted);
+			} else if (RANKING.compare(counted, top.peek()) < 0) {
+				top.poll();
+				top.add(counted);
+			}
+		}
+	}
+
+	/**
+	 * Returns the top words offered, interning them.
+	 * @return the top words in order, never <code>null</code>.
+	 */
+	List<Word> getWords() {
+		final Counted[] sorted = top.toArray(new Counted[top.size()]);
+		Arrays.sort(sorted, RANKING);
+		final List<Word> result = new ArrayList<>(sorted.length);
+		for (Counted counted : sorted) {
+			result.add(Word.from(counted.word));
+		}
+		return result;
+	}
+
+	/**
+	 * A word and its count, a candidate for the top words.
+	 */
+	private static final class Counted {
+
+		final String word;
+		final long count;
+
+		Counted(final String word, final long count) {
+			this.word = word;
+			this.count = count;
+		}
+
+	}
+
+}
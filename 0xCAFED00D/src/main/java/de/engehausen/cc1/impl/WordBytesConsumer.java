@@ -0,0 +1,19 @@
+package de.engehausen.cc1.impl;
+
+/**
+ * Receives the case-folded characters of the words found by a {@link WordSpliterator},
+ * <code>UTF-8</code> encoded, without the words being interned. The bytes are
+ * only valid during the call; they are overwritten by the next word.
+ */
+@FunctionalInterface
+public interface WordBytesConsumer {
+
+	/**
+	 * Receives the characters of a word.
+	 * @param chars the <code>UTF-8</code> encoded characters, never <code>null</code>.
+	 * @param offset the offset of the word in the array
+	 * @param length the length of the word
+	 */
+	void accept(byte[] chars, int offset, int length);
+
+}
@@ -0,0 +1,374 @@
+package de.engehausen.cc1.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+
+/**
+ * The number of words of a file at checkpoints every few kilobytes, kept in a
+ * small sidecar file next to it. Attached to a {@link WordSpliterator} using
+ * {@link WordSpliterator#setCheckpoints(WordCheckpoints)}, the spliterator
+ * splits the file at checkpoints only, so it knows the exact number of words
+ * of each part: it reports {@link java.util.Spliterator#SIZED SIZED} and
+ * {@link java.util.Spliterator#SUBSIZED SUBSIZED}, and needs not probe the
+ * file for the start of a word when splitting.
+ * <p>Checkpoint <i>k</i> is the offset of the first word starting at or after
+ * <i>k</i> times the interval, or the end of the file if there is no such
+ * word, together with the number of words before that offset. As each checkpoint
+ * is the start of a word (or the start or end of the file), splitting there
+ * never cuts a word.</p>
+ * <p>The sidecar is built once by {@link #build(File, TokenAlphabet, Charset, int)},
+ * which tokenizes the file in parallel, and reused by {@link #load(File, TokenAlphabet, Charset)}
+ * as long as the file has not been modified. It records the size and the modification
+ * time of the file, and the alphabet and encoding it was built for. The sidecar
+ * file is big endian and consists of a header: magic number, version, file size,
+ * modification time, interval, <code>UTF-8</code> flag and the 256 byte translation
+ * table of the alphabet, followed by the number of checkpoints and the offset
+ * and number of words before it of each checkpoint.</p>
+ */
+public class WordCheckpoints {
+
+	/**
+	 * The default interval of the checkpoints, 64KB.
+	 */
+	public static final int DEFAULT_INTERVAL = 64*1024;
+
+	/**
+	 * The suffix appended to the name of a file to name its sidecar.
+	 */
+	public static final String SUFFIX = ".wcp";
+
+	static final int MAGIC = 0x57435054;
+	static final int VERSION = 1;
+
+	/**
+	 * Returns the sidecar file of the given file.
+	 * @param file the file, must not be <code>null</code>.
+	 * @return the sidecar file, which need not exist, never <code>null</code>.
+	 */
+	public static File getSidecar(final File file) {
+		return new File(file.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Tokenizes the given file, writes the checkpoints to its sidecar and returns them.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param alphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the file; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @param interval the distance of the checkpoints in bytes
+	 * @return the checkpoints, never <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	public static WordCheckpoints build(final File file, final TokenAlphabet alphabet, final Charset charset, final int interval) throws IOException {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Invalid interval: "+interval);
+		}
+		final long lastModified = file.lastModified();
+		final Candidates candidates;
+		try (final WordSpliterator spliterator = new WordSpliterator(file, WordSpliterator.ADAPTIVE_THRESHOLD, alphabet, charset)) {
+			candidates = ForkJoinPool.commonPool().invoke(new LeafTraversal<>(spliterator, part -> new Candidates(interval).traverse(part), Candidates::append));
+		}
+		final long size = file.length();
+		final long[][] checkpoints = candidates.checkpoints(size);
+		final WordCheckpoints result = new WordCheckpoints(size, lastModified, interval, StandardCharsets.UTF_8.equals(charset), alphabet.getTable(), checkpoints[0], checkpoints[1]);
+		final File sidecar = getSidecar(file);
+		final File temp = File.createTempFile(sidecar.getName(), ".tmp", sidecar.getAbsoluteFile().getParentFile());
+		try {
+			result.write(temp);
+			Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+		return result;
+	}
+
+	/**
+	 * Loads the checkpoints of the given file from its sidecar.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param alphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the file, must not be <code>null</code>.
+	 * @return the checkpoints, or <code>null</code> if there is no sidecar, or if it
+	 * is outdated or has been built for another alphabet or encoding.
+	 * @throws IOException in case of error, e.g. if the sidecar is corrupt
+	 */
+	public static WordCheckpoints load(final File file, final TokenAlphabet alphabet, final Charset charset) throws IOException {
+		final File sidecar = getSidecar(file);
+		if (!sidecar.isFile()) {
+			return null;
+		}
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a checkpoint file: "+sidecar);
+			}
+			final long size = in.readLong();
+			final long lastModified = in.readLong();
+			final int interval = in.readInt();
+			final boolean utf8 = in.readBoolean();
+			final byte[] table = new byte[256];
+			in.readFully(table);
+			if (size != file.length() || lastModified != file.lastModified()
+				|| utf8 != StandardCharsets.UTF_8.equals(WordSpliterator.checkEncoding(charset))
+				|| !Arrays.equals(table, alphabet.getTable())) {
+				return null;
+			}
+			final int count = in.readInt();
+			final long[] offsets = new long[count];
+			final long[] words = new long[count];
+			for (int i = 0; i < count; i++) {
+				offsets[i] = in.readLong();
+				words[i] = in.readLong();
+			}
+			return new WordCheckpoints(size, lastModified, interval, utf8, table, offsets, words);
+		} catch (EOFException e) {
+			throw new IOException("Truncated checkpoint file: "+sidecar, e);
+		}
+	}
+
+	/**
+	 * Loads the checkpoints of the given file from its sidecar, building
+	 * the sidecar with the default interval if it is missing or outdated.
+	 * @param file the file, must not be <code>null</code>.
+	 * @param alphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the file, must not be <code>null</code>.
+	 * @return the checkpoints, never <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	public static WordCheckpoints get(final File file, final TokenAlphabet alphabet, final Charset charset) throws IOException {
+		final WordCheckpoints result = load(file, alphabet, charset);
+		return result != null ? result : build(file, alphabet, charset, DEFAULT_INTERVAL);
+	}
+
+	private final long size;
+	private final long lastModified;
+	private final int interval;
+	private final boolean utf8;
+	private final byte[] table;
+	// the ascending offsets of the checkpoints and the number of words before each
+	private final long[] offsets;
+	private final long[] words;
+
+	private WordCheckpoints(final long fileSize, final long modified, final int distance, final boolean unicode, final byte[] translation, final long[] checkpointOffsets, final long[] wordCounts) {
+		size = fileSize;
+		lastModified = modified;
+		interval = distance;
+		utf8 = unicode;
+		table = translation;
+		offsets = checkpointOffsets;
+		words = wordCounts;
+	}
+
+	/**
+	 * Returns the size of the file the checkpoints have been built for.
+	 * @return the size in bytes
+	 */
+	public long getFileSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the distance of the checkpoints.
+	 * @return the interval in bytes
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Returns the number of words of the file.
+	 * @return the number of words
+	 */
+	public long getWordCount() {
+		return words[words.length - 1];
+	}
+
+	/**
+	 * Returns the number of checkpoints, including the start and the end of the file.
+	 * @return the number of checkpoints
+	 */
+	public int getCheckpointCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * Indicates whether the checkpoints have been built for the given tokenization.
+	 * @param translation the translation table of the alphabet
+	 * @param unicode whether the file is <code>UTF-8</code> encoded
+	 * @return <code>true</code> if the checkpoints match the tokenization.
+	 */
+	boolean matches(final byte[] translation, final boolean unicode) {
+		return utf8 == unicode && Arrays.equals(table, translation);
+	}
+
+	/**
+	 * Returns the number of words before the given checkpoint.
+	 * @param offset the offset of a checkpoint
+	 * @return the number of words before the checkpoint, <code>-1</code>
+	 * if the offset is not a checkpoint.
+	 */
+	long wordsBefore(final long offset) {
+		final int index = Arrays.binarySearch(offsets, offset);
+		return index < 0 ? -1L : words[index];
+	}
+
+	/**
+	 * Returns the checkpoint closest to the given offset within the given range.
+	 * @param offset the offset
+	 * @param from the start of the range (exclusive)
+	 * @param to the end of the range (exclusive)
+	 * @return the checkpoint, <code>-1</code> if there is no checkpoint in the range.
+	 */
+	long nearest(final long offset, final long from, final long to) {
+		int index = Arrays.binarySearch(offsets, offset);
+		if (index < 0) {
+			// the checkpoint after the offset, or the one before if closer
+			index = -index - 1;
+			if (index == offsets.length || (index > 0 && offset - offsets[index - 1] < offsets[index] - offset)) {
+				index--;
+			}
+		}
+		if (offsets[index] <= from) {
+			index++;
+		} else if (offsets[index] >= to) {
+			index--;
+		}
+		return index >= 0 && index < offsets.length && offsets[index] > from && offsets[index] < to ? offsets[index] : -1L;
+	}
+
+	/**
+	 * Returns the last checkpoint within the given range.
+	 * @param from the start of the range (exclusive)
+	 * @param to the end of the range (inclusive)
+	 * @return the checkpoint, <code>-1</code> if there is no checkpoint in the range.
+	 */
+	long last(final long from, final long to) {
+		int index = Arrays.binarySearch(offsets, to);
+		if (index < 0) {
+			index = -index - 2;
+		}
+		return index >= 0 && offsets[index] > from ? offsets[index] : -1L;
+	}
+
+	private void write(final File sidecar) throws IOException {
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(size);
+			out.writeLong(lastModified);
+			out.writeInt(interval);
+			out.writeBoolean(utf8);
+			out.write(table);
+			out.writeInt(offsets.length);
+			for (int i = 0; i < offsets.length; i++) {
+				out.writeLong(offsets[i]);
+				out.writeLong(words[i]);
+			}
+		}
+	}
+
+	/**
+	 * Gathers the words of a part of the file that may be the first word at or
+	 * after a multiple of the interval, together with the number of words
+	 * before them, see {@link LeafTraversal}. These are the first word of the
+	 * part, and each word that is the first one at or after a multiple of the
+	 * interval within the part.
+	 */
+	private static final class Candidates {
+
+		private final int interval;
+		private long[] offsets;
+		private long[] indexes;
+		private int size;
+		private long count;
+		// the offset of the previous word of the part
+		private long previous;
+
+		Candidates(final int distance) {
+			interval = distance;
+			offsets = new long[16];
+			indexes = new long[16];
+		}
+
+		/**
+		 * Collects the candidates of the given part.
+		 * @param spliterator the spliterator of the part, a leaf of the split tree
+		 * @return these candidates
+		 */
+		Candidates traverse(final WordSpliterator spliterator) {
+			spliterator.forEachOccurrence((word, offset) -> {
+				if (count == 0 || offset / interval > previous / interval) {
+					add(offset, count);
+				}
+				previous = offset;
+				count++;
+			});
+			return this;
+		}
+
+		private void add(final long offset, final long index) {
+			if (size == offsets.length) {
+				offsets = Arrays.copyOf(offsets, 2 * size);
+				indexes = Arrays.copyOf(indexes, 2 * size);
+			}
+			offsets[size] = offset;
+			indexes[size++] = index;
+		}
+
+		/**
+		 * Appends the candidates of the given part, which follows this part.
+		 * @param next the candidates to append
+		 * @return these candidates
+		 */
+		Candidates append(final Candidates next) {
+			for (int i = 0; i < next.size; i++) {
+				add(next.offsets[i], count + next.indexes[i]);
+			}
+			count += next.count;
+			return this;
+		}
+
+		/**
+		 * Selects the checkpoints from the candidates.
+		 * @param fileSize the size of the file
+		 * @return the ascending offsets of the checkpoints and the number of words before each
+		 */
+		long[][] checkpoints(final long fileSize) {
+			final long[] resultOffsets = new long[(int) (fileSize / interval) + 2];
+			final long[] resultWords = new long[resultOffsets.length];
+			// the start of the file
+			int result = 1;
+			int candidate = 0;
+			for (long boundary = interval; boundary < fileSize; boundary += interval) {
+				while (candidate < size && offsets[candidate] < boundary) {
+					candidate++;
+				}
+				final long offset = candidate < size ? offsets[candidate] : fileSize;
+				if (offset > resultOffsets[result - 1]) {
+					resultOffsets[result] = offset;
+					resultWords[result++] = candidate < size ? indexes[candidate] : count;
+				}
+			}
+			if (fileSize > resultOffsets[result - 1]) {
+				resultOffsets[result] = fileSize;
+				resultWords[result++] = count;
+			}
+			return new long[][] { Arrays.copyOf(resultOffsets, result), Arrays.copyOf(resultWords, result) };
+		}
+
+	}
+
+}
@@ -0,0 +1,407 @@
+package de.engehausen.cc1.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import de.engehausen.cc1.api.Word;
+
+/**
+ * An inverted index of the words of a list of files, mapped into memory
+ * for lookups that take microseconds instead of a scan of the files.
+ * Indexes are built by the {@link WordIndexBuilder}.
+ * <p>The offsets of the index count from the start of the first file, as if
+ * the files were concatenated; {@link #getDocumentIndex(long)} tells the file of
+ * an offset. Looking up a word is a binary search in the sorted dictionary;
+ * the number of occurrences is stored in the dictionary, the offsets are
+ * decoded from the postings of the word on demand.</p>
+ * <p>The index file is big endian and consists of</p>
+ * <ul>
+ * <li>a header: magic number, version, number of documents, number of distinct
+ * words, number of occurrences, and the positions of dictionary, strings and postings,</li>
+ * <li>the documents: start offset, size and modification time of each file,
+ * followed by the length and <code>UTF-8</code> bytes of its path,</li>
+ * <li>the dictionary: a fixed size entry per word, sorted by the <code>UTF-8</code>
+ * bytes of the words, holding the position of the word in the strings,
+ * its number of occurrences and the position of its postings,</li>
+ * <li>the strings: the length and <code>UTF-8</code> bytes of each word, and</li>
+ * <li>the postings: the ascending offsets of the occurrences of each word, as
+ * differences to the previous offset encoded as variable length integers
+ * (seven bits per byte, the high bit set on all but the last byte).</li>
+ * </ul>
+ * <p>The index is limited to 2GB. An index can be used by several threads
+ * concurrently; it must not be used after closing it.</p>
+ */
+public class WordIndex implements Closeable {
+
+	static final int MAGIC = 0x57494458;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 48;
+	static final int DOCUMENT_SIZE = 26;
+	static final int ENTRY_SIZE = 16;
+
+	private static final long[] NONE = new long[0];
+
+	/**
+	 * Compares the given byte arrays lexicographically, as unsigned bytes.
+	 * For <code>UTF-8</code> encoded strings, this is the order of their code points.
+	 * @param a the first array
+	 * @param b the second array
+	 * @return a negative value, zero or a positive value if the first array is less than,
+	 * equal to or greater than the second array
+	 */
+	static int compare(final byte[] a, final byte[] b) {
+		final int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++) {
+			final int diff = (a[i] & 0xff) - (b[i] & 0xff);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Returns the number of bytes of the given value encoded as variable length integer.
+	 * @param value the value, must not be negative
+	 * @return the number of bytes, one to nine
+	 */
+	static int varintSize(final long value) {
+		return Math.max(1, (63 - Long.numberOfLeadingZeros(value)) / 7 + 1);
+	}
+
+	private final FileWindows windows;
+	private final ByteBuffer bytes;
+	private final File[] documents;
+	private final long[] starts;
+	private final long[] sizes;
+	private final long[] modified;
+	private final int wordCount;
+	private final long occurrenceCount;
+	private final int dictionary;
+	private final int strings;
+	private final int postings;
+
+	/**
+	 * Opens the given index, mapping it into memory.
+	 * @param index the index file, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. file not found or not a word index
+	 */
+	public WordIndex(final File index) throws IOException {
+		windows = new FileWindows(index, Integer.MAX_VALUE);
+		try {
+			if (windows.size() > Integer.MAX_VALUE) {
+				throw new IOException("Index too large: "+index);
+			}
+			bytes = windows.map(0L, (int) windows.size()).buffer();
+			if (bytes.limit() < HEADER_SIZE || bytes.getInt(0) != MAGIC) {
+				throw new IOException("Not a word index: "+index);
+			}
+			if (bytes.getInt(4) != VERSION) {
+				throw new IOException("Unsupported word index version "+bytes.getInt(4)+": "+index);
+			}
+			final int documentCount = bytes.getInt(8);
+			wordCount = bytes.getInt(12);
+			occurrenceCount = bytes.getLong(16);
+			dictionary = (int) bytes.getLong(24);
+			strings = (int) bytes.getLong(32);
+			postings = (int) bytes.getLong(40);
+			documents = new File[documentCount];
+			starts = new long[documentCount + 1];
+			sizes = new long[documentCount];
+			modified = new long[documentCount];
+			int position = HEADER_SIZE;
+			for (int i = 0; i < documentCount; i++) {
+				starts[i] = bytes.getLong(position);
+				sizes[i] = bytes.getLong(position + 8);
+				modified[i] = bytes.getLong(position + 16);
+				final byte[] path = new byte[bytes.getShort(position + 24) & 0xFFFF];
+				final ByteBuffer source = bytes.duplicate();
+				source.position(position + DOCUMENT_SIZE);
+				source.get(path);
+				documents[i] = new File(new String(path, StandardCharsets.UTF_8));
+				position += DOCUMENT_SIZE + path.length;
+			}
+			starts[documentCount] = documentCount == 0 ? 0L : starts[documentCount - 1] + sizes[documentCount - 1];
+		} catch (IOException | RuntimeException e) {
+			windows.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the number of indexed files.
+	 * @return the number of files
+	 */
+	public int getDocumentCount() {
+		return documents.length;
+	}
+
+	/**
+	 * Returns the given indexed file.
+	 * @param document the index of the file
+	 * @return the file, never <code>null</code>.
+	 */
+	public File getDocument(final int document) {
+		return documents[document];
+	}
+
+	/**
+	 * Returns the offset of the start of the given file in the index.
+	 * @param document the index of the file
+	 * @return the offset of its first byte
+	 */
+	public long getDocumentStart(final int document) {
+		return starts[document];
+	}
+
+	/**
+	 * Returns the file the given offset belongs to.
+	 * @param offset the offset, e.g. of a word occurrence
+	 * @return the index of the file, or <code>-1</code> if the offset is not within any file.
+	 */
+	public int getDocumentIndex(final long offset) {
+		if (offset < 0 || offset >= starts[documents.length]) {
+			return -1;
+		}
+		final int index = Arrays.binarySearch(starts, 0, documents.length, offset);
+		// there may be empty files starting at the same offset
+		int result = index >= 0 ? index : -index - 2;
+		while (result + 1 < documents.length && starts[result + 1] == offset) {
+			result++;
+		}
+		return result;
+	}
+
+	/**
+	 * Indicates whether the indexed files are unchanged, judging by their size
+	 * and modification time.
+	 * @return <code>true</code> if the index is up to date.
+	 */
+	public boolean isUpToDate() {
+		for (int i = 0; i < documents.length; i++) {
+			if (documents[i].length() != sizes[i] || documents[i].lastModified() != modified[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of distinct words of the index.
+	 * @return the number of words
+	 */
+	public int getWordCount() {
+		return wordCount;
+	}
+
+	/**
+	 * Returns the number of occurrences of all words of the index.
+	 * @return the number of occurrences
+	 */
+	public long getOccurrenceCount() {
+		return occurrenceCount;
+	}
+
+	/**
+	 * Indicates whether the given word occurs in the indexed files.
+	 * @param word the word, must not be <code>null</code>.
+	 * @return <code>true</code> if the word occurs.
+	 */
+	public boolean contains(final Word word) {
+		return find(word) >= 0;
+	}
+
+	/**
+	 * Returns the number of occurrences of the given word.
+	 * @param word the word, must not be <code>null</code>.
+	 * @return the number of occurrences, zero if the word does not occur.
+	 */
+	public int count(final Word word) {
+		final int entry = find(word);
+		return entry < 0 ? 0 : bytes.getInt(dictionary + entry * ENTRY_SIZE + 4);
+	}
+
+	/**
+	 * Returns the offsets of the occurrences of the given word.
+	 * @param word the word, must not be <code>null</code>.
+	 * @return the ascending offsets, empty if the word does not occur; never <code>null</code>.
+	 */
+	public long[] offsets(final Word word) {
+		final int entry = find(word);
+		return entry < 0 ? NONE : decode(entry);
+	}
+
+	/**
+	 * Returns the files that contain all of the given words.
+	 * @param words the words, must not be <code>null</code> nor empty.
+	 * @return the ascending indexes of the files, never <code>null</code>.
+	 */
+	public int[] documents(final Word... words) {
+		final long[][] offsets = offsetsOf(words);
+		if (offsets == null) {
+			return new int[0];
+		}
+		final BitSet result = new BitSet(documents.length);
+		result.set(0, documents.length);
+		for (long[] list : offsets) {
+			final BitSet found = new BitSet(documents.length);
+			for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+				// the first occurrence at or after the start of the file
+				final int index = lowerBound(list, starts[i]);
+				if (index < list.length && list[index] < starts[i + 1]) {
+					found.set(i);
+				}
+			}
+			result.and(found);
+		}
+		return result.stream().toArray();
+	}
+
+	/**
+	 * Returns the offsets of the occurrences of the first of the given words
+	 * that have an occurrence of each of the other words nearby, in the same file.
+	 * @param distance the maximum distance in bytes between the offset of the first
+	 * word and those of the others
+	 * @param words the words, must not be <code>null</code> nor empty.
+	 * @return the ascending offsets of the first word, never <code>null</code>.
+	 */
+	public long[] near(final int distance, final Word... words) {
+		final long[][] offsets = offsetsOf(words);
+		if (offsets == null) {
+			return NONE;
+		}
+		final long[] first = offsets[0];
+		final long[] result = new long[first.length];
+		int count = 0;
+		for (long offset : first) {
+			final int document = getDocumentIndex(offset);
+			final long from = Math.max(starts[document], offset - distance);
+			final long to = Math.min(starts[document + 1] - 1, offset + distance);
+			boolean all = true;
+			for (int i = 1; i < offsets.length && all; i++) {
+				final int index = lowerBound(offsets[i], from);
+				all = index < offsets[i].length && offsets[i][index] <= to;
+			}
+			if (all) {
+				result[count++] = offset;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Unmaps the index. The index must not be used afterwards.
+	 */
+	@Override
+	public void close() {
+		windows.close();
+	}
+
+	/**
+	 * Decodes the offsets of the given words, in the order of the words.
+	 * @param words the words
+	 * @return the offsets, or <code>null</code> if a word does not occur
+	 * @throws IllegalArgumentException if there are no words
+	 */
+	private long[][] offsetsOf(final Word... words) {
+		if (words.length == 0) {
+			throw new IllegalArgumentException("No words");
+		}
+		final int[] entries = new int[words.length];
+		for (int i = 0; i < words.length; i++) {
+			entries[i] = find(words[i]);
+			if (entries[i] < 0) {
+				// checked for all words before decoding anything
+				return null;
+			}
+		}
+		final long[][] result = new long[words.length][];
+		for (int i = 0; i < words.length; i++) {
+			result[i] = decode(entries[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the dictionary entry of the given word.
+	 * @param word the word
+	 * @return the index of the entry, or <code>-1</code> if the word does not occur.
+	 */
+	private int find(final Word word) {
+		final byte[] key = word.toString().getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = wordCount - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int string = strings + bytes.getInt(dictionary + middle * ENTRY_SIZE);
+			final int length = bytes.getShort(string) & 0xFFFF;
+			int diff = 0;
+			for (int i = 0, n = Math.min(length, key.length); i < n && diff == 0; i++) {
+				diff = (bytes.get(string + 2 + i) & 0xff) - (key[i] & 0xff);
+			}
+			if (diff == 0) {
+				diff = length - key.length;
+			}
+			if (diff < 0) {
+				low = middle + 1;
+			} else if (diff > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes the postings of the given dictionary entry.
+	 * @param entry the index of the entry
+	 * @return the ascending offsets
+	 */
+	private long[] decode(final int entry) {
+		final int count = bytes.getInt(dictionary + entry * ENTRY_SIZE + 4);
+		int position = postings + (int) bytes.getLong(dictionary + entry * ENTRY_SIZE + 8);
+		final long[] result = new long[count];
+		long offset = 0;
+		for (int i = 0; i < count; i++) {
+			long delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes.get(position++);
+				delta |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			offset += delta;
+			result[i] = offset;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the index of the first of the given ascending offsets that
+	 * is not less than the given offset.
+	 * @param offsets the ascending offsets
+	 * @param offset the offset to look for
+	 * @return the index, <code>offsets.length</code> if all offsets are less
+	 */
+	private static int lowerBound(final long[] offsets, final long offset) {
+		int low = 0;
+		int high = offsets.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (offsets[middle] < offset) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+}
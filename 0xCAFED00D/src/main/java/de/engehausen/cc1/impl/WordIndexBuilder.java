@@ -0,0 +1,620 @@
+package de.engehausen.cc1.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Builds a {@link WordIndex} for a list of files.
+ * <p>The files are tokenized in parallel: each file by a fork/join task, which
+ * splits the {@link WordSpliterator} of the file further and gathers the offsets
+ * of the words of each part using a {@link WordOccurrenceConsumer}. The offsets
+ * are held in the heap, eight bytes per word occurrence, up to the memory budget:
+ * a part whose offsets exceed its share of the budget writes them, sorted by word,
+ * to a run file and starts over, like the tables of the {@link SpillingWordCounter}.
+ * Each run holds the offsets of a contiguous range of the files, so the offsets of a
+ * word are sorted by concatenating the runs in file order, without sorting them.</p>
+ * <p>The runs, spilled or still in memory, are merged word by word, writing the
+ * postings to a temporary file; the index is then written to another temporary
+ * file, which is moved to the index file, so readers never see an incomplete
+ * index. Only the dictionary, a few bytes per distinct word, is held in the heap
+ * while merging.</p>
+ * <p>See {@link WordIndex} for the file format.</p>
+ */
+public class WordIndexBuilder {
+
+	/**
+	 * The default memory budget for the offsets held in the heap, in bytes.
+	 */
+	public static final long DEFAULT_BUDGET = 64L*1024*1024;
+
+	// the smallest number of offsets a part holds before spilling
+	private static final long MIN_PART_OFFSETS = 1024;
+	// the largest index a WordIndex can map
+	private static final long MAX_INDEX_SIZE = Integer.MAX_VALUE;
+
+	private final TokenAlphabet alphabet;
+	private final Charset charset;
+	private final long budget;
+	private final long maxSize;
+
+	/**
+	 * Creates the builder for <code>US-ASCII</code> files and words of the default
+	 * alphabet, {@link TokenAlphabet#LETTERS}.
+	 */
+	public WordIndexBuilder() {
+		this(TokenAlphabet.LETTERS, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Creates the builder for files in the given encoding and words of the given alphabet,
+	 * with the default memory budget.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param encoding the encoding of the files, <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>; must not be <code>null</code>.
+	 */
+	public WordIndexBuilder(final TokenAlphabet tokenAlphabet, final Charset encoding) {
+		this(tokenAlphabet, encoding, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Creates the builder for files in the given encoding and words of the given alphabet.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param encoding the encoding of the files, <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>; must not be <code>null</code>.
+	 * @param memoryBudget the approximate number of bytes of the offsets held in the heap
+	 * by all threads; more offsets are spilled to run files next to the index
+	 * @throws IllegalArgumentException if the budget is too small
+	 */
+	public WordIndexBuilder(final TokenAlphabet tokenAlphabet, final Charset encoding, final long memoryBudget) {
+		this(tokenAlphabet, encoding, memoryBudget, MAX_INDEX_SIZE);
+	}
+
+	/**
+	 * Creates the builder for files in the given encoding and words of the given alphabet,
+	 * for indexes of at most the given size, e.g. for testing.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param encoding the encoding of the files, <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>; must not be <code>null</code>.
+	 * @param memoryBudget the approximate number of bytes of the offsets held in the heap
+	 * by all threads; more offsets are spilled to run files next to the index
+	 * @param maxIndexSize the maximum size of the index in bytes, at most <code>Integer.MAX_VALUE</code>
+	 * @throws IllegalArgumentException if the budget is too small
+	 */
+	WordIndexBuilder(final TokenAlphabet tokenAlphabet, final Charset encoding, final long memoryBudget, final long maxIndexSize) {
+		alphabet = tokenAlphabet;
+		charset = WordSpliterator.checkEncoding(encoding);
+		// half of the budget for the parts being tokenized, half for the runs kept in memory
+		if (memoryBudget / 2 / Long.BYTES / (ForkJoinPool.getCommonPoolParallelism() + 1) < MIN_PART_OFFSETS) {
+			throw new IllegalArgumentException("Budget too small: "+memoryBudget);
+		}
+		budget = memoryBudget;
+		maxSize = Math.min(maxIndexSize, MAX_INDEX_SIZE);
+	}
+
+	/**
+	 * Builds the index of the given files and writes it to the given index file,
+	 * replacing it if it exists.
+	 * @param files the files to index, must not be <code>null</code>. The offsets of the
+	 * index count from the start of the first file, as if the files were concatenated.
+	 * @param index the index file to write, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. if the index would exceed the 2GB
+	 * a {@link WordIndex} is limited to
+	 */
+	public void build(final List<File> files, final File index) throws IOException {
+		final File directory = index.getAbsoluteFile().getParentFile();
+		final long[] starts = new long[files.size() + 1];
+		final Runs runs = new Runs(directory, budget / 2 / Long.BYTES);
+		final List<LeafTraversal<Void>> tasks = new ArrayList<>(files.size());
+		File postings = null;
+		File temp = null;
+		try {
+			try {
+				for (int i = 0; i < files.size(); i++) {
+					final WordSpliterator spliterator = new WordSpliterator(files.get(i), WordSpliterator.ADAPTIVE_THRESHOLD, alphabet, charset);
+					final long start = starts[i];
+					tasks.add(LeafTraversal.of(spliterator, part -> {
+						final Collector collector = new Collector(start, runs);
+						part.forEachOccurrence(collector);
+						collector.finish();
+					}));
+					starts[i + 1] = starts[i] + files.get(i).length();
+				}
+				ForkJoinTask.invokeAll(tasks);
+			} finally {
+				for (LeafTraversal<Void> task : tasks) {
+					task.getSpliterator().close();
+				}
+			}
+			postings = File.createTempFile(index.getName(), ".postings", directory);
+			final Dictionary dictionary = runs.merge(postings, maxSize);
+			temp = File.createTempFile(index.getName(), ".tmp", directory);
+			write(files, starts, dictionary, postings, temp);
+			Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			runs.close();
+			if (postings != null) {
+				Files.deleteIfExists(postings.toPath());
+			}
+			if (temp != null) {
+				Files.deleteIfExists(temp.toPath());
+			}
+		}
+	}
+
+	/**
+	 * Writes the index.
+	 * @param files the indexed files
+	 * @param starts the offsets of the files, with an additional final entry
+	 * @param dictionary the words, their counts and the positions of their postings
+	 * @param postings the file holding the postings of all words
+	 * @param index the file to write to
+	 * @throws IOException in case of error, or if the index would be too large
+	 */
+	private void write(final List<File> files, final long[] starts, final Dictionary dictionary, final File postings, final File index) throws IOException {
+		final byte[][] paths = new byte[files.size()][];
+		long documentsSize = 0;
+		for (int i = 0; i < paths.length; i++) {
+			paths[i] = files.get(i).getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+			documentsSize += WordIndex.DOCUMENT_SIZE + paths[i].length;
+		}
+		long stringsSize = 0;
+		for (byte[] key : dictionary.keys) {
+			stringsSize += 2 + key.length;
+		}
+		final int size = dictionary.keys.size();
+		final long entries = WordIndex.HEADER_SIZE + documentsSize;
+		final long strings = entries + (long) WordIndex.ENTRY_SIZE * size;
+		final long total = strings + stringsSize + postings.length();
+		if (total > maxSize) {
+			throw new IOException("Index too large: "+total+" bytes, at most "+maxSize+" supported");
+		}
+		try (final FileOutputStream stream = new FileOutputStream(index)) {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64*1024));
+			out.writeInt(WordIndex.MAGIC);
+			out.writeInt(WordIndex.VERSION);
+			out.writeInt(paths.length);
+			out.writeInt(size);
+			out.writeLong(dictionary.occurrences);
+			out.writeLong(entries);
+			out.writeLong(strings);
+			out.writeLong(strings + stringsSize);
+			for (int i = 0; i < paths.length; i++) {
+				out.writeLong(starts[i]);
+				out.writeLong(starts[i + 1] - starts[i]);
+				out.writeLong(files.get(i).lastModified());
+				out.writeShort(paths[i].length);
+				out.write(paths[i]);
+			}
+			int string = 0;
+			for (int i = 0; i < size; i++) {
+				out.writeInt(string);
+				out.writeInt(dictionary.counts[i]);
+				out.writeLong(dictionary.positions[i]);
+				string += 2 + dictionary.keys.get(i).length;
+			}
+			for (byte[] key : dictionary.keys) {
+				out.writeShort(key.length);
+				out.write(key);
+			}
+			out.flush();
+			// the postings follow the strings
+			try (final FileChannel source = FileChannel.open(postings.toPath(), StandardOpenOption.READ)) {
+				final FileChannel target = stream.getChannel();
+				for (long position = 0, length = source.size(); position < length; ) {
+					position += source.transferTo(position, length - position, target);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the <code>UTF-8</code> bytes of the given word, by which the dictionary is sorted.
+	 * @param word the word
+	 * @return the bytes
+	 * @throws IllegalStateException if the word is too long for the index
+	 */
+	private static byte[] key(final Word word) {
+		final byte[] result = word.toString().getBytes(StandardCharsets.UTF_8);
+		if (result.length > 0xFFFF) {
+			throw new IllegalStateException("Word too long: "+result.length+" bytes");
+		}
+		return result;
+	}
+
+	/**
+	 * The words of the index, sorted, with the number of their occurrences and
+	 * the positions of their postings.
+	 */
+	private static final class Dictionary {
+
+		private final List<byte[]> keys = new ArrayList<>();
+		private int[] counts = new int[1024];
+		private long[] positions = new long[1024];
+		private long occurrences;
+
+		void add(final byte[] key, final int count, final long position) {
+			final int size = keys.size();
+			if (size == counts.length) {
+				counts = Arrays.copyOf(counts, 2 * size);
+				positions = Arrays.copyOf(positions, 2 * size);
+			}
+			keys.add(key);
+			counts[size] = count;
+			positions[size] = position;
+			occurrences += count;
+		}
+
+	}
+
+	/**
+	 * A growable list of the ascending offsets of a word.
+	 */
+	private static final class OffsetList {
+
+		private long[] offsets = new long[4];
+		private int size;
+
+		void add(final long offset) {
+			if (size == offsets.length) {
+				offsets = Arrays.copyOf(offsets, 2 * size);
+			}
+			offsets[size++] = offset;
+		}
+
+	}
+
+	/**
+	 * The runs of all parts, and their merging.
+	 */
+	private static final class Runs implements Closeable {
+
+		private final File directory;
+		private final long partOffsets;
+		private final long keptOffsets;
+		private final AtomicLong kept;
+		private final Queue<Run> runs;
+
+		/**
+		 * Creates the runs.
+		 * @param runDirectory the directory of the run files
+		 * @param offsets the number of offsets held in the heap, half of them by the parts being
+		 * tokenized, half by the runs kept in memory
+		 */
+		Runs(final File runDirectory, final long offsets) {
+			directory = runDirectory;
+			partOffsets = offsets / (ForkJoinPool.getCommonPoolParallelism() + 1);
+			keptOffsets = offsets;
+			kept = new AtomicLong();
+			runs = new ConcurrentLinkedQueue<>();
+		}
+
+		/**
+		 * Adds the offsets of a part as a run, kept in memory if the budget allows.
+		 * @param offsets the offsets of the words, all in a range of the files no other run covers
+		 * @param first the smallest offset
+		 * @param count the number of offsets
+		 * @param spill <code>true</code> to write the run to a file regardless of the budget
+		 */
+		void add(final Map<Word, OffsetList> offsets, final long first, final long count, final boolean spill) {
+			final Object[] words = offsets.keySet().toArray();
+			final byte[][] keys = new byte[words.length][];
+			final OffsetList[] lists = new OffsetList[words.length];
+			final Integer[] order = new Integer[words.length];
+			for (int i = 0; i < words.length; i++) {
+				keys[i] = key((Word) words[i]);
+				lists[i] = offsets.get(words[i]);
+				order[i] = Integer.valueOf(i);
+			}
+			Arrays.sort(order, (a, b) -> WordIndex.compare(keys[a.intValue()], keys[b.intValue()]));
+			if (!spill) {
+				if (kept.addAndGet(count) <= keptOffsets) {
+					final byte[][] sortedKeys = new byte[words.length][];
+					final OffsetList[] sortedLists = new OffsetList[words.length];
+					for (int i = 0; i < words.length; i++) {
+						sortedKeys[i] = keys[order[i].intValue()];
+						sortedLists[i] = lists[order[i].intValue()];
+					}
+					runs.add(new MemoryRun(first, sortedKeys, sortedLists));
+					return;
+				}
+				kept.addAndGet(-count);
+			}
+			try {
+				final File file = File.createTempFile("postings-", ".run", directory);
+				// added before writing, so it is deleted in any case
+				runs.add(new FileRun(first, file));
+				try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64*1024))) {
+					for (Integer index : order) {
+						final byte[] key = keys[index.intValue()];
+						final OffsetList list = lists[index.intValue()];
+						out.writeShort(key.length);
+						out.write(key);
+						out.writeInt(list.size);
+						for (int i = 0; i < list.size; i++) {
+							out.writeLong(list.offsets[i]);
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Merges all runs, writing the postings of the words to the given file.
+		 * @param postings the file to write the postings to
+		 * @param maxSize the maximum size of the postings in bytes
+		 * @return the dictionary of the words, never <code>null</code>.
+		 * @throws IOException in case of error, or if the postings exceed the maximum size
+		 */
+		Dictionary merge(final File postings, final long maxSize) throws IOException {
+			final Dictionary result = new Dictionary();
+			// by word, and the runs of a word in file order
+			final PriorityQueue<Run> queue = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+				final int diff = WordIndex.compare(a.key, b.key);
+				return diff != 0 ? diff : Long.compare(a.first, b.first);
+			});
+			for (Run run : runs) {
+				if (run.next()) {
+					queue.add(run);
+				}
+			}
+			try (final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(postings), 64*1024)) {
+				long position = 0;
+				while (!queue.isEmpty()) {
+					final byte[] key = queue.peek().key;
+					final long start = position;
+					long count = 0;
+					long previous = 0;
+					while (!queue.isEmpty() && WordIndex.compare(queue.peek().key, key) == 0) {
+						final Run run = queue.poll();
+						for (int i = 0; i < run.count; i++) {
+							final long offset = run.nextOffset();
+							position += encode(out, offset - previous);
+							previous = offset;
+						}
+						count += run.count;
+						if (position > maxSize) {
+							throw new IOException("Index too large: the postings exceed "+maxSize+" bytes");
+						}
+						if (run.next()) {
+							queue.add(run);
+						}
+					}
+					if (count > Integer.MAX_VALUE) {
+						throw new IOException("Too many occurrences of a word: "+count);
+					}
+					result.add(key, (int) count, start);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Deletes the run files.
+		 */
+		@Override
+		public void close() {
+			for (Run run = runs.poll(); run != null; run = runs.poll()) {
+				run.close();
+			}
+		}
+
+		/**
+		 * Writes the given difference of offsets as variable length integer.
+		 * @param out the stream to write to
+		 * @param delta the difference, not negative
+		 * @return the number of bytes written
+		 * @throws IOException in case of error
+		 */
+		private static int encode(final OutputStream out, final long delta) throws IOException {
+			long value = delta;
+			int result = 1;
+			while ((value & ~0x7FL) != 0) {
+				out.write((int) (value & 0x7F) | 0x80);
+				value >>>= 7;
+				result++;
+			}
+			out.write((int) value);
+			return result;
+		}
+
+	}
+
+	/**
+	 * The offsets of a part, sorted by word, read word by word while merging.
+	 */
+	private abstract static class Run implements Closeable {
+
+		// the smallest offset, the runs of a word are merged in this order
+		protected final long first;
+		protected byte[] key;
+		protected int count;
+
+		Run(final long firstOffset) {
+			first = firstOffset;
+		}
+
+		/**
+		 * Moves to the next word of the run, after all offsets of the current word have been read.
+		 * @return <code>false</code> if there are no more words.
+		 * @throws IOException in case of error
+		 */
+		abstract boolean next() throws IOException;
+
+		/**
+		 * Returns the next offset of the current word.
+		 * @return the offset
+		 * @throws IOException in case of error
+		 */
+		abstract long nextOffset() throws IOException;
+
+		/**
+		 * Frees the run.
+		 */
+		@Override
+		public abstract void close();
+
+	}
+
+	/**
+	 * A run kept in memory.
+	 */
+	private static final class MemoryRun extends Run {
+
+		private final byte[][] keys;
+		private final OffsetList[] lists;
+		private int index;
+		private int offset;
+
+		MemoryRun(final long firstOffset, final byte[][] sortedKeys, final OffsetList[] sortedLists) {
+			super(firstOffset);
+			keys = sortedKeys;
+			lists = sortedLists;
+			index = -1;
+		}
+
+		@Override
+		boolean next() {
+			if (++index == keys.length) {
+				return false;
+			}
+			key = keys[index];
+			count = lists[index].size;
+			offset = 0;
+			return true;
+		}
+
+		@Override
+		long nextOffset() {
+			return lists[index].offsets[offset++];
+		}
+
+		@Override
+		public void close() {
+			// garbage collected
+		}
+
+	}
+
+	/**
+	 * A run spilled to a file: the length and bytes of each word, followed
+	 * by the number of its offsets and the offsets.
+	 */
+	private static final class FileRun extends Run {
+
+		private final File file;
+		private DataInputStream in;
+
+		FileRun(final long firstOffset, final File runFile) {
+			super(firstOffset);
+			file = runFile;
+		}
+
+		@Override
+		boolean next() throws IOException {
+			if (in == null) {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64*1024));
+			}
+			final int length = in.read();
+			if (length < 0) {
+				return false;
+			}
+			key = new byte[length << 8 | in.readUnsignedByte()];
+			in.readFully(key);
+			count = in.readInt();
+			return true;
+		}
+
+		@Override
+		long nextOffset() throws IOException {
+			return in.readLong();
+		}
+
+		@Override
+		public void close() {
+			try {
+				if (in != null) {
+					in.close();
+				}
+			} catch (IOException e) {
+				// only read
+			}
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+
+	}
+
+	/**
+	 * Collects the offsets of the words of a part, spilling them when the
+	 * share of the part of the memory budget is used up.
+	 */
+	private static final class Collector implements WordOccurrenceConsumer {
+
+		private final long start;
+		private final Runs runs;
+		private final Map<Word, OffsetList> offsets;
+		private long first;
+		private long size;
+
+		Collector(final long startOffset, final Runs allRuns) {
+			start = startOffset;
+			runs = allRuns;
+			offsets = new HashMap<>();
+		}
+
+		@Override
+		public void accept(final Word word, final long offset) {
+			if (size == 0L) {
+				first = start + offset;
+			}
+			offsets.computeIfAbsent(word, key -> new OffsetList()).add(start + offset);
+			if (++size == runs.partOffsets) {
+				runs.add(offsets, first, size, true);
+				offsets.clear();
+				size = 0L;
+			}
+		}
+
+		/**
+		 * Adds the offsets collected last as a run.
+		 */
+		void finish() {
+			if (size > 0L) {
+				runs.add(offsets, first, size, false);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,73 @@
+package de.engehausen.cc1.impl;
+
+import java.util.Objects;
+
+import de.engehausen.cc1.api.Word;
+
+/**
+ * A word found at a given offset, see {@link WordSpliterator#occurrences()}.
+ */
+public final class WordOccurrence {
+
+	private final Word word;
+	private final long offset;
+
+	/**
+	 * Creates the occurrence.
+	 * @param occurringWord the word, must not be <code>null</code>.
+	 * @param position the offset of the first byte of the word
+	 */
+	public WordOccurrence(final Word occurringWord, final long position) {
+		word = Objects.requireNonNull(occurringWord);
+		offset = position;
+	}
+
+	/**
+	 * Returns the word.
+	 * @return the word, never <code>null</code>.
+	 */
+	public Word getWord() {
+		return word;
+	}
+
+	/**
+	 * Returns the offset of the first byte of the word in the file, or
+	 * relative to the position of the buffer tokenized.
+	 * @return the offset in bytes
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		return 31 * word.hashCode() + Long.hashCode(offset);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj == this) {
+			return true;
+		} else if (obj instanceof WordOccurrence) {
+			final WordOccurrence other = (WordOccurrence) obj;
+			return offset == other.offset && word.equals(other.word);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the string representation of the occurrence, the word and its offset.
+	 * @return the string representation of the occurrence.
+	 */
+	@Override
+	public String toString() {
+		return word + "@" + offset;
+	}
+
+}
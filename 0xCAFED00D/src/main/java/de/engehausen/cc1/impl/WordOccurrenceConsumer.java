@@ -0,0 +1,21 @@
+package de.engehausen.cc1.impl;
+
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Receives the words found by a {@link WordSpliterator} together with their
+ * position, e.g. to build a search index. Unlike a stream of
+ * {@link WordOccurrence}s, this does not allocate anything per word.
+ */
+@FunctionalInterface
+public interface WordOccurrenceConsumer {
+
+	/**
+	 * Receives a word and its position.
+	 * @param word the word, never <code>null</code>.
+	 * @param offset the offset of the first byte of the word in the file; for
+	 * bytes in memory, relative to the position of the buffer tokenized.
+	 */
+	void accept(Word word, long offset);
+
+}
@@ -0,0 +1,237 @@
+package de.engehausen.cc1.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+
+/**
+ * Finds the boundaries of words in a byte buffer and case-folds them.
+ * <p>For the default alphabet, {@link TokenAlphabet#LETTERS}, the buffer
+ * is read eight bytes at a time using {@link ByteBuffer#getLong(int)}. The
+ * letters in such a block are determined using
+ * <a href="https://en.wikipedia.org/wiki/SWAR">SWAR</a> arithmetic, so that
+ * finding the start or the end of a word costs a few arithmetic operations
+ * per eight bytes. A word is case-folded eight bytes at a time, too, by
+ * clearing the lower case bit of all its bytes.</p>
+ * <p>For all other alphabets, the buffer is read byte by byte using the
+ * translation table of the alphabet.</p>
+ * <p>Word boundaries are reported as (offset, length) pairs, packed into a
+ * <code>long</code>, see {@link #next(ByteBuffer)}. This allows consumers to
+ * work on the bytes of a word directly, e.g. for counting or searching, and
+ * to intern words only if needed. An instance holds a scratch array
+ * for case-folding and must not be shared between threads.</p>
+ */
+public class WordScanner {
+
+	/**
+	 * Receives the boundaries of words.
+	 */
+	@FunctionalInterface
+	public interface BoundaryConsumer {
+
+		/**
+		 * Accepts the boundaries of a word.
+		 * @param buffer the buffer holding the word
+		 * @param offset the offset of the first byte of the word in the buffer
+		 * @param length the number of bytes of the word
+		 */
+		void accept(ByteBuffer buffer, int offset, int length);
+
+	}
+
+	// the high bit of each of eight bytes
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+	// the lower case bit of each of eight bytes
+	private static final long CASE_BITS = 0x2020202020202020L;
+	// adding these sets the high bit of each byte >= 'a' (0x61) and > 'z' (0x7a), respectively
+	private static final long GE_LOWER_A = 0x1f1f1f1f1f1f1f1fL;
+	private static final long GT_LOWER_Z = 0x0505050505050505L;
+	private static final byte[] LETTERS = TokenAlphabet.LETTERS.getTable();
+
+	/**
+	 * Unpacks the offset of a word from the value returned by {@link #next(ByteBuffer)}.
+	 * @param word the packed word boundaries
+	 * @return the offset of the word
+	 */
+	public static int offset(final long word) {
+		return (int) (word >>> 32);
+	}
+
+	/**
+	 * Unpacks the length of a word from the value returned by {@link #next(ByteBuffer)}.
+	 * @param word the packed word boundaries
+	 * @return the length of the word
+	 */
+	public static int length(final long word) {
+		return (int) word;
+	}
+
+	/**
+	 * Indicates whether SWAR scanning applies to the given translation table.
+	 * @param table the translation table of an alphabet
+	 * @return <code>true</code> if the table is the one of {@link TokenAlphabet#LETTERS}.
+	 */
+	public static boolean isSwarCapable(final byte[] table) {
+		return Arrays.equals(LETTERS, table);
+	}
+
+	/**
+	 * Returns a mask with the high bit set for each of the eight bytes that is a letter.
+	 * @param block eight bytes
+	 * @return the letter mask
+	 */
+	static long letters(final long block) {
+		// fold to lower case; bytes with the high bit set are never letters
+		final long lower = (block & LOW_BITS) | CASE_BITS;
+		return (lower + GE_LOWER_A) & ~(lower + GT_LOWER_Z) & ~block & HIGH_BITS;
+	}
+
+	private final byte[] table;
+	private final boolean swar;
+	private byte[] scratch;
+	private ByteBuffer scratchBuffer;
+
+	/**
+	 * Creates a scanner for the given alphabet.
+	 * @param table the translation table of the alphabet, see {@link TokenAlphabet#getTable()}
+	 */
+	public WordScanner(final byte[] table) {
+		this(table, isSwarCapable(table));
+	}
+
+	/**
+	 * Creates a scanner for the given alphabet.
+	 * @param table the translation table of the alphabet, see {@link TokenAlphabet#getTable()}
+	 * @param useSwar whether to scan eight bytes at a time; only possible
+	 * for the {@link TokenAlphabet#LETTERS} alphabet.
+	 */
+	WordScanner(final byte[] table, final boolean useSwar) {
+		this.table = table;
+		swar = useSwar && isSwarCapable(table);
+		scratch = new byte[64];
+		scratchBuffer = ByteBuffer.wrap(scratch);
+	}
+
+	/**
+	 * Finds the next word in the buffer, starting at its position.
+	 * The buffer position is moved past the word.
+	 * @param buffer the buffer to scan, must be in {@link ByteOrder#BIG_ENDIAN} order.
+	 * @return the packed offset and length of the word, see {@link #offset(long)}
+	 * and {@link #length(long)}, or <code>-1</code> if there are no more words in the buffer.
+	 */
+	public long next(final ByteBuffer buffer) {
+		final int limit = buffer.limit();
+		final long result = find(buffer, buffer.position(), limit);
+		buffer.position(result < 0 ? limit : offset(result) + length(result));
+		return result;
+	}
+
+	/**
+	 * Finds the next word in the given region of the buffer. The buffer position
+	 * is not used nor changed; this is meant for bulk traversals keeping the
+	 * position in a local variable.
+	 * @param buffer the buffer to scan, must be in {@link ByteOrder#BIG_ENDIAN} order.
+	 * @param position the position to start scanning at
+	 * @param limit the end of the region to scan (exclusive)
+	 * @return the packed offset and length of the word, see {@link #offset(long)}
+	 * and {@link #length(long)}, or <code>-1</code> if there are no more words in the region.
+	 */
+	public long find(final ByteBuffer buffer, final int position, final int limit) {
+		assert buffer.order() == ByteOrder.BIG_ENDIAN;
+		final int start = swar ? findLetter(buffer, position, limit) : findWordChar(buffer, position, limit);
+		if (start == limit) {
+			return -1L;
+		}
+		final int end = swar ? findNonLetter(buffer, start + 1, limit) : findSeparator(buffer, start + 1, limit);
+		return ((long) start << 32) | (end - start);
+	}
+
+	/**
+	 * Reports the boundaries of all remaining words in the buffer to the
+	 * given consumer. Afterwards, the buffer has no bytes remaining.
+	 * @param buffer the buffer to scan, must be in {@link ByteOrder#BIG_ENDIAN} order.
+	 * @param consumer the consumer of the word boundaries
+	 */
+	public void scan(final ByteBuffer buffer, final BoundaryConsumer consumer) {
+		final int limit = buffer.limit();
+		int position = buffer.position();
+		for (long word = find(buffer, position, limit); word >= 0; word = find(buffer, position, limit)) {
+			final int offset = offset(word);
+			final int length = length(word);
+			consumer.accept(buffer, offset, length);
+			position = offset + length;
+		}
+		buffer.position(limit);
+	}
+
+	/**
+	 * Case-folds the given word into the scratch array of this scanner.
+	 * @param buffer the buffer holding the word
+	 * @param offset the offset of the word in the buffer
+	 * @param length the length of the word
+	 * @return the scratch array, holding the case-folded word starting at index zero.
+	 * The array is overwritten by the next call.
+	 */
+	public byte[] fold(final ByteBuffer buffer, final int offset, final int length) {
+		if (length > scratch.length) {
+			scratch = new byte[2*length];
+			scratchBuffer = ByteBuffer.wrap(scratch);
+		}
+		int i = 0;
+		if (swar) {
+			// all bytes are letters, clearing the lower case bit makes them upper case
+			for (; i + 8 <= length; i += 8) {
+				scratchBuffer.putLong(i, buffer.getLong(offset + i) & ~CASE_BITS);
+			}
+		}
+		for (; i < length; i++) {
+			scratch[i] = table[buffer.get(offset + i) & 0xff];
+		}
+		return scratch;
+	}
+
+	private int findLetter(final ByteBuffer buffer, final int from, final int limit) {
+		int position = from;
+		while (limit - position >= 8) {
+			final long mask = letters(buffer.getLong(position));
+			if (mask != 0) {
+				// big endian, the first byte is the most significant one
+				return position + (Long.numberOfLeadingZeros(mask) >>> 3);
+			}
+			position += 8;
+		}
+		return findWordChar(buffer, position, limit);
+	}
+
+	private int findNonLetter(final ByteBuffer buffer, final int from, final int limit) {
+		int position = from;
+		while (limit - position >= 8) {
+			final long mask = ~letters(buffer.getLong(position)) & HIGH_BITS;
+			if (mask != 0) {
+				return position + (Long.numberOfLeadingZeros(mask) >>> 3);
+			}
+			position += 8;
+		}
+		return findSeparator(buffer, position, limit);
+	}
+
+	private int findWordChar(final ByteBuffer buffer, final int from, final int limit) {
+		int position = from;
+		while (position < limit && table[buffer.get(position) & 0xff] == 0) {
+			position++;
+		}
+		return position;
+	}
+
+	private int findSeparator(final ByteBuffer buffer, final int from, final int limit) {
+		int position = from;
+		while (position < limit && table[buffer.get(position) & 0xff] != 0) {
+			position++;
+		}
+		return position;
+	}
+
+}
@@ -0,0 +1,312 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Searches a file for the occurrences of a single word, without tokenizing it.
+ * <p>The mapped bytes are searched using the Boyer-Moore-Horspool algorithm,
+ * comparing the bytes case-folded by the translation table of the alphabet.
+ * Only where the bytes match the word, the bytes before and after it are checked
+ * for being separators, so that only whole words are found, just like the
+ * {@link WordSpliterator} would find them. No word is created or interned.</p>
+ * <p>The file is searched in parallel by fork/join tasks, each mapping a range
+ * of the file. Ranges need not start at a word: a range is mapped with the byte
+ * before it and the bytes of a word after it, and only the occurrences starting
+ * within the range count. When searching for any occurrence, the first one found
+ * cancels the search of all other ranges. Counting the occurrences keeps no offsets.</p>
+ * <p>The word must consist of characters the alphabet translates bytes to;
+ * for <code>UTF-8</code>, both the word and the alphabet must be US-ASCII,
+ * see {@link #isSupported(Word, TokenAlphabet, Charset)}.</p>
+ */
+public class WordSearch {
+
+	// the number of bytes searched between checks for cancellation
+	private static final int CANCEL_CHECK = 64*1024;
+	private static final long[] NONE = new long[0];
+
+	/**
+	 * Indicates whether the given word can be searched in files of the given
+	 * alphabet and encoding.
+	 * @param word the word, must not be <code>null</code>.
+	 * @param alphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the files, must not be <code>null</code>.
+	 * @return <code>true</code> if the word can be searched.
+	 */
+	public static boolean isSupported(final Word word, final TokenAlphabet alphabet, final Charset charset) {
+		final boolean utf8 = StandardCharsets.UTF_8.equals(WordSpliterator.checkEncoding(charset));
+		if (utf8 && !alphabet.isAscii()) {
+			return false;
+		}
+		final String string = word.toString();
+		final byte[] table = alphabet.getTable();
+		for (int i = 0; i < string.length(); i++) {
+			if (!isTranslation(table, utf8, string.charAt(i))) {
+				return false;
+			}
+		}
+		return !string.isEmpty();
+	}
+
+	private static boolean isTranslation(final byte[] table, final boolean utf8, final char c) {
+		for (int b = 0; b < (utf8 ? 0x80 : table.length); b++) {
+			if (table[b] != 0 && (table[b] & 0xff) == c) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private final File file;
+	private final byte[] table;
+	private final byte[] pattern;
+	private final int[] shifts;
+	private final int threshold;
+
+	/**
+	 * Creates the search for the given word in the given file.
+	 * @param searched the file to search, must not be <code>null</code>.
+	 * @param word the word to search for, must not be <code>null</code>.
+	 * @param alphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the file; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @throws IllegalArgumentException if the word cannot be searched, see {@link #isSupported(Word, TokenAlphabet, Charset)}
+	 */
+	public WordSearch(final File searched, final Word word, final TokenAlphabet alphabet, final Charset charset) {
+		this(searched, word, alphabet, charset, WordSpliterator.ADAPTIVE_THRESHOLD);
+	}
+
+	/**
+	 * Creates the search for the given word in the given file, searching ranges of the given size.
+	 * @param searched the file to search, must not be <code>null</code>.
+	 * @param word the word to search for, must not be <code>null</code>.
+	 * @param alphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the file, must not be <code>null</code>.
+	 * @param rangeSize the maximum size of the ranges searched by a single task,
+	 * or {@link WordSpliterator#ADAPTIVE_THRESHOLD}.
+	 */
+	WordSearch(final File searched, final Word word, final TokenAlphabet alphabet, final Charset charset, final int rangeSize) {
+		if (!isSupported(word, alphabet, charset)) {
+			throw new IllegalArgumentException("Unsupported word: "+word);
+		}
+		file = searched;
+		// for UTF-8, the alphabet is US-ASCII, so the bytes of multi-byte sequences separate words
+		table = alphabet.getTable();
+		final String string = word.toString();
+		pattern = new byte[string.length()];
+		for (int i = 0; i < pattern.length; i++) {
+			pattern[i] = (byte) string.charAt(i);
+		}
+		// the shift for each byte following the bytes compared: from the last
+		// position of its case-folded character in the word to the end of the word
+		shifts = new int[256];
+		Arrays.fill(shifts, pattern.length);
+		for (int b = 0; b < shifts.length; b++) {
+			for (int i = 0; i < pattern.length - 1; i++) {
+				if (table[b] == pattern[i] && table[b] != 0) {
+					shifts[b] = pattern.length - 1 - i;
+				}
+			}
+		}
+		threshold = rangeSize;
+	}
+
+	/**
+	 * Searches for any occurrence of the word.
+	 * @return the offset of an occurrence of the word in the file, not necessarily
+	 * the first one; <code>-1</code> if the word does not occur.
+	 * @throws IOException in case of error
+	 */
+	public long find() throws IOException {
+		final AtomicLong result = new AtomicLong(-1L);
+		search(result, null);
+		return result.get();
+	}
+
+	/**
+	 * Counts the occurrences of the word, without keeping their offsets.
+	 * @return the number of occurrences of the word in the file
+	 * @throws IOException in case of error
+	 */
+	public long count() throws IOException {
+		final LongAdder result = new LongAdder();
+		search(null, result);
+		return result.sum();
+	}
+
+	/**
+	 * Searches for all occurrences of the word.
+	 * @return the ascending offsets of the occurrences of the word in the file, never <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	public long[] findAll() throws IOException {
+		return search(null, null);
+	}
+
+	/**
+	 * Searches the file.
+	 * @param any receives the offset of any occurrence, cancelling the search; <code>null</code>
+	 * to find all occurrences
+	 * @param counter counts the occurrences instead of collecting their offsets, may be <code>null</code>.
+	 * @return the ascending offsets of all occurrences, if searching for all of them and not counting
+	 * @throws IOException in case of error
+	 */
+	private long[] search(final AtomicLong any, final LongAdder counter) throws IOException {
+		try (final FileWindows windows = new FileWindows(file, Integer.MAX_VALUE)) {
+			final long size = windows.size();
+			if (size < pattern.length) {
+				return NONE;
+			}
+			final int rangeSize = threshold > 0 ? threshold : WordSpliterator.adaptiveThreshold(size, ForkJoinPool.getCommonPoolParallelism());
+			final Range root = new Range(windows, any, counter, new AtomicBoolean(), rangeSize, 0L, size);
+			try {
+				return root.invoke();
+			} catch (IllegalStateException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Searches a range of the file, splitting it into subtasks if it is large.
+	 */
+	private final class Range extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient FileWindows windows;
+		private final AtomicLong any;
+		private final LongAdder counter;
+		private final AtomicBoolean cancelled;
+		private final int rangeSize;
+		private final long start;
+		private final long end;
+
+		Range(final FileWindows fileWindows, final AtomicLong found, final LongAdder count, final AtomicBoolean cancel, final int maxSize, final long from, final long to) {
+			windows = fileWindows;
+			any = found;
+			counter = count;
+			cancelled = cancel;
+			rangeSize = maxSize;
+			start = from;
+			end = to;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (cancelled.get()) {
+				return NONE;
+			}
+			if (end - start > rangeSize) {
+				final long middle = start + (end - start) / 2;
+				final Range second = new Range(windows, any, counter, cancelled, rangeSize,middle, end);
+				second.fork();
+				final long[] first = new Range(windows, any, counter, cancelled, rangeSize,start, middle).compute();
+				final long[] rest = second.join();
+				final long[] result = Arrays.copyOf(first, first.length + rest.length);
+				System.arraycopy(rest, 0, result, first.length, rest.length);
+				return result;
+			}
+			// the byte before the range and the bytes after the last possible start of the word
+			final long from = Math.max(0L, start - 1);
+			final long to = Math.min(windows.size(), end + pattern.length);
+			final FileWindows.Window window;
+			try {
+				window = windows.map(from, (int) (to - from));
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			try {
+				return scan(window.buffer(), from);
+			} finally {
+				windows.release(window);
+			}
+		}
+
+		/**
+		 * Searches the mapped bytes of the range.
+		 * @param bytes the bytes of the range, including the bytes around it
+		 * @param base the offset of the bytes in the file
+		 * @return the offsets of the occurrences found, none if counting
+		 */
+		private long[] scan(final ByteBuffer bytes, final long base) {
+			final int last = pattern.length - 1;
+			final byte lastByte = pattern[last];
+			final int limit = bytes.limit() - pattern.length;
+			// the occurrences must start within the range
+			final int candidates = (int) Math.min(limit, end - 1 - base);
+			long[] result = NONE;
+			int count = 0;
+			long counted = 0;
+			int check = CANCEL_CHECK;
+			int i = (int) (start - base);
+			while (i <= candidates) {
+				final byte b = bytes.get(i + last);
+				if (table[b & 0xff] == lastByte && matches(bytes, i, last) && isBoundary(bytes, base, i)) {
+					if (any != null) {
+						any.compareAndSet(-1L, base + i);
+						cancelled.set(true);
+						return NONE;
+					}
+					if (counter != null) {
+						counted++;
+					} else {
+						if (count == result.length) {
+							result = Arrays.copyOf(result, Math.max(16, 2 * count));
+						}
+						result[count++] = base + i;
+					}
+				}
+				i += shifts[b & 0xff];
+				if (i >= check) {
+					if (cancelled.get()) {
+						return NONE;
+					}
+					check = i + CANCEL_CHECK;
+				}
+			}
+			if (counter != null) {
+				counter.add(counted);
+			}
+			return Arrays.copyOf(result, count);
+		}
+
+		private boolean matches(final ByteBuffer bytes, final int position, final int last) {
+			for (int j = last - 1; j >= 0; j--) {
+				if (table[bytes.get(position + j) & 0xff] != pattern[j]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Checks whether the given match is a whole word, i.e. it is preceded
+		 * and followed by a separator or the start and end of the file.
+		 */
+		private boolean isBoundary(final ByteBuffer bytes, final long base, final int position) {
+			if (base + position > 0 && table[bytes.get(position - 1) & 0xff] != 0) {
+				return false;
+			}
+			final int after = position + pattern.length;
+			return after >= bytes.limit() || table[bytes.get(after) & 0xff] == 0;
+		}
+
+	}
+
+}
@@ -1,74 +1,440 @@
 package de.engehausen.cc1.impl;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Comparator;
 import java.util.Objects;
 import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.ObjLongConsumer;
 
+import de.engehausen.cc1.api.Instrumentation;
+import de.engehausen.cc1.api.TokenAlphabet;
 import de.engehausen.cc1.api.Word;
 
 /**
  * A word spliterator implementation supporting parallelism and large files.
  * It supports splitting and parallel iteration and maps the file into memory using
  * {@link MappedByteBuffer}.
+ * <p>The file is mapped in windows of at most {@link #DEFAULT_WINDOW_SIZE} bytes,
+ * so files of any size are supported. A window ends after the last separator
+ * within its size, so no word spans two windows. Windows are mapped lazily
+ * when iteration starts and released when they have been iterated, keeping
+ * the address space in use bounded. Splitting divides the file at window
+ * boundaries first, and only divides a single window when the range of a
+ * spliterator fits into one window. Split points are determined by reading a
+ * few bytes, without mapping them.</p>
+ * <p>Instead of being mapped, the windows can be read into pooled buffers
+ * using positional reads; see {@link WordSpliteratorProviderImpl.IoMode#POSITIONAL}.</p>
+ * <p>By default, the splitting threshold adapts to the size of the file and
+ * the parallelism of the common fork/join pool, see {@link #adaptiveThreshold(long, int)}.
+ * The number of words is estimated from a few samples of the file. The
+ * split tree can be inspected by attaching {@link SplitStatistics}. On a cold
+ * page cache, a {@link Prefetcher} can read the file ahead of the spliterators.
+ * The bytes and words of each leaf of the split tree, the time it took and the
+ * number of splits are counted if {@link Instrumentation} is enabled, once a
+ * spliterator has been traversed completely. With {@link WordCheckpoints} of
+ * the file attached, the spliterator splits the file at checkpoints only and
+ * knows the exact number of words of each part.</p>
+ * <p>The spliterator is {@link Closeable}: closing it unmaps all windows of
+ * the file still mapped, by this spliterator or any spliterator split from it,
+ * and closes the file, without waiting for garbage collection. This matters in long-running
+ * processes; see {@link #getMappedBytes()} for monitoring. None of these
+ * spliterators may be used while or after closing.</p>
+ * <p>Bytes that are already in memory, e.g. small files read into a buffer,
+ * are tokenized the same way using {@link #WordSpliterator(ByteBuffer, TokenAlphabet, Charset)}.</p>
+ * <p>Word characters are determined by a {@link TokenAlphabet}; the
+ * default is {@link TokenAlphabet#LETTERS}.</p>
+ * <p>The file contents are expected in <code>US-ASCII</code> (the default),
+ * <code>ISO-8859-1</code> or <code>UTF-8</code>. The single-byte encodings
+ * map each byte to the character of the same value; other single-byte encodings,
+ * such as <code>windows-1252</code>, do not and are not supported. In <code>UTF-8</code>,
+ * the bytes are checked eight at a time; as long as they are US-ASCII,
+ * they are processed just like in single-byte mode. Only when a non-ASCII byte is
+ * found, the code point is decoded and classified using {@link TokenAlphabet#translateCodePoint(int)}.
+ * The file is never split inside a multi-byte sequence.</p>
+ * <p>Words are found using a {@link WordScanner}, which scans eight bytes at a
+ * time for the default alphabet. Only alphabets with non-ASCII word characters
+ * used on <code>UTF-8</code> input need the decoding path described above.</p>
+ * <p>The positions of the words can be obtained along with the words, without
+ * a second pass: traversing with a {@link WordOccurrenceConsumer} passes the
+ * offset of each word in the file. Split off parts are word spliterators as
+ * well, so the occurrences can be gathered in parallel, or as a stream of
+ * {@link WordOccurrence}s using {@link #occurrences()}.</p>
  */
-public class WordSpliterator implements Spliterator<Word> {
+public class WordSpliterator implements Spliterator<Word>, Closeable {
 
-	private final ByteBuffer buffer;
+	// mask for the high bits of eight bytes, all zero if the bytes are US-ASCII
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	// the number and size of the samples taken to estimate the number of words
+	private static final int SAMPLES = 4;
+	private static final int SAMPLE_SIZE = 4096;
+	// English words seem to be 5 characters in length
+	// add a little overhead like punctuation and other characters
+	// see http://www.wolframalpha.com/input/?i=average+word+length+in+English
+	private static final double DEFAULT_WORDS_PER_BYTE = 1d/8;
+	// the number of leaves of the split tree per worker thread aimed at by the adaptive threshold
+	private static final int LEAVES_PER_WORKER = 4;
+	// the minimum adaptive threshold, smaller ranges are not worth splitting
+	private static final int MIN_ADAPTIVE_THRESHOLD = 64*1024;
+
+	/**
+	 * The splitting threshold that selects an adaptive threshold,
+	 * see {@link #adaptiveThreshold(long, int)}.
+	 */
+	public static final int ADAPTIVE_THRESHOLD = 0;
+
+	/**
+	 * The default maximum size of a window of the file mapped at a time, 256MB.
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 256*1024*1024;
+
+	/**
+	 * Returns the number of bytes of files currently mapped by word spliterators.
+	 * Windows are unmapped when iterated or when the spliterator is closed; if
+	 * the runtime does not support explicit unmapping, this happens on garbage
+	 * collection, and the unmapped bytes are not reflected by this counter.
+	 * @return the number of bytes currently mapped
+	 */
+	public static long getMappedBytes() {
+		return FileWindows.getMappedBytes();
+	}
+
+	/**
+	 * Returns a splitting threshold that results in a few leaves of the split
+	 * tree per worker thread: enough to balance the load if some parts of the
+	 * file take longer than others, but not so many that the overhead of
+	 * splitting dominates. The threshold is never less than 64K, so small files
+	 * are not split at all, and never more than the {@link #DEFAULT_WINDOW_SIZE window size}.
+	 * @param size the size of the file in bytes
+	 * @param parallelism the number of worker threads, e.g. {@link ForkJoinPool#getCommonPoolParallelism()}
+	 * @return the splitting threshold
+	 */
+	public static int adaptiveThreshold(final long size, final int parallelism) {
+		final long leaves = (long) Math.max(1, parallelism) * LEAVES_PER_WORKER;
+		return (int) Math.max(MIN_ADAPTIVE_THRESHOLD, Math.min(DEFAULT_WINDOW_SIZE, size / leaves));
+	}
+
+	private final FileWindows windows;
+	private final WordScanner scanner;
 	private final StringBuilder contents;
 	private final int splitThreshold;
+	private final TokenAlphabet tokenAlphabet;
+	private final byte[] alphabet;
+	private final boolean utf8;
+	private double wordsPerByte;
+	private SplitStatistics statistics;
+	// reads the file ahead, and the offset up to which it has been requested to
+	private Prefetcher prefetcher;
+	private long prefetched;
+	// the checkpoints of the file, and the exact number of words of this spliterator if known
+	private WordCheckpoints checkpoints;
+	private long exactWords;
+	// the statistics of the traversal of this spliterator
+	private boolean traversing;
+	private boolean traversed;
+	private long leafStart;
+	private long leafBytes;
+	private long leafWords;
+	// the range of the file not mapped yet
+	private long origin;
+	private long fence;
+	// the window being iterated, null if none, the buffer iterating it and its offset in the file
+	private FileWindows.Window window;
+	private ByteBuffer buffer;
+	private long base;
+	// the position of the first byte of the word being decoded in the buffer
+	private int wordStart;
+	// the UTF-8 encoded characters of a word passed as bytes, allocated on demand
+	private byte[] encoded;
 
 	/**
-	 * Creates the spliterator for the given file with an 8K splitting threshold.
+	 * Creates the spliterator for the given file with an adaptive splitting threshold.
 	 * @param file the file for which to create the spliterator, must not be <code>null</code>.
 	 * @throws IOException in case of error, e.g. file not found
 	 */
 	public WordSpliterator(final File file) throws IOException {
-		this(file, 8192);
+		this(file, ADAPTIVE_THRESHOLD);
 	}
 
 	/**
 	 * Creates the spliterator for the given file and splitting threshold.
 	 * @param file the file for which to create the spliterator, must not be <code>null</code>.
 	 * @param threshold the minimum size of remaining bytes in the file for which it is worthwile
-	 * to split the iterator (for parallel processing).
+	 * to split the iterator (for parallel processing), or {@link #ADAPTIVE_THRESHOLD}.
 	 * @throws IOException in case of error, e.g. file not found
 	 */
 	public WordSpliterator(final File file, final int threshold) throws IOException {
-		Objects.nonNull(file);
-		if (!file.exists()) {
-			throw new IOException("Not found: "+file.getCanonicalPath());
-		}
-		splitThreshold = threshold;
-		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-		final FileChannel channel = randomAccessFile.getChannel();
-		// fast, but comes with quite a drawback: http://bugs.java.com/view_bug.do?bug_id=4724038
-		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
-		// from Channel JavaDoc: "A mapping, once established, is not dependent
-		// upon the file channel that was used to create it. Closing the channel,
-		// in particular, has no effect upon the validity of the mapping."
-		channel.close();
-		randomAccessFile.close();
-		contents = new StringBuilder(64);
-	}
-
-	/**
-	 * Copy constructor for splitting. This reuses the memory-mapped file and
-	 * keeps track of the position in the buffer in regards to this instance
+		this(file, threshold, TokenAlphabet.LETTERS);
+	}
+
+	/**
+	 * Creates the spliterator for the given file, splitting threshold and alphabet.
+	 * @param file the file for which to create the spliterator, must not be <code>null</code>.
+	 * @param threshold the minimum size of remaining bytes in the file for which it is worthwile
+	 * to split the iterator (for parallel processing), or {@link #ADAPTIVE_THRESHOLD}.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. file not found
+	 */
+	public WordSpliterator(final File file, final int threshold, final TokenAlphabet tokenAlphabet) throws IOException {
+		this(file, threshold, tokenAlphabet, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Creates the spliterator for the given file, splitting threshold, alphabet and encoding.
+	 * @param file the file for which to create the spliterator, must not be <code>null</code>.
+	 * @param threshold the minimum size of remaining bytes in the file for which it is worthwile
+	 * to split the iterator (for parallel processing), or {@link #ADAPTIVE_THRESHOLD}.
+	 * @param alphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the file; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. file not found
+	 * @throws IllegalArgumentException if the encoding is not supported
+	 */
+	public WordSpliterator(final File file, final int threshold, final TokenAlphabet alphabet, final Charset charset) throws IOException {
+		this(file, threshold, alphabet, charset, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Creates the spliterator for the given file, splitting threshold, alphabet, encoding
+	 * and window size.
+	 * @param file the file for which to create the spliterator, must not be <code>null</code>.
+	 * @param threshold the minimum size of remaining bytes in the file for which it is worthwile
+	 * to split the iterator (for parallel processing), or {@link #ADAPTIVE_THRESHOLD}.
+	 * @param alphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the file; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @param windowSize the maximum number of bytes of the file mapped at a time
+	 * @throws IOException in case of error, e.g. file not found
+	 * @throws IllegalArgumentException if the encoding or the window size is not supported
+	 */
+	public WordSpliterator(final File file, final int threshold, final TokenAlphabet alphabet, final Charset charset, final int windowSize) throws IOException {
+		this(new FileWindows(file, windowSize), threshold, alphabet, charset);
+	}
+
+	/**
+	 * Creates the spliterator for the given file, splitting threshold, alphabet and encoding,
+	 * reading the file using positional reads into buffers of the given pool instead of
+	 * mapping it. The file is read in blocks of the size of the buffers.
+	 * @param file the file for which to create the spliterator, must not be <code>null</code>.
+	 * @param threshold the minimum size of remaining bytes in the file for which it is worthwile
+	 * to split the iterator (for parallel processing), or {@link #ADAPTIVE_THRESHOLD}.
+	 * @param alphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the file; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @param pool the pool of the buffers to read the file into, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. file not found
+	 * @throws IllegalArgumentException if the encoding is not supported
+	 */
+	WordSpliterator(final File file, final int threshold, final TokenAlphabet alphabet, final Charset charset, final BufferPool pool) throws IOException {
+		this(new FileWindows(file, pool), threshold, alphabet, charset);
+	}
+
+	private WordSpliterator(final FileWindows fileWindows, final int threshold, final TokenAlphabet alphabet, final Charset charset) {
+		utf8 = isUtf8(charset);
+		tokenAlphabet = alphabet;
+		this.alphabet = alphabet.getTable();
+		scanner = createScanner();
+		windows = fileWindows;
+		origin = 0L;
+		fence = windows.size();
+		splitThreshold = threshold > 0 ? threshold : adaptiveThreshold(fence, ForkJoinPool.getCommonPoolParallelism());
+		wordsPerByte = Double.NaN;
+		contents = scanner == null ? new StringBuilder(64) : null;
+	}
+
+	/**
+	 * Creates the spliterator for the given bytes, alphabet and encoding, e.g. for
+	 * a file read into a buffer. The bytes remain owned by the caller, who must not
+	 * modify or reuse them until the spliterator and all spliterators split from it
+	 * have been traversed.
+	 * @param bytes the bytes from the position to the limit of the buffer are
+	 * tokenized, must not be <code>null</code>.
+	 * @param alphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the bytes; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @throws IllegalArgumentException if the encoding is not supported
+	 */
+	public WordSpliterator(final ByteBuffer bytes, final TokenAlphabet alphabet, final Charset charset) {
+		utf8 = isUtf8(charset);
+		tokenAlphabet = alphabet;
+		this.alphabet = alphabet.getTable();
+		scanner = createScanner();
+		windows = null;
+		// a slice is big endian, as required by the scanner
+		buffer = bytes.slice();
+		splitThreshold = adaptiveThreshold(buffer.limit(), ForkJoinPool.getCommonPoolParallelism());
+		wordsPerByte = Double.NaN;
+		contents = scanner == null ? new StringBuilder(64) : null;
+	}
+
+	/**
+	 * Copy constructor for splitting off a range of the file that is not mapped yet.
+	 * @param parent the spliterator that is split, providing the configuration
+	 * @param start the offset of the first byte of the range in the file
+	 * @param end the offset of the end of the range in the file (exclusive)
+	 */
+	protected WordSpliterator(final WordSpliterator parent, final long start, final long end) {
+		this(parent, null, null, end, start, end);
+	}
+
+	/**
+	 * Copy constructor for splitting a window. This reuses the memory-mapped window
+	 * and keeps track of the position in the buffer in regards to this instance
 	 * of the splitted iterator.
-	 * @param threshold the splitting threshold
+	 * The window must have been {@link FileWindows#retain(FileWindows.Window) retained}
+	 * for this instance.
+	 * @param parent the spliterator that is split, providing the configuration
 	 * @param subBuffer the sub-buffer for the contents of this spliterator
+	 * @param offset the offset of the start of the sub-buffer in the file
 	 */
-	protected WordSpliterator(final int threshold, final ByteBuffer subBuffer) {
+	protected WordSpliterator(final WordSpliterator parent, final ByteBuffer subBuffer, final long offset) {
+		this(parent, parent.window, subBuffer, offset, offset + subBuffer.limit(), offset + subBuffer.limit());
+	}
+
+	private WordSpliterator(final WordSpliterator parent, final FileWindows.Window sharedWindow, final ByteBuffer subBuffer, final long offset, final long start, final long end) {
+		windows = parent.windows;
+		window = sharedWindow;
 		buffer = subBuffer;
-		splitThreshold = threshold;
-		contents = new StringBuilder(64);
+		base = offset;
+		origin = start;
+		fence = end;
+		splitThreshold = parent.splitThreshold;
+		tokenAlphabet = parent.tokenAlphabet;
+		alphabet = parent.alphabet;
+		utf8 = parent.utf8;
+		wordsPerByte = parent.wordsPerByte;
+		statistics = parent.statistics;
+		prefetcher = parent.prefetcher;
+		checkpoints = parent.checkpoints;
+		scanner = createScanner();
+		contents = scanner == null ? new StringBuilder(64) : null;
+	}
+
+	/**
+	 * Checks whether the given encoding is supported.
+	 * @param charset the encoding, must not be <code>null</code>.
+	 * @return <code>true</code> for <code>UTF-8</code>, <code>false</code> for
+	 * <code>ISO-8859-1</code> and <code>US-ASCII</code>
+	 * @throws IllegalArgumentException if the encoding is not supported
+	 */
+	static boolean isUtf8(final Charset charset) {
+		Objects.requireNonNull(charset);
+		final boolean result = StandardCharsets.UTF_8.equals(charset);
+		// bytes are taken as the characters of the same value, as in ISO-8859-1
+		if (!result && !StandardCharsets.ISO_8859_1.equals(charset) && !StandardCharsets.US_ASCII.equals(charset)) {
+			throw new IllegalArgumentException("Unsupported encoding: "+charset);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks whether the given encoding is supported by the word spliterator.
+	 * @param charset the encoding, must not be <code>null</code>.
+	 * @return the encoding
+	 * @throws IllegalArgumentException if the encoding is not supported
+	 */
+	static Charset checkEncoding(final Charset charset) {
+		isUtf8(charset);
+		return charset;
+	}
+
+	/**
+	 * Estimates the number of words per byte from a few samples of the file.
+	 * @return the estimated number of words per byte
+	 */
+	private double sampleWordsPerByte() {
+		final long size = windows == null ? buffer.limit() : windows.size();
+		final int count = size > SAMPLES * SAMPLE_SIZE ? SAMPLES : 1;
+		final ByteBuffer probe = windows == null ? null : ByteBuffer.allocate(SAMPLE_SIZE);
+		long bytes = 0;
+		long words = 0;
+		try {
+			for (int i = 0; i < count; i++) {
+				// samples spread evenly over the file, the first at its start, the last at its end
+				final long position = count == 1 ? 0 : (size - SAMPLE_SIZE) * i / (count - 1);
+				final ByteBuffer sample;
+				if (probe == null) {
+					sample = buffer.duplicate();
+					sample.limit((int) Math.min(size, position + SAMPLE_SIZE));
+					sample.position((int) position);
+				} else {
+					sample = probe;
+					sample.clear();
+					windows.read(sample, position);
+					sample.flip();
+				}
+				boolean word = false;
+				while (sample.hasRemaining()) {
+					final boolean separator = isSeparator(sample.get());
+					if (!separator && !word) {
+						words++;
+					}
+					word = !separator;
+				}
+				bytes += sample.limit();
+			}
+		} catch (IOException e) {
+			return DEFAULT_WORDS_PER_BYTE;
+		}
+		return bytes == 0 ? DEFAULT_WORDS_PER_BYTE : words / (double) bytes;
+	}
+
+	/**
+	 * Attaches statistics of the split tree to this spliterator. This must
+	 * be done before splitting and traversal, i.e. on the root spliterator; all
+	 * spliterators split from it record to the same statistics.
+	 * @param splitStatistics the statistics, may be <code>null</code>.
+	 */
+	public void setStatistics(final SplitStatistics splitStatistics) {
+		statistics = splitStatistics;
+	}
+
+	/**
+	 * Attaches a prefetcher reading the file ahead of this spliterator. This must
+	 * be done before splitting and traversal, i.e. on the root spliterator; all
+	 * spliterators split from it use the same prefetcher. Only mapped files are
+	 * read ahead.
+	 * @param filePrefetcher the prefetcher, may be <code>null</code>.
+	 */
+	public void setPrefetcher(final Prefetcher filePrefetcher) {
+		prefetcher = filePrefetcher;
+	}
+
+	/**
+	 * Attaches the checkpoints of the file to this spliterator. This must be
+	 * done before splitting and traversal, i.e. on the root spliterator. The
+	 * spliterator then splits the file at checkpoints only, and windows end at
+	 * checkpoints, so the exact number of words of each spliterator is known:
+	 * the spliterator and all spliterators split from it are
+	 * {@link Spliterator#SIZED SIZED} and {@link Spliterator#SUBSIZED SUBSIZED}.
+	 * @param fileCheckpoints the checkpoints of the file, must not be <code>null</code>.
+	 * @throws IllegalArgumentException if the checkpoints do not match the file,
+	 * the alphabet or the encoding, or if the spliterator does not start at the start of the file
+	 */
+	public void setCheckpoints(final WordCheckpoints fileCheckpoints) {
+		if (windows == null || traversing || origin != 0L || fence != windows.size()
+			|| fileCheckpoints.getFileSize() != fence || !fileCheckpoints.matches(alphabet, utf8)) {
+			throw new IllegalArgumentException("Checkpoints do not match the spliterator");
+		}
+		checkpoints = fileCheckpoints;
+		exactWords = fileCheckpoints.getWordCount();
+	}
+
+	/**
+	 * Creates the word scanner for this spliterator.
+	 * @return the scanner, or <code>null</code> if the input must be decoded
+	 * because it is <code>UTF-8</code> and the alphabet has non-ASCII word characters.
+	 */
+	private WordScanner createScanner() {
+		return utf8 && !tokenAlphabet.isAscii() ? null : new WordScanner(alphabet);
 	}
 
 	/**
@@ -76,49 +442,543 @@ public class WordSpliterator implements Spliterator<Word> {
 	 */
 	@Override
 	public boolean tryAdvance(final Consumer<? super Word> wordConsumer) {
+		return tryAdvanceOccurrence((word, offset) -> wordConsumer.accept(word));
+	}
+
+	/**
+	 * If a remaining word exists, passes it and its offset to the given consumer.
+	 * @param occurrenceConsumer the consumer of the word and its offset, must not be <code>null</code>.
+	 * @return <code>false</code> if no remaining words existed, <code>true</code> otherwise.
+	 */
+	public boolean tryAdvanceOccurrence(final WordOccurrenceConsumer occurrenceConsumer) {
 		// applies the next word of the stream to the consumer
-		while (buffer.hasRemaining()) {
-			final char i = Word.getWordChar(buffer.get());
-			if (i > 0) {
-				contents.append(i);
-			} else if (contents.length() > 0) {
-				wordConsumer.accept(Word.from(contents.toString()));
+		while (nextWindow()) {
+			if (scanner != null) {
+				final long word = scanner.next(buffer);
+				if (word >= 0) {
+					final int offset = WordScanner.offset(word);
+					final int length = WordScanner.length(word);
+					if (prefetcher != null && base + offset >= prefetched - prefetcher.getDistance() / 2) {
+						prefetch(offset);
+					}
+					occurrenceConsumer.accept(Word.from(scanner.fold(buffer, offset, length), 0, length), base + offset);
+					leafWords++;
+					return true;
+				}
+			} else if (scanUtf8()) {
+				occurrenceConsumer.accept(Word.from(contents.toString()), base + wordStart);
 				contents.setLength(0);
-				break;
+				leafWords++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Makes sure a window with remaining bytes is mapped, if there are
+	 * any bytes left. A window that has been iterated is released, and
+	 * the next one is mapped. The next window ends after the last separator
+	 * within the window size, so that no word spans two windows; only
+	 * if there is no separator at all, a (very long) word is cut.
+	 * @return <code>true</code> if there is a window with remaining bytes,
+	 * <code>false</code> if all bytes have been iterated.
+	 */
+	private boolean nextWindow() {
+		if (windows != null && windows.isClosed()) {
+			throw new IllegalStateException("closed");
+		}
+		if (!traversing) {
+			traversing = true;
+			leafStart = System.nanoTime();
+			leafBytes = remaining();
+		}
+		if (buffer != null) {
+			if (buffer.hasRemaining()) {
+				return true;
 			}
+			releaseWindow();
 		}
-		final boolean result = buffer.hasRemaining();
-		if (result == false) {
-			// all bytes read, but there's something in the internal
-			// buffer, the last word...
-			if (contents.length() > 0) {
-				wordConsumer.accept(Word.from(contents.toString()));
+		if (origin >= fence) {
+			if (!traversed) {
+				traversed = true;
+				if (statistics != null) {
+					statistics.leaf(leafBytes, leafWords, System.nanoTime() - leafStart);
+				}
+				if (Instrumentation.ENABLED) {
+					Instrumentation.add(Instrumentation.Counter.LEAVES, 1);
+					Instrumentation.add(Instrumentation.Counter.BYTES_SCANNED, leafBytes);
+					Instrumentation.add(Instrumentation.Counter.WORDS_EMITTED, leafWords);
+					Instrumentation.add(Instrumentation.Counter.LEAF_NANOS, System.nanoTime() - leafStart);
+				}
 			}
+			return false;
+		}
+		final int length = (int) Math.min(fence - origin, windows.windowSize());
+		try {
+			window = windows.map(origin, length);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		final ByteBuffer bytes = window.buffer();
+		if (bytes.limit() < length) {
+			// the file has been truncated, this is the last window
+			fence = origin + bytes.limit();
+		} else if (origin + length < fence) {
+			final long checkpoint = checkpoints == null ? -1L : checkpoints.last(origin, origin + length);
+			if (checkpoint > 0) {
+				// the window ends at a checkpoint, so the number of words of its parts is known
+				bytes.limit((int) (checkpoint - origin));
+			} else {
+				FileWindows.endAtLastSplit(bytes, this::isSplit);
+			}
+		}
+		buffer = bytes;
+		base = origin;
+		origin += bytes.limit();
+		return true;
+	}
+
+	/**
+	 * Requests the bytes up to the prefetch distance ahead of the given position
+	 * in the buffer to be read ahead, once less than half of that distance
+	 * has been requested. Only the bytes of this spliterator are requested.
+	 * @param position the position in the buffer
+	 * @return the position in the buffer at which to request bytes again,
+	 * {@link Integer#MAX_VALUE} if there is nothing left to request
+	 */
+	private int prefetch(final int position) {
+		if (prefetcher == null || windows == null || !windows.isMapped()) {
+			return Integer.MAX_VALUE;
+		}
+		final int half = prefetcher.getDistance() / 2;
+		final long cursor = base + position;
+		if (prefetched - cursor <= half) {
+			final long from = Math.max(prefetched, cursor);
+			final long to = Math.min(fence, cursor + prefetcher.getDistance());
+			if (from < to) {
+				prefetcher.request(windows, from, (int) (to - from));
+				prefetched = to;
+			}
+		}
+		if (prefetched >= fence) {
+			return Integer.MAX_VALUE;
+		}
+		return (int) Math.min(Integer.MAX_VALUE, prefetched - half - base);
+	}
+
+	/**
+	 * Releases the window being iterated, if any.
+	 */
+	private void releaseWindow() {
+		buffer = null;
+		if (windows != null) {
+			windows.release(window);
+		}
+		window = null;
+	}
+
+	/**
+	 * Performs the given action for each remaining word. Parallel streams
+	 * call this on every leaf of the split tree, so this is the dominant loop:
+	 * it scans the remaining bytes in one go, keeping position and limit in
+	 * local variables, and case-folds each word into the scratch array of
+	 * the scanner to intern it from there.
+	 * @param wordConsumer the action to perform for each word
+	 */
+	@Override
+	public void forEachRemaining(final Consumer<? super Word> wordConsumer) {
+		if (scanner == null) {
+			forEachDecoded((chars, offset) -> wordConsumer.accept(Word.from(chars.toString())));
+			return;
+		}
+		// kept apart from the variant with offsets, as this is the hot loop of the challenge
+		final WordScanner wordScanner = scanner;
+		while (nextWindow()) {
+			final ByteBuffer bytes = buffer;
+			final int limit = bytes.limit();
+			int position = bytes.position();
+			int count = 0;
+			int prefetchAt = prefetch(position);
+			for (long word = wordScanner.find(bytes, position, limit); word >= 0; word = wordScanner.find(bytes, position, limit)) {
+				final int offset = WordScanner.offset(word);
+				final int length = WordScanner.length(word);
+				if (offset >= prefetchAt) {
+					prefetchAt = prefetch(offset);
+				}
+				wordConsumer.accept(Word.from(wordScanner.fold(bytes, offset, length), 0, length));
+				position = offset + length;
+				count++;
+			}
+			bytes.position(limit);
+			leafWords += count;
+		}
+	}
+
+	/**
+	 * Passes each remaining word and its offset to the given consumer,
+	 * see {@link #forEachRemaining(Consumer)}.
+	 * @param occurrenceConsumer the consumer of the words and their offsets, must not be <code>null</code>.
+	 */
+	public void forEachOccurrence(final WordOccurrenceConsumer occurrenceConsumer) {
+		if (scanner == null) {
+			forEachDecoded((chars, offset) -> occurrenceConsumer.accept(Word.from(chars.toString()), offset));
+		} else {
+			forEachFolded((chars, length, offset) -> occurrenceConsumer.accept(Word.from(chars, 0, length), offset));
+		}
+	}
+
+	/**
+	 * Passes the hash of each remaining word to the given consumer, see
+	 * {@link HyperLogLog#hash(byte[], int, int)}. The words are hashed
+	 * directly from their case-folded bytes, without interning them, e.g. to
+	 * estimate the number of distinct words in bounded memory. Decoded words
+	 * are hashed from their characters, see {@link HyperLogLog#hash(CharSequence)}.
+	 * @param hashConsumer the consumer of the hashes, must not be <code>null</code>.
+	 */
+	public void forEachHash(final LongConsumer hashConsumer) {
+		if (scanner == null) {
+			forEachDecoded((chars, offset) -> hashConsumer.accept(HyperLogLog.hash(chars)));
+		} else {
+			forEachFolded((chars, length, offset) -> hashConsumer.accept(HyperLogLog.hash(chars, 0, length)));
 		}
+	}
+
+	/**
+	 * Passes the case-folded characters of each remaining word to the given
+	 * consumer, <code>UTF-8</code> encoded, without interning the words, e.g.
+	 * to count words in bounded memory. Words of US-ASCII characters are
+	 * passed as they are scanned; others are encoded first.
+	 * @param bytesConsumer the consumer of the characters, must not be <code>null</code>.
+	 */
+	public void forEachBytes(final WordBytesConsumer bytesConsumer) {
+		if (scanner == null) {
+			forEachDecoded((chars, offset) -> {
+				final int count = encode(chars);
+				bytesConsumer.accept(encoded, 0, count);
+			});
+		} else if (utf8 || tokenAlphabet.isAscii()) {
+			forEachFolded((chars, length, offset) -> bytesConsumer.accept(chars, 0, length));
+		} else {
+			forEachFolded((chars, length, offset) -> {
+				if (isAscii(chars, length)) {
+					bytesConsumer.accept(chars, 0, length);
+				} else {
+					final int count = encode(chars, length);
+					bytesConsumer.accept(encoded, 0, count);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Receives the case-folded characters of a word, one byte per character,
+	 * and the offset of the word in the file.
+	 */
+	@FunctionalInterface
+	private interface FoldedConsumer {
+
+		/**
+		 * Receives a word.
+		 * @param chars the characters, starting at index zero, valid during the call only
+		 * @param length the length of the word
+		 * @param offset the offset of the word in the file
+		 */
+		void accept(byte[] chars, int length, long offset);
+
+	}
+
+	/**
+	 * Passes the case-folded characters of each remaining word and its offset
+	 * to the given consumer, see {@link #forEachRemaining(Consumer)}; the
+	 * variants of the bulk traversal are built on this loop. The input must be scanned,
+	 * not decoded.
+	 * @param foldedConsumer the consumer of the characters, must not be <code>null</code>.
+	 */
+	private void forEachFolded(final FoldedConsumer foldedConsumer) {
+		final WordScanner wordScanner = scanner;
+		while (nextWindow()) {
+			final ByteBuffer bytes = buffer;
+			final long start = base;
+			final int limit = bytes.limit();
+			int position = bytes.position();
+			int count = 0;
+			int prefetchAt = prefetch(position);
+			for (long word = wordScanner.find(bytes, position, limit); word >= 0; word = wordScanner.find(bytes, position, limit)) {
+				final int offset = WordScanner.offset(word);
+				final int length = WordScanner.length(word);
+				if (offset >= prefetchAt) {
+					prefetchAt = prefetch(offset);
+				}
+				foldedConsumer.accept(wordScanner.fold(bytes, offset, length), length, start + offset);
+				position = offset + length;
+				count++;
+			}
+			bytes.position(limit);
+			leafWords += count;
+		}
+	}
+
+	/**
+	 * Indicates whether the given characters are US-ASCII characters.
+	 * @param chars the characters, one byte per character, starting at index zero
+	 * @param length the number of characters
+	 * @return <code>true</code> if no byte has the high bit set.
+	 */
+	private static boolean isAscii(final byte[] chars, final int length) {
+		for (int i = 0; i < length; i++) {
+			if (chars[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes the given ISO-8859-1 characters as <code>UTF-8</code> into the
+	 * scratch array of this spliterator.
+	 * @param chars the characters, one byte per character, starting at index zero
+	 * @param length the number of characters
+	 * @return the number of bytes encoded
+	 */
+	private int encode(final byte[] chars, final int length) {
+		final byte[] result = encoded(2 * length);
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			final byte b = chars[i];
+			if (b < 0) {
+				result[count++] = (byte) (0xc0 | ((b & 0xff) >>> 6));
+				result[count++] = (byte) (0x80 | (b & 0x3f));
+			} else {
+				result[count++] = b;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Encodes the given characters as <code>UTF-8</code> into the scratch
+	 * array of this spliterator.
+	 * @param chars the characters, must not be <code>null</code>.
+	 * @return the number of bytes encoded
+	 */
+	private int encode(final CharSequence chars) {
+		// at most three bytes per character, a surrogate pair takes four bytes for two characters
+		final byte[] result = encoded(3 * chars.length());
+		int count = 0;
+		for (int i = 0; i < chars.length(); ) {
+			final int c = Character.codePointAt(chars, i);
+			i += Character.charCount(c);
+			if (c < 0x80) {
+				result[count++] = (byte) c;
+			} else if (c < 0x800) {
+				result[count++] = (byte) (0xc0 | (c >>> 6));
+				result[count++] = (byte) (0x80 | (c & 0x3f));
+			} else if (c < 0x10000) {
+				result[count++] = (byte) (0xe0 | (c >>> 12));
+				result[count++] = (byte) (0x80 | ((c >>> 6) & 0x3f));
+				result[count++] = (byte) (0x80 | (c & 0x3f));
+			} else {
+				result[count++] = (byte) (0xf0 | (c >>> 18));
+				result[count++] = (byte) (0x80 | ((c >>> 12) & 0x3f));
+				result[count++] = (byte) (0x80 | ((c >>> 6) & 0x3f));
+				result[count++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the scratch array for encoded characters, growing it if needed.
+	 * @param capacity the number of bytes needed
+	 * @return the array, never <code>null</code>.
+	 */
+	private byte[] encoded(final int capacity) {
+		if (encoded == null || encoded.length < capacity) {
+			encoded = new byte[Math.max(64, Math.max(capacity, encoded == null ? 0 : 2 * encoded.length))];
+		}
+		return encoded;
+	}
+
+	/**
+	 * Passes the characters of each remaining word of decoded input and its
+	 * offset to the given consumer, without interning the words.
+	 * @param decodedConsumer the consumer of the characters, valid during the call
+	 * only, and the offset of the word, must not be <code>null</code>.
+	 */
+	private void forEachDecoded(final ObjLongConsumer<CharSequence> decodedConsumer) {
+		while (nextWindow()) {
+			if (scanUtf8()) {
+				decodedConsumer.accept(contents, base + wordStart);
+				contents.setLength(0);
+				leafWords++;
+			}
+		}
+	}
+
+	/**
+	 * Returns a spliterator of the occurrences of the remaining words, for
+	 * gathering them with a parallel stream. This spliterator must not be used
+	 * afterwards, except for closing it.
+	 * @return a spliterator of the remaining words and their offsets, never <code>null</code>.
+	 */
+	public Spliterator<WordOccurrence> occurrences() {
+		return new Occurrences(this);
+	}
+
+	/**
+	 * Reads the next word of a UTF-8 encoded buffer into the internal buffer.
+	 * @return <code>true</code> if a word was read, <code>false</code> if
+	 * the end of the buffer has been reached.
+	 */
+	private boolean scanUtf8() {
+		while (buffer.hasRemaining()) {
+			final int position = buffer.position();
+			if (buffer.limit() - position >= 8 && (buffer.getLong(position) & HIGH_BITS) == 0) {
+				// fast path: eight US-ASCII bytes, handled just like in single-byte mode
+				for (int n = 0; n < 8; n++) {
+					final byte i = alphabet[buffer.get()];
+					if (i != 0) {
+						if (contents.length() == 0) {
+							wordStart = buffer.position() - 1;
+						}
+						contents.append((char) i);
+					} else if (contents.length() > 0) {
+						return true;
+					}
+				}
+			} else {
+				final int start = buffer.position();
+				final byte b = buffer.get();
+				final int c = b >= 0 ? alphabet[b] & 0xff : tokenAlphabet.translateCodePoint(decode(b));
+				if (c != 0) {
+					if (contents.length() == 0) {
+						wordStart = start;
+					}
+					contents.appendCodePoint(c);
+				} else if (contents.length() > 0) {
+					return true;
+				}
+			}
+		}
+		return contents.length() > 0;
+	}
+
+	/**
+	 * Decodes a multi-byte UTF-8 sequence.
+	 * @param lead the lead byte of the sequence, already read from the buffer
+	 * @return the code point, or zero if the sequence is malformed. In this
+	 * case only the lead byte is consumed.
+	 */
+	private int decode(final byte lead) {
+		final int b = lead & 0xff;
+		final int length;
+		int result;
+		if (b >= 0xf0 && b <= 0xf4) {
+			length = 3;
+			result = b & 0x07;
+		} else if (b >= 0xe0 && b < 0xf0) {
+			length = 2;
+			result = b & 0x0f;
+		} else if (b >= 0xc2 && b < 0xe0) {
+			length = 1;
+			result = b & 0x1f;
+		} else {
+			// continuation byte or invalid lead byte
+			return 0;
+		}
+		final int position = buffer.position();
+		if (buffer.limit() - position < length) {
+			return 0;
+		}
+		for (int i = 0; i < length; i++) {
+			final int next = buffer.get(position + i);
+			if ((next & 0xc0) != 0x80) {
+				return 0;
+			}
+			result = (result << 6) | (next & 0x3f);
+		}
+		buffer.position(position + length);
 		return result;
 	}
 
 	/**
 	 * Tries to split the iterator. This is successful if the remaining
-	 * bytes are more than the configured threshold. In this case the
-	 * buffer is split in half, this instance continuing at the current
+	 * bytes are more than the configured threshold. The range of the file
+	 * that is not mapped yet is split first: at the window boundary closest
+	 * to its middle if it spans more than one window, in half otherwise.
+	 * If there is no such range worth splitting, the window being iterated
+	 * is split in half. In either case this instance continues at the current
 	 * position, the returned spliterator working on the other half.
+	 * <p>The returned spliterator is a word spliterator as well, e.g. for
+	 * traversing it with a {@link WordOccurrenceConsumer}.</p>
 	 * @return <code>null</code> if splitting is not possible, a word
-	 * spliterator for the second half of the buffer otherwise.
+	 * spliterator for the second half of the remaining bytes otherwise.
 	 */
 	@Override
-	public Spliterator<Word> trySplit() {
-		final int remaining = buffer.limit() - buffer.position();
+	public WordSpliterator trySplit() {
+		final WordSpliterator result = split();
+		if (result != null) {
+			if (statistics != null) {
+				statistics.split();
+			}
+			if (Instrumentation.ENABLED) {
+				Instrumentation.add(Instrumentation.Counter.SPLITS, 1);
+			}
+			if (traversing) {
+				// the bytes of the split off part are not traversed by this instance
+				leafBytes -= result.remaining();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Splits the spliterator, see {@link #trySplit()}.
+	 * @return <code>null</code> if splitting is not possible, a word
+	 * spliterator for the second half of the remaining bytes otherwise.
+	 */
+	private WordSpliterator split() {
+		if (fence - origin > splitThreshold) {
+			final long split = checkpoints == null ? findWordStart(splitPoint()) : checkpoints.nearest(splitPoint(), origin, fence);
+			final long words = checkpoints == null ? 0L : wordsBetween(split, fence);
+			if (split > origin && split < fence && words >= 0) {
+				// this range ends where the next begins
+				final WordSpliterator result = new WordSpliterator(this, split, fence);
+				result.exactWords = words;
+				exactWords -= words;
+				fence = split;
+				return result;
+			}
+		}
+		final int remaining = buffer == null ? 0 : buffer.limit() - buffer.position();
 		if (remaining > splitThreshold) {
 			final int move = remaining / 2;
 			final ByteBuffer half = buffer.slice();
-			half.position(move);
-			// move to the beginning of a new word in the 2nd half buffer
-			while (half.hasRemaining() && Word.getWordChar(half.get()) > 0);
+			final long words;
+			if (checkpoints == null) {
+				words = 0L;
+				half.position(move);
+				// move to the beginning of a new word in the 2nd half buffer
+				while (half.hasRemaining() && !isSeparator(half.get()));
+			} else {
+				// at the checkpoint closest to the middle, the buffer ends at a checkpoint as well
+				final long start = base + buffer.position();
+				final long split = checkpoints.nearest(start + move, start, start + remaining);
+				words = wordsBetween(split, start + remaining);
+				half.position(words < 0 ? remaining : (int) (split - start));
+			}
 			if (half.hasRemaining()) {
 				// this buffer ends where the next begins
+				final long offset = base + buffer.position();
 				buffer.limit(buffer.position() + half.position());
-				return new WordSpliterator(splitThreshold, half);
+				if (window != null) {
+					windows.retain(window);
+				}
+				final WordSpliterator result = new WordSpliterator(this, half, offset);
+				result.exactWords = words;
+				exactWords -= words;
+				return result;
 			}
 		}
 		// no splitting possible
@@ -126,15 +986,125 @@ public class WordSpliterator implements Spliterator<Word> {
 	}
 
 	/**
-	 * Estimates the number of words in the spliterator.
+	 * Returns the number of words between the given checkpoints.
+	 * @param from the first checkpoint
+	 * @param to the second checkpoint
+	 * @return the number of words, <code>-1</code> if either offset is not a checkpoint.
+	 */
+	private long wordsBetween(final long from, final long to) {
+		final long before = checkpoints.wordsBefore(from);
+		final long after = checkpoints.wordsBefore(to);
+		return before < 0 || after < 0 ? -1L : after - before;
+	}
+
+	/**
+	 * Returns the offset in the file at which to split the range not mapped yet.
+	 * @return the window boundary closest to the middle of the range if the range
+	 * spans more than one window, the middle of the range otherwise.
+	 */
+	private long splitPoint() {
+		final long middle = origin + (fence - origin) / 2;
+		final long size = windows.windowSize();
+		if (fence - origin > size) {
+			final long boundary = ((middle + size / 2) / size) * size;
+			if (boundary > origin && boundary < fence) {
+				return boundary;
+			}
+		}
+		return middle;
+	}
+
+	/**
+	 * Finds the start of a word after the given offset, by reading the
+	 * bytes following the offset up to the first separator.
+	 * @param offset the offset in the file
+	 * @return the offset following the first separator at or after the given offset,
+	 * or the end of the range of this spliterator if there is no separator.
+	 */
+	private long findWordStart(final long offset) {
+		try {
+			return windows.findSplit(offset + 1, fence, this::isSplit);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Indicates whether the bytes can be divided between the given bytes,
+	 * which is the case after a separator.
+	 * @param before the byte before the split point
+	 * @param after the byte after the split point
+	 * @return <code>true</code> if the byte before separates words.
+	 */
+	private boolean isSplit(final byte before, final byte after) {
+		return isSeparator(before);
+	}
+
+	/**
+	 * Indicates whether a split can occur after the given byte.
+	 * In UTF-8 mode only US-ASCII separators qualify; all bytes of
+	 * multi-byte sequences have the high bit set.
+	 * @param b the byte
+	 * @return <code>true</code> if the byte separates words.
+	 */
+	private boolean isSeparator(final byte b) {
+		return isSeparator(alphabet, utf8, b);
+	}
+
+	/**
+	 * Indicates whether a split can occur after the given byte, see {@link #isSeparator(byte)}.
+	 * @param table the translation table of the alphabet
+	 * @param utf8 whether the bytes are <code>UTF-8</code> encoded
+	 * @param b the byte
+	 * @return <code>true</code> if the byte separates words.
+	 */
+	static boolean isSeparator(final byte[] table, final boolean utf8, final byte b) {
+		if (utf8) {
+			return b >= 0 && table[b] == 0;
+		}
+		return table[b & 0xff] == 0;
+	}
+
+	/**
+	 * Estimates the number of words in the spliterator, based on
+	 * the ratio of words per byte sampled from the file. With checkpoints
+	 * attached, this is the exact number of remaining words.
 	 * @return an estimate of the words in the spliterator.
 	 */
 	@Override
 	public long estimateSize() {
-		// English words seem to be 5 characters in length
-		// add a little overhead like punctuation and other characters
-		// see http://www.wolframalpha.com/input/?i=average+word+length+in+English
-		return (buffer.limit() - buffer.position()) / 8;
+		if (checkpoints != null) {
+			return exactWords - leafWords;
+		}
+		if (Double.isNaN(wordsPerByte)) {
+			// sampled on demand, not all users need an estimate
+			wordsPerByte = sampleWordsPerByte();
+		}
+		return (long) Math.ceil(remaining() * wordsPerByte);
+	}
+
+	/**
+	 * Returns the number of bytes not iterated yet.
+	 * @return the number of remaining bytes
+	 */
+	private long remaining() {
+		final long mapped = buffer == null ? 0L : buffer.limit() - buffer.position();
+		return mapped + fence - origin;
+	}
+
+	/**
+	 * Closes the file, unmapping all windows still mapped by this spliterator
+	 * and all spliterators split from it (or from which it was split).
+	 * Afterwards, iterating any of them fails with an {@link IllegalStateException}.
+	 */
+	@Override
+	public void close() {
+		buffer = null;
+		window = null;
+		origin = fence;
+		if (windows != null) {
+			windows.close();
+		}
 	}
 
 	/**
@@ -142,8 +1112,9 @@ public class WordSpliterator implements Spliterator<Word> {
 	 * These are:
 	 * <ul>
 	 * <li>Returning immutable words,</li>
-	 * <li>never returning <code>null</code> values, and</li>
-	 * <li>"safe" for concurrent modification<sup>*</sup></li>
+	 * <li>never returning <code>null</code> values,</li>
+	 * <li>"safe" for concurrent modification<sup>*</sup>, and</li>
+	 * <li>sized and subsized if checkpoints are attached, see {@link #setCheckpoints(WordCheckpoints)}</li>
 	 * </ul>
 	 * <p>* No guarantees are made about changes made to the
 	 * underlying file while iteration is in progress. It is
@@ -153,7 +1124,7 @@ public class WordSpliterator implements Spliterator<Word> {
 	 */
 	@Override
 	public int characteristics() {
-		return NONNULL|IMMUTABLE|CONCURRENT;
+		return checkpoints == null ? NONNULL|IMMUTABLE|CONCURRENT : NONNULL|IMMUTABLE|CONCURRENT|SIZED|SUBSIZED;
 	}
 
 	/**
@@ -164,8 +1135,47 @@ public class WordSpliterator implements Spliterator<Word> {
 		return Word.COMPARATOR;
 	}
 
+	/**
+	 * Adapts a word spliterator to a spliterator of word occurrences.
+	 */
+	private static class Occurrences implements Spliterator<WordOccurrence> {
+
+		private final WordSpliterator words;
+
+		Occurrences(final WordSpliterator wordSpliterator) {
+			words = wordSpliterator;
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super WordOccurrence> action) {
+			return words.tryAdvanceOccurrence((word, offset) -> action.accept(new WordOccurrence(word, offset)));
+		}
+
+		@Override
+		public void forEachRemaining(final Consumer<? super WordOccurrence> action) {
+			words.forEachOccurrence((word, offset) -> action.accept(new WordOccurrence(word, offset)));
+		}
+
+		@Override
+		public Spliterator<WordOccurrence> trySplit() {
+			final WordSpliterator split = words.trySplit();
+			return split == null ? null : new Occurrences(split);
+		}
+
+		@Override
+		public long estimateSize() {
+			return words.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			// occurrences are distinct by their offsets
+			return NONNULL|IMMUTABLE|CONCURRENT|DISTINCT;
+		}
+
+	}
+
 	// Please note: This implementation uses default methods for
-	// - forEachRemaining(Consumer<? super Word>)
 	// - getExactSizeIfKnown()
 	// - hasCharacteristics(int)
 
@@ -2,28 +2,201 @@ package de.engehausen.cc1.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
 
+import de.engehausen.cc1.api.TokenAlphabet;
 import de.engehausen.cc1.api.Word;
 import de.engehausen.cc1.challenge.WordSpliteratorProvider;
 
 /**
  * Word spliterator provider implementation.
+ * <p>Files are mapped into memory by default. Where mapping performs
+ * badly, e.g. on network file systems or in containers under memory
+ * pressure, positional reads into pooled buffers can be used instead,
+ * see {@link IoMode}.</p>
  * @see WordSpliterator
  */
 public class WordSpliteratorProviderImpl implements WordSpliteratorProvider {
 
+	/**
+	 * The way files are read.
+	 */
+	public enum IoMode {
+		/**
+		 * Files are mapped into memory in windows, see {@link WordSpliterator}.
+		 */
+		MAPPED,
+		/**
+		 * Files are read in blocks using positional reads (<code>FileChannel.read(ByteBuffer, long)</code>)
+		 * into direct buffers, which are pooled and reused. A word crossing the end of a block
+		 * is read again as part of the next block. Splitting works the same as for mapped files.
+		 */
+		POSITIONAL
+	}
+
+	/**
+	 * The default block size for positional reads, 1MB.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1024*1024;
+
+	private final TokenAlphabet alphabet;
+	private final Charset encoding;
+	private final int blocks;
+	private final BufferPool pool;
+
+	/**
+	 * Creates the provider for <code>US-ASCII</code> files and words of the
+	 * default alphabet, {@link TokenAlphabet#LETTERS}.
+	 */
+	public WordSpliteratorProviderImpl() {
+		this(TokenAlphabet.LETTERS);
+	}
+
+	/**
+	 * Creates the provider for <code>US-ASCII</code> files and words of the given alphabet.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 */
+	public WordSpliteratorProviderImpl(final TokenAlphabet tokenAlphabet) {
+		this(tokenAlphabet, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Creates the provider for files in the given encoding and words of the given alphabet.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the files, <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>; must not be <code>null</code>.
+	 */
+	public WordSpliteratorProviderImpl(final TokenAlphabet tokenAlphabet, final Charset charset) {
+		this(tokenAlphabet, charset, IoMode.MAPPED, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates the provider for files in the given encoding and words of the given alphabet,
+	 * read using the given I/O mode.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the files, <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>; must not be <code>null</code>.
+	 * @param ioMode the way files are read, must not be <code>null</code>.
+	 * @param blockSize the size of the blocks read at a time for {@link IoMode#POSITIONAL}
+	 * and from channels and streams
+	 */
+	public WordSpliteratorProviderImpl(final TokenAlphabet tokenAlphabet, final Charset charset, final IoMode ioMode, final int blockSize) {
+		alphabet = tokenAlphabet;
+		encoding = charset;
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Invalid block size: "+blockSize);
+		}
+		blocks = blockSize;
+		// enough idle buffers to serve all worker threads without allocating once warmed up
+		pool = ioMode == IoMode.POSITIONAL ? new BufferPool(blockSize, 2*ForkJoinPool.getCommonPoolParallelism()) : null;
+	}
+
 	/**
 	 * {@inheritDoc}
+	 * If the file has an up-to-date sidecar of {@link WordCheckpoints}, these are
+	 * attached to the spliterator, which then knows the exact number of its words.
 	 * @throws IllegalStateException in case of error
 	 */
 	@Override
 	public Spliterator<Word> getWordSpliterator(final File file) {
 		try {
-			// creates the spliterator with a 1MB threshold for splitting
-			return new WordSpliterator(file, 1024*1024);
+			// creates the spliterator with a threshold for splitting adapted to the file size and parallelism
+			final WordSpliterator result = pool != null
+				? new WordSpliterator(file, WordSpliterator.ADAPTIVE_THRESHOLD, alphabet, encoding, pool)
+				: new WordSpliterator(file, WordSpliterator.ADAPTIVE_THRESHOLD, alphabet, encoding);
+			try {
+				final WordCheckpoints checkpoints = WordCheckpoints.load(file, alphabet, encoding);
+				if (checkpoints != null) {
+					result.setCheckpoints(checkpoints);
+				}
+			} catch (IOException | RuntimeException e) {
+				result.close();
+				throw e;
+			}
+			return result;
 		} catch (IOException e) {
 			throw new IllegalStateException(e);
 		}
 	}
+
+	/**
+	 * {@inheritDoc}
+	 * The files are split into groups of about the same size, see {@link DirectorySpliterator}.
+	 * @throws IllegalStateException in case of error
+	 */
+	@Override
+	public Spliterator<Word> getWordSpliterator(final Path directory, final PathMatcher filter) {
+		try {
+			return new DirectorySpliterator(directory, filter, alphabet, encoding);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The file is searched without tokenizing it, see {@link WordSearch}, if the word
+	 * can be searched in files of the alphabet and encoding of this provider.
+	 * @throws IllegalStateException in case of error
+	 */
+	@Override
+	public boolean find(final File file, final Word target) {
+		if (!WordSearch.isSupported(target, alphabet, encoding)) {
+			return WordSpliteratorProvider.super.find(file, target);
+		}
+		try {
+			return new WordSearch(file, target, alphabet, encoding).find() >= 0;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The file is searched without tokenizing it, see {@link WordSearch}, if the word
+	 * can be searched in files of the alphabet and encoding of this provider.
+	 * @throws IllegalStateException in case of error
+	 */
+	@Override
+	public long findAll(final File file, final Word target) {
+		if (!WordSearch.isSupported(target, alphabet, encoding)) {
+			return WordSpliteratorProvider.super.findAll(file, target);
+		}
+		try {
+			return new WordSearch(file, target, alphabet, encoding).count();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns a spliterator of words for the given channel, which is read
+	 * sequentially, see {@link ChannelWordSpliterator}.
+	 * @param channel the channel to read, must not be <code>null</code>.
+	 * @return a spliterator of words for the channel, never <code>null</code>.
+	 * Closing the spliterator closes the channel.
+	 */
+	public Spliterator<Word> getWordSpliterator(final ReadableByteChannel channel) {
+		return new ChannelWordSpliterator(channel, alphabet, encoding, blocks);
+	}
+
+	/**
+	 * Returns a spliterator of words for the given stream, which is read
+	 * sequentially, see {@link ChannelWordSpliterator}.
+	 * @param stream the stream to read, must not be <code>null</code>.
+	 * @return a spliterator of words for the stream, never <code>null</code>.
+	 * Closing the spliterator closes the stream.
+	 */
+	public Spliterator<Word> getWordSpliterator(final InputStream stream) {
+		return getWordSpliterator(Channels.newChannel(stream));
+	}
+
 }
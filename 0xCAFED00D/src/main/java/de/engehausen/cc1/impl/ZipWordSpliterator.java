@@ -0,0 +1,464 @@
+package de.engehausen.cc1.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * A word spliterator for the entries of a ZIP archive (or JAR file), which
+ * are read in place without extracting them first.
+ * <p>The central directory at the end of the archive is mapped once when the
+ * spliterator is created and lists the entries, in archive order. Each entry
+ * is independent: splitting divides the entries into two groups of about the same
+ * number of uncompressed bytes. Deflated entries are inflated by the thread
+ * traversing them, i.e. concurrently by the workers of a parallel stream, into an
+ * array each spliterator reuses for all of its entries. Stored entries are not
+ * copied at all, they are tokenized right from the mapped archive; once a
+ * spliterator is down to a single stored entry, splitting continues within the entry.</p>
+ * <p>Only deflated and stored entries are supported, and neither encryption
+ * nor the ZIP64 extensions for archives of more than 65535 entries or 4GB.</p>
+ */
+public class ZipWordSpliterator implements Spliterator<Word>, Closeable {
+
+	// the default ratio of words per byte, see WordSpliterator
+	private static final int BYTES_PER_WORD = 8;
+	// the size of the compressed input handed to the inflater at a time
+	private static final int INPUT_SIZE = 64*1024;
+
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int END_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final int ENTRY_SIGNATURE = 0x02014b50;
+	private static final int ENTRY_SIZE = 46;
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+	private static final int LOCAL_SIZE = 30;
+	private static final int FLAG_ENCRYPTED = 1;
+	private static final int FLAG_UTF8 = 1 << 11;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	/**
+	 * An entry of the archive, as listed in the central directory.
+	 */
+	private static final class Entry {
+
+		private final String name;
+		// the position of the local header
+		private final long position;
+		private final int compressedSize;
+		private final boolean stored;
+
+		Entry(final String entryName, final long headerPosition, final int compressed, final boolean isStored) {
+			name = entryName;
+			position = headerPosition;
+			compressedSize = compressed;
+			stored = isStored;
+		}
+
+	}
+
+	private final FileWindows windows;
+	private final Entry[] entries;
+	// offsets[i] is the total uncompressed size of the entries before entry i, with an additional final entry
+	private final long[] offsets;
+	private final TokenAlphabet alphabet;
+	private final Charset charset;
+	// the range of entries not opened yet
+	private int index;
+	private int end;
+	// the spliterator of the entry being traversed, its window and whether it may be or has been split
+	private Spliterator<Word> current;
+	private FileWindows.Window window;
+	private boolean splittable;
+	private boolean split;
+	// reused for all deflated entries traversed by this spliterator
+	private Inflater inflater;
+	private byte[] input;
+	private byte[] inflated;
+
+	/**
+	 * Creates the spliterator for all entries of the given <code>US-ASCII</code> archive.
+	 * @param archive the ZIP archive, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. file not found or not a supported ZIP archive
+	 */
+	public ZipWordSpliterator(final File archive) throws IOException {
+		this(archive, null, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Creates the spliterator for the entries of the given archive.
+	 * @param archive the ZIP archive, must not be <code>null</code>.
+	 * @param filter the filter selecting the entries to read, matching the entry names;
+	 * <code>null</code> selects all entries. Directories and empty entries are always skipped.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param encoding the encoding of the entries; <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>, must not be <code>null</code>.
+	 * @throws IOException in case of error, e.g. file not found or not a supported ZIP archive
+	 */
+	public ZipWordSpliterator(final File archive, final Predicate<String> filter, final TokenAlphabet tokenAlphabet, final Charset encoding) throws IOException {
+		charset = WordSpliterator.checkEncoding(encoding);
+		alphabet = tokenAlphabet;
+		windows = new FileWindows(archive, Integer.MAX_VALUE);
+		final List<Entry> list = new ArrayList<>();
+		final List<Long> sizes = new ArrayList<>();
+		try {
+			final FileWindows.Window directory = mapDirectory();
+			try {
+				final ByteBuffer buffer = directory.buffer().order(ByteOrder.LITTLE_ENDIAN);
+				while (buffer.remaining() >= ENTRY_SIZE) {
+					final Entry entry = readEntry(buffer, filter, sizes);
+					if (entry != null) {
+						list.add(entry);
+					}
+				}
+			} finally {
+				windows.release(directory);
+			}
+		} catch (IOException | RuntimeException e) {
+			windows.close();
+			throw e;
+		}
+		entries = list.toArray(new Entry[list.size()]);
+		offsets = new long[entries.length + 1];
+		for (int i = 0; i < entries.length; i++) {
+			offsets[i + 1] = offsets[i] + sizes.get(i).longValue();
+		}
+		index = 0;
+		end = entries.length;
+	}
+
+	/**
+	 * Copy constructor for splitting off a group of entries.
+	 * @param parent the spliterator that is split, providing the entries and configuration
+	 * @param from the index of the first entry of the group
+	 * @param to the index after the last entry of the group
+	 */
+	protected ZipWordSpliterator(final ZipWordSpliterator parent, final int from, final int to) {
+		windows = parent.windows;
+		entries = parent.entries;
+		offsets = parent.offsets;
+		alphabet = parent.alphabet;
+		charset = parent.charset;
+		index = from;
+		end = to;
+	}
+
+	/**
+	 * Finds the end of central directory record and maps the central directory.
+	 * @return the window of the central directory, never <code>null</code>.
+	 * @throws IOException in case of error, or if the file is not a supported archive
+	 */
+	private FileWindows.Window mapDirectory() throws IOException {
+		// the record is at the end of the file, followed by a comment of up to 64K
+		final int tail = (int) Math.min(windows.size(), END_SIZE + MAX_COMMENT_SIZE);
+		final ByteBuffer buffer = ByteBuffer.allocate(tail).order(ByteOrder.LITTLE_ENDIAN);
+		windows.read(buffer, windows.size() - tail);
+		int record = tail - END_SIZE;
+		while (record >= 0 && buffer.getInt(record) != END_SIGNATURE) {
+			record--;
+		}
+		if (record < 0) {
+			throw new ZipException("Not a ZIP archive");
+		}
+		final int count = buffer.getShort(record + 10) & 0xFFFF;
+		final long size = buffer.getInt(record + 12) & 0xFFFFFFFFL;
+		final long offset = buffer.getInt(record + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+			throw new ZipException("ZIP64 archives are not supported");
+		}
+		if (offset + size > windows.size() || size > Integer.MAX_VALUE) {
+			throw new ZipException("Invalid central directory");
+		}
+		return windows.map(offset, (int) size);
+	}
+
+	/**
+	 * Reads the central directory entry at the position of the given buffer.
+	 * @param buffer the central directory
+	 * @param filter the filter selecting the entries, may be <code>null</code>.
+	 * @param sizes the uncompressed sizes of the entries, the size of the entry is added to
+	 * @return the entry, <code>null</code> if the entry is skipped.
+	 * @throws IOException in case of error, or if the entry is not supported
+	 */
+	private Entry readEntry(final ByteBuffer buffer, final Predicate<String> filter, final List<Long> sizes) throws IOException {
+		final int start = buffer.position();
+		if (buffer.getInt(start) != ENTRY_SIGNATURE) {
+			throw new ZipException("Invalid central directory");
+		}
+		final int flags = buffer.getShort(start + 8) & 0xFFFF;
+		final int method = buffer.getShort(start + 10) & 0xFFFF;
+		final long compressedSize = buffer.getInt(start + 20) & 0xFFFFFFFFL;
+		final long size = buffer.getInt(start + 24) & 0xFFFFFFFFL;
+		final int nameLength = buffer.getShort(start + 28) & 0xFFFF;
+		final int extraLength = buffer.getShort(start + 30) & 0xFFFF;
+		final int commentLength = buffer.getShort(start + 32) & 0xFFFF;
+		final long position = buffer.getInt(start + 42) & 0xFFFFFFFFL;
+		final byte[] name = new byte[nameLength];
+		buffer.position(start + ENTRY_SIZE);
+		buffer.get(name);
+		buffer.position(start + ENTRY_SIZE + nameLength + extraLength + commentLength);
+		final String entryName = new String(name, (flags & FLAG_UTF8) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+		if (size == 0 || entryName.endsWith("/") || (filter != null && !filter.test(entryName))) {
+			return null;
+		}
+		if ((flags & FLAG_ENCRYPTED) != 0) {
+			throw new ZipException("Encrypted entries are not supported: "+entryName);
+		}
+		if (method != STORED && method != DEFLATED) {
+			throw new ZipException("Unsupported compression method "+method+": "+entryName);
+		}
+		if (compressedSize > Integer.MAX_VALUE || size > Integer.MAX_VALUE - 8) {
+			throw new ZipException("Entry too large: "+entryName);
+		}
+		sizes.add(Long.valueOf(size));
+		return new Entry(entryName, position, (int) compressedSize, method == STORED);
+	}
+
+	/**
+	 * Returns the names of the entries not traversed yet, including the entry being traversed.
+	 * @return the entry names, in archive order, never <code>null</code>.
+	 */
+	public List<String> getEntryNames() {
+		final List<String> result = new ArrayList<>(end - index + 1);
+		for (int i = current == null ? index : index - 1; i < end; i++) {
+			result.add(entries[i].name);
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean tryAdvance(final Consumer<? super Word> wordConsumer) {
+		do {
+			if (current != null) {
+				if (current.tryAdvance(wordConsumer)) {
+					return true;
+				}
+				finishEntry();
+			}
+		} while (nextEntry());
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forEachRemaining(final Consumer<? super Word> wordConsumer) {
+		do {
+			if (current != null) {
+				current.forEachRemaining(wordConsumer);
+				finishEntry();
+			}
+		} while (nextEntry());
+	}
+
+	/**
+	 * Opens the next entry, if any. After the last entry, the inflater and
+	 * its buffers are released.
+	 * @return <code>true</code> if an entry has been opened, <code>false</code>
+	 * if there are no more entries.
+	 */
+	private boolean nextEntry() {
+		if (index >= end) {
+			if (inflater != null) {
+				inflater.end();
+				inflater = null;
+				input = null;
+				inflated = null;
+			}
+			return false;
+		}
+		current = open(index++);
+		return true;
+	}
+
+	/**
+	 * Opens the given entry: maps its data, and inflates it if it is deflated.
+	 * @param i the index of the entry
+	 * @return the spliterator of the words of the entry
+	 */
+	private Spliterator<Word> open(final int i) {
+		final Entry entry = entries[i];
+		final int size = (int) (offsets[i + 1] - offsets[i]);
+		try {
+			final ByteBuffer header = ByteBuffer.allocate(LOCAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			windows.read(header, entry.position);
+			if (header.hasRemaining() || header.getInt(0) != LOCAL_SIGNATURE) {
+				throw new ZipException("Invalid local header: "+entry.name);
+			}
+			// the lengths of name and extra field may differ from those of the central directory
+			final long position = entry.position + LOCAL_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+			window = windows.map(position, entry.compressedSize);
+			split = false;
+			if (entry.stored) {
+				splittable = true;
+				return new WordSpliterator(window.buffer(), alphabet, charset);
+			}
+			splittable = false;
+			try {
+				inflate(window.buffer(), size, entry.name);
+			} finally {
+				windows.release(window);
+				window = null;
+			}
+			return new WordSpliterator(ByteBuffer.wrap(inflated, 0, size), alphabet, charset);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Inflates a deflated entry into the reused array.
+	 * @param source the compressed data
+	 * @param size the uncompressed size
+	 * @param name the name of the entry
+	 * @throws IOException in case of error, if the data is corrupt
+	 */
+	private void inflate(final ByteBuffer source, final int size, final String name) throws IOException {
+		if (inflater == null) {
+			inflater = new Inflater(true);
+			input = new byte[INPUT_SIZE];
+		} else {
+			inflater.reset();
+		}
+		if (inflated == null || inflated.length < size) {
+			inflated = new byte[size];
+		}
+		int count = 0;
+		try {
+			while (count < size) {
+				if (inflater.needsInput()) {
+					final int length = Math.min(input.length, source.remaining());
+					if (length == 0) {
+						break;
+					}
+					source.get(input, 0, length);
+					inflater.setInput(input, 0, length);
+				}
+				final int inflatedCount = inflater.inflate(inflated, count, size - count);
+				if (inflatedCount == 0 && (inflater.finished() || inflater.needsDictionary())) {
+					break;
+				}
+				count += inflatedCount;
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid compressed data: "+name+" ("+e.getMessage()+")");
+		}
+		if (count < size) {
+			throw new ZipException("Truncated entry: "+name);
+		}
+	}
+
+	/**
+	 * Finishes the entry that has been traversed, unmapping its data unless
+	 * parts of it have been split off; these are unmapped on {@link #close()}.
+	 */
+	private void finishEntry() {
+		current = null;
+		if (!split) {
+			windows.release(window);
+		}
+		window = null;
+	}
+
+	/**
+	 * Tries to split the iterator. If there are at least two entries left, they
+	 * are split into two groups of about the same uncompressed size. If there is
+	 * only one stored entry left, the entry is split.
+	 * @return <code>null</code> if splitting is not possible, a word
+	 * spliterator for the other half otherwise.
+	 */
+	@Override
+	public Spliterator<Word> trySplit() {
+		if (end - index >= 2) {
+			final long middle = (offsets[index] + offsets[end]) / 2;
+			int at = Arrays.binarySearch(offsets, index + 1, end, middle);
+			if (at < 0) {
+				// the first entry starting after the middle...
+				at = -at - 1;
+				if (at > index + 1 && middle - offsets[at - 1] < offsets[at] - middle) {
+					// ...or the last one starting before it, whichever is closer
+					at--;
+				}
+			}
+			at = Math.max(index + 1, Math.min(end - 1, at));
+			final ZipWordSpliterator result = new ZipWordSpliterator(this, at, end);
+			end = at;
+			return result;
+		}
+		if (current == null && index < end && entries[index].stored) {
+			nextEntry();
+		}
+		if (current != null && splittable) {
+			final Spliterator<Word> result = current.trySplit();
+			split |= result != null;
+			return result;
+		}
+		return null;
+	}
+
+	/**
+	 * Estimates the number of words in the spliterator.
+	 * @return an estimate of the words in the spliterator.
+	 */
+	@Override
+	public long estimateSize() {
+		final long estimate = (offsets[end] - offsets[index]) / BYTES_PER_WORD;
+		return current == null ? estimate : estimate + current.estimateSize();
+	}
+
+	/**
+	 * Returns the characteristics of the spliterator, which are the
+	 * same as those of the {@link WordSpliterator}.
+	 * @return the characteristics of the spliterator.
+	 */
+	@Override
+	public int characteristics() {
+		return NONNULL|IMMUTABLE|CONCURRENT;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Comparator<? super Word> getComparator() {
+		return Word.COMPARATOR;
+	}
+
+	/**
+	 * Unmaps all entries of the archive that are still mapped. The spliterator
+	 * and all spliterators split from it must not be used afterwards.
+	 */
+	@Override
+	public void close() {
+		current = null;
+		window = null;
+		index = end;
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+		windows.close();
+	}
+
+}
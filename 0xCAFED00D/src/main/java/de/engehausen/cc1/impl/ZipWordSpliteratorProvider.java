@@ -0,0 +1,62 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Spliterator;
+import java.util.function.Predicate;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+import de.engehausen.cc1.challenge.WordSpliteratorProvider;
+
+/**
+ * Word spliterator provider for ZIP archives: the words of a file are the
+ * words of the entries of the archive, read in place without extracting it.
+ * @see ZipWordSpliterator
+ */
+public class ZipWordSpliteratorProvider implements WordSpliteratorProvider {
+
+	private final Predicate<String> filter;
+	private final TokenAlphabet alphabet;
+	private final Charset encoding;
+
+	/**
+	 * Creates the provider for all entries of archives, with <code>US-ASCII</code>
+	 * contents and words of the default alphabet, {@link TokenAlphabet#LETTERS}.
+	 */
+	public ZipWordSpliteratorProvider() {
+		this(null, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Creates the provider for the selected entries of archives, in the given encoding
+	 * and words of the given alphabet.
+	 * @param entryFilter the filter selecting the entries to read, matching the entry names;
+	 * <code>null</code> selects all entries.
+	 * @param tokenAlphabet the alphabet defining the word characters, must not be <code>null</code>.
+	 * @param charset the encoding of the entries, <code>UTF-8</code>, <code>ISO-8859-1</code>
+	 * or <code>US-ASCII</code>; must not be <code>null</code>.
+	 */
+	public ZipWordSpliteratorProvider(final Predicate<String> entryFilter, final TokenAlphabet tokenAlphabet, final Charset charset) {
+		filter = entryFilter;
+		alphabet = tokenAlphabet;
+		encoding = charset;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The file must be a ZIP archive, its entries are split among parallel workers.
+	 * @throws IllegalStateException in case of error, e.g. if the file is not a supported archive
+	 */
+	@Override
+	public Spliterator<Word> getWordSpliterator(final File file) {
+		try {
+			return new ZipWordSpliterator(file, filter, alphabet, encoding);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
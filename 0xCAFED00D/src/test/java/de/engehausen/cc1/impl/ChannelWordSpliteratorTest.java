@@ -0,0 +1,135 @@
+package de.engehausen.cc1.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+import de.engehausen.cc1.examples.Words;
+
+/**
+ * Tests the channel word spliterator.
+ */
+public class ChannelWordSpliteratorTest {
+
+	@Test
+	public void testSequential() throws IOException {
+		final byte[] text = createText(20);
+		for (int blockSize : new int[] { 16, 64, 1000, 65536 }) {
+			final List<Word> actual = new ArrayList<>();
+			try (final ChannelWordSpliterator spliterator = create(new ByteArrayInputStream(text), blockSize)) {
+				Assert.assertTrue(spliterator.tryAdvance(actual::add));
+				spliterator.forEachRemaining(actual::add);
+				Assert.assertFalse(spliterator.tryAdvance(actual::add));
+			}
+			Assert.assertEquals(expected(text), actual);
+		}
+	}
+
+	@Test
+	public void testParallel() throws IOException {
+		final byte[] text = createText(500);
+		final Map<Word, Long> expected = expected(text).stream().collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+		try (final ChannelWordSpliterator spliterator = create(new ByteArrayInputStream(text), 256)) {
+			final Map<Word, Long> actual = StreamSupport.stream(spliterator, true).collect(Collectors.groupingByConcurrent(Function.identity(), Collectors.counting()));
+			Assert.assertEquals(expected, actual);
+		}
+	}
+
+	/**
+	 * The blocks read before an error are tokenized, then the error is reported.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testError() throws IOException {
+		final InputStream failing = new InputStream() {
+			private int count;
+			@Override
+			public int read() throws IOException {
+				if (count++ < 100) {
+					return count % 5 == 0 ? ' ' : 'a';
+				}
+				throw new IOException("failing");
+			}
+		};
+		final List<Word> words = new ArrayList<>();
+		try (final ChannelWordSpliterator spliterator = create(failing, 16)) {
+			spliterator.forEachRemaining(words::add);
+			Assert.fail("error expected");
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+		Assert.assertFalse(words.isEmpty());
+	}
+
+	/**
+	 * A spliterator abandoned without closing it must not keep its reading thread
+	 * blocked forever on an endless source.
+	 * @throws InterruptedException if interrupted
+	 */
+	@Test
+	public void testAbandoned() throws InterruptedException {
+		// reader threads of other tests may still be ending
+		final Set<Thread> before = readerThreads();
+		final InputStream endless = new InputStream() {
+			private int count;
+			@Override
+			public int read() {
+				return count++ % 5 == 0 ? ' ' : 'a';
+			}
+		};
+		Assert.assertTrue(StreamSupport.stream(create(endless, 64), false).findFirst().isPresent());
+		final Set<Thread> started = readerThreads();
+		started.removeAll(before);
+		Assert.assertFalse(started.isEmpty());
+		for (int i = 0; i < 100 && started.stream().anyMatch(Thread::isAlive); i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		Assert.assertFalse(started.stream().anyMatch(Thread::isAlive));
+	}
+
+	private static Set<Thread> readerThreads() {
+		final Set<Thread> result = new HashSet<>();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if ("word-reader".equals(thread.getName())) {
+				result.add(thread);
+			}
+		}
+		return result;
+	}
+
+	protected ChannelWordSpliterator create(final InputStream stream, final int blockSize) {
+		return new ChannelWordSpliterator(Channels.newChannel(stream), TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, blockSize);
+	}
+
+	protected List<Word> expected(final byte[] text) {
+		final List<Word> result = new ArrayList<>();
+		new WordSpliterator(ByteBuffer.wrap(text), TokenAlphabet.LETTERS, StandardCharsets.US_ASCII).forEachRemaining(result::add);
+		return result;
+	}
+
+	protected byte[] createText(final int repeats) {
+		final StringBuilder result = new StringBuilder(repeats*(Words.LORE_IPSUM.length() + 1));
+		for (int i = 0; i < repeats; i++) {
+			result.append(Words.LORE_IPSUM).append('\n');
+		}
+		return result.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
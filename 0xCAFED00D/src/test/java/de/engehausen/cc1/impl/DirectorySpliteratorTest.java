@@ -0,0 +1,122 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.StreamSupport;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+import de.engehausen.cc1.challenge.WordSpliteratorProvider;
+import de.engehausen.cc1.examples.Words;
+
+/**
+ * Tests the directory spliterator.
+ */
+public class DirectorySpliteratorTest {
+
+	private static final int SMALL_FILES = 100;
+	private static final int LARGE_FILE_REPEATS = 1000;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+	private PathMatcher filter;
+	private long expected;
+
+	@Before
+	public void setup() throws IOException {
+		directory = folder.newFolder().toPath();
+		final Path subDirectory = Files.createDirectory(directory.resolve("sub"));
+		for (int i = 0; i < SMALL_FILES; i++) {
+			final Path parent = i % 2 == 0 ? directory : subDirectory;
+			Files.write(parent.resolve("small-"+i+".txt"), "alpha beta\ngamma".getBytes(StandardCharsets.US_ASCII));
+		}
+		Files.write(directory.resolve("ignored.dat"), "not counted".getBytes(StandardCharsets.US_ASCII));
+		Files.write(directory.resolve("empty.txt"), new byte[0]);
+		Files.write(subDirectory.resolve("large.txt"), TestWords.loremIpsum(LARGE_FILE_REPEATS).getBytes(StandardCharsets.US_ASCII));
+		Assert.assertTrue(Files.size(subDirectory.resolve("large.txt")) > DirectorySpliterator.SMALL_FILE_SIZE);
+		filter = FileSystems.getDefault().getPathMatcher("glob:**.txt");
+		expected = 3*SMALL_FILES + LARGE_FILE_REPEATS*Words.getLoreIpsumStream().count();
+	}
+
+	@Test
+	public void testParallel() {
+		final Spliterator<Word> spliterator = new WordSpliteratorProviderImpl().getWordSpliterator(directory, filter);
+		Assert.assertEquals(expected, StreamSupport.stream(spliterator, true).count());
+	}
+
+	@Test
+	public void testSequential() throws IOException {
+		final List<Word> words = new ArrayList<>();
+		final DirectorySpliterator spliterator = new DirectorySpliterator(directory, filter, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII);
+		Assert.assertEquals(SMALL_FILES + 1, spliterator.getFileCount());
+		while (spliterator.tryAdvance(words::add));
+		Assert.assertEquals(expected, words.size());
+		Assert.assertTrue(words.contains(Word.from("GAMMA")));
+		Assert.assertFalse(words.contains(Word.from("COUNTED")));
+	}
+
+	/**
+	 * The file groups are balanced by size: the large file ends up on its own,
+	 * and is then split further.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testSplit() throws IOException {
+		final DirectorySpliterator spliterator = new DirectorySpliterator(directory, filter, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII);
+		final List<Spliterator<Word>> parts = new ArrayList<>();
+		split(spliterator, parts);
+		Assert.assertTrue(parts.size() > SMALL_FILES);
+		Assert.assertTrue(parts.stream().anyMatch(part -> part instanceof WordSpliterator));
+		long count = 0;
+		for (Spliterator<Word> part : parts) {
+			count += StreamSupport.stream(part, false).count();
+		}
+		Assert.assertEquals(expected, count);
+	}
+
+	/**
+	 * The default implementation of the provider interface reads the files one by one.
+	 */
+	@Test
+	public void testDefault() {
+		final WordSpliteratorProvider provider = new WordSpliteratorProvider() {
+			@Override
+			public Spliterator<Word> getWordSpliterator(final File file) {
+				return new WordSpliteratorProviderImpl().getWordSpliterator(file);
+			}
+		};
+		Assert.assertEquals(expected, StreamSupport.stream(provider.getWordSpliterator(directory, filter), true).count());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testDirectoryDoesNotExist() {
+		new WordSpliteratorProviderImpl().getWordSpliterator(directory.resolve("DOES-NOT-EXIST"), filter);
+	}
+
+	protected void split(final Spliterator<Word> spliterator, final List<Spliterator<Word>> parts) {
+		final Spliterator<Word> other = spliterator.trySplit();
+		if (other != null) {
+			split(other, parts);
+			split(spliterator, parts);
+		} else {
+			parts.add(spliterator);
+		}
+	}
+
+}
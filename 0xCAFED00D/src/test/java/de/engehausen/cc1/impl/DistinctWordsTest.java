@@ -0,0 +1,115 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+import de.engehausen.cc1.examples.Words;
+
+/**
+ * Tests the estimated and exact counts of distinct words.
+ */
+public class DistinctWordsTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setup() throws IOException {
+		file = folder.newFile();
+	}
+
+	@Test
+	public void testSmallVocabulary() throws IOException {
+		Files.write(file.toPath(), TestWords.loremIpsum(500).getBytes(StandardCharsets.US_ASCII));
+		final long expected = Words.getLoreIpsumStream().distinct().count();
+		Assert.assertEquals(expected, DistinctWords.count(file));
+		// linear counting is close to exact for few words
+		Assert.assertEquals(expected, DistinctWords.estimate(file, HyperLogLog.DEFAULT_PRECISION), 1d);
+	}
+
+	@Test
+	public void testLargeVocabulary() throws IOException {
+		final int distinct = 60000;
+		final StringBuilder text = new StringBuilder();
+		for (int repeat = 0; repeat < 2; repeat++) {
+			for (int i = 0; i < distinct; i++) {
+				text.append(TestWords.word(i)).append(i % 12 == 0 ? '\n' : ' ');
+			}
+		}
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.US_ASCII));
+		try (final WordSpliterator spliterator = new WordSpliterator(file, 16384)) {
+			Assert.assertEquals(distinct, DistinctWords.count(spliterator));
+		}
+		for (int precision : new int[] { 10, HyperLogLog.DEFAULT_PRECISION, HyperLogLog.MAX_PRECISION }) {
+			// three times the standard error
+			final double error = 3*1.04d/Math.sqrt(1 << precision);
+			try (final WordSpliterator spliterator = new WordSpliterator(file, 16384)) {
+				Assert.assertEquals(distinct, DistinctWords.sketch(spliterator, precision).estimate(), error*distinct);
+			}
+		}
+	}
+
+	@Test
+	public void testDecodedHashes() throws IOException {
+		final List<String> words = new ArrayList<>();
+		final Set<Long> expected = new HashSet<>();
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {
+			final String word = "\u00c4DISTINCT\u03a9"+TestWords.word(i);
+			words.add(word);
+			expected.add(Long.valueOf(HyperLogLog.hash(word)));
+			text.append(word.toLowerCase()).append(' ');
+		}
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+		final Set<Long> hashes = new HashSet<>();
+		try (final WordSpliterator spliterator = new WordSpliterator(file, 1024, TokenAlphabet.UNICODE_LETTERS, StandardCharsets.UTF_8)) {
+			spliterator.forEachHash(hash -> hashes.add(Long.valueOf(hash)));
+		}
+		Assert.assertEquals(expected, hashes);
+		// hashing decoded words does not intern them
+		Assert.assertEquals(words.size(), Word.internAll(words));
+	}
+
+	@Test
+	public void testMerge() {
+		final HyperLogLog first = new HyperLogLog(12);
+		final HyperLogLog second = new HyperLogLog(12);
+		for (int i = 0; i < 20000; i++) {
+			(i % 2 == 0 ? first : second).add(HyperLogLog.hash(TestWords.word(i)));
+		}
+		final long before = first.estimate();
+		first.merge(second);
+		Assert.assertTrue(first.estimate() > before);
+		Assert.assertEquals(20000d, first.estimate(), 20000*3*1.04d/64);
+		Assert.assertEquals(HyperLogLog.hash(TestWords.word(42)), HyperLogLog.hash(TestWords.word(42).getBytes(StandardCharsets.US_ASCII), 0, TestWords.word(42).length()));
+		try {
+			first.merge(new HyperLogLog(13));
+			Assert.fail("precisions differ");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new HyperLogLog(HyperLogLog.MAX_PRECISION + 1);
+			Assert.fail("invalid precision");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.stream.StreamSupport;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.Instrumentation;
+import de.engehausen.cc1.api.Instrumentation.Counter;
+
+/**
+ * Tests the instrumentation counters. The counts are only checked if
+ * instrumentation is enabled, e.g. by running the tests with
+ * <code>-DargLine=-Dde.engehausen.cc1.instrumentation=true</code>.
+ */
+public class InstrumentationTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setup() throws IOException {
+		file = folder.newFile();
+		Files.write(file.toPath(), TestWords.loremIpsum(1000).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testCounters() throws IOException {
+		Instrumentation.reset();
+		final long words;
+		try (final WordSpliterator spliterator = new WordSpliterator(file, 16384)) {
+			words = StreamSupport.stream(spliterator, true).count();
+		}
+		final Map<Counter, Long> counters = Instrumentation.snapshot();
+		Assert.assertEquals(Counter.values().length, counters.size());
+		if (Instrumentation.ENABLED) {
+			Assert.assertEquals(words, counters.get(Counter.WORDS_EMITTED).longValue());
+			Assert.assertEquals(file.length(), counters.get(Counter.BYTES_SCANNED).longValue());
+			Assert.assertEquals(counters.get(Counter.SPLITS).longValue() + 1, counters.get(Counter.LEAVES).longValue());
+			Assert.assertTrue(counters.get(Counter.SPLITS).longValue() > 0);
+			Assert.assertEquals(words, counters.get(Counter.FRONT_CACHE_HITS).longValue() + counters.get(Counter.INTERN_HITS).longValue() + counters.get(Counter.INTERN_MISSES).longValue());
+			Instrumentation.reset();
+		}
+		for (Long count : Instrumentation.snapshot().values()) {
+			Assert.assertEquals(0L, count.longValue());
+		}
+	}
+
+	@Test
+	public void testMBean() throws JMException {
+		Instrumentation.registerMBean();
+		// registering twice does no harm
+		Instrumentation.registerMBean();
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = new ObjectName(Instrumentation.MBEAN_NAME);
+		Assert.assertTrue(server.isRegistered(name));
+		Assert.assertEquals(Instrumentation.snapshot().get(Counter.SPLITS), server.getAttribute(name, "Splits"));
+		Assert.assertNotNull(server.getAttribute(name, "AverageLeafNanos"));
+		server.invoke(name, "reset", new Object[0], new String[0]);
+	}
+
+}
@@ -0,0 +1,69 @@
+package de.engehausen.cc1.impl;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.engehausen.cc1.api.Maze;
+import de.engehausen.cc1.api.Position;
+
+/**
+ * Tests the iterative maze solver.
+ */
+public class IterativeMazeSolverTest extends MazeSolverTest {
+
+	@Before
+	public void setup() {
+		solver = new IterativeMazeSolver();
+	}
+
+	@Test
+	public void testSameOrderAsRecursive() {
+		// an open square has many routes, the one found depends on the search order
+		final Maze open = square(30);
+		final Position exit = Position.at(29, 29);
+		Assert.assertEquals(new RecursiveMazeSolver().getEscapeRoute(open, Position.at(0, 0), exit), solver.getEscapeRoute(open, Position.at(0, 0), exit));
+		Assert.assertEquals(new RecursiveMazeSolver().getEscapeRoute(open, Position.at(29, 0), Position.at(3, 17)), solver.getEscapeRoute(open, Position.at(29, 0), Position.at(3, 17)));
+	}
+
+	@Test
+	public void testLongRoute() {
+		// a winding corridor visiting every position, far too deep for a recursion on a default stack
+		final int size = 1000;
+		final Maze serpentine = (direction, position) -> {
+			final int x = position.getX();
+			final int y = position.getY();
+			switch (direction) {
+				case LEFT:
+					return x > 0;
+				case RIGHT:
+					return x < size - 1;
+				case DOWN:
+					return y < size - 1 && x == (y % 2 == 0 ? size - 1 : 0);
+				case UP:
+					return y > 0 && x == ((y - 1) % 2 == 0 ? size - 1 : 0);
+				default:
+					return false;
+			}
+		};
+		final List<Position> route = solver.getEscapeRoute(serpentine, Position.at(0, 0), Position.at(0, size - 1));
+		Assert.assertEquals(size * size, route.size());
+		Assert.assertEquals(Position.at(size - 1, 0), route.get(size - 1));
+		Assert.assertEquals(Position.at(0, size - 1), route.get(route.size() - 1));
+	}
+
+	/**
+	 * Returns a square maze without walls inside.
+	 * @param size the length of a side
+	 * @return the maze
+	 */
+	private static Maze square(final int size) {
+		return (direction, position) -> {
+			final Position next = position.neighborAt(direction);
+			return next.getX() >= 0 && next.getY() >= 0 && next.getX() < size && next.getY() < size;
+		};
+	}
+
+}
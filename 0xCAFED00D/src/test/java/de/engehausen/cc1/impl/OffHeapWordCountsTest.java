@@ -0,0 +1,139 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Tests the off-heap word count table.
+ */
+public class OffHeapWordCountsTest {
+
+	private static final int DISTINCT = 20000;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setup() throws IOException {
+		file = folder.newFile();
+		Files.write(file.toPath(), TestWords.skewed(DISTINCT).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testCounts() throws IOException {
+		final Map<String, Long> expected;
+		try (final WordSpliterator spliterator = new WordSpliterator(file, 16384)) {
+			expected = StreamSupport.stream(spliterator, true).collect(Collectors.groupingBy(Word::toString, Collectors.counting()));
+		}
+		// a single stripe grows the most
+		for (int stripes : new int[] { 1, 8, OffHeapWordCounts.DEFAULT_STRIPES }) {
+			try (final OffHeapWordCounts counts = new OffHeapWordCounts(stripes)) {
+				try (final WordSpliterator spliterator = new WordSpliterator(file, 16384)) {
+					counts.count(spliterator);
+				}
+				Assert.assertEquals(DISTINCT, counts.size());
+				final Map<String, Long> actual = new HashMap<>();
+				counts.forEach((word, count) -> actual.put(word, Long.valueOf(count)));
+				Assert.assertEquals(expected, actual);
+				Assert.assertEquals(expected.get("WB").longValue(), counts.getCount("WB"));
+				Assert.assertEquals(0L, counts.getCount("MISSING"));
+				Assert.assertTrue(counts.getOffHeapBytes() > 0);
+			}
+		}
+	}
+
+	@Test
+	public void testTopWords() throws IOException {
+		final List<Word> expected;
+		try (final WordSpliterator spliterator = new WordSpliterator(file)) {
+			expected = new TopTenWordsImpl().getTopTenWords(StreamSupport.stream(spliterator, true));
+		}
+		try (final OffHeapWordCounts counts = new OffHeapWordCounts()) {
+			try (final WordSpliterator spliterator = new WordSpliterator(file, 16384)) {
+				counts.count(spliterator);
+			}
+			Assert.assertEquals(expected, counts.getTopWords(10));
+			Assert.assertEquals(expected.subList(0, 4), counts.getTopWords(4));
+			Assert.assertTrue(counts.getTopWords(0).isEmpty());
+		}
+	}
+
+	@Test
+	public void testEncodings() throws IOException {
+		final String text = "\u00c4rger \u00f6l \u00e4rger caf\u00e9 \u00d6L plain \u00e4rger\n";
+		for (Charset charset : new Charset[] { StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1 }) {
+			Files.write(file.toPath(), (charset == StandardCharsets.UTF_8 ? text + "\u03a9mega \u03c9MEGA" : text).getBytes(charset));
+			final Map<String, Long> expected;
+			try (final WordSpliterator spliterator = new WordSpliterator(file, 0, TokenAlphabet.UNICODE_LETTERS, charset)) {
+				expected = StreamSupport.stream(spliterator, false).collect(Collectors.groupingBy(Word::toString, Collectors.counting()));
+			}
+			try (final OffHeapWordCounts counts = new OffHeapWordCounts()) {
+				try (final WordSpliterator spliterator = new WordSpliterator(file, 0, TokenAlphabet.UNICODE_LETTERS, charset)) {
+					counts.count(spliterator);
+				}
+				final Map<String, Long> actual = new HashMap<>();
+				counts.forEach((word, count) -> actual.put(word, Long.valueOf(count)));
+				Assert.assertEquals(expected, actual);
+				Assert.assertEquals(3L, counts.getCount("\u00c4RGER"));
+				Assert.assertEquals(2L, counts.getCount("\u00d6L"));
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		final int threads = 4;
+		final int rounds = 5000;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (final OffHeapWordCounts counts = new OffHeapWordCounts(4)) {
+			final Future<?>[] futures = new Future<?>[threads];
+			for (int t = 0; t < threads; t++) {
+				futures[t] = executor.submit(() -> {
+					for (int i = 0; i < rounds; i++) {
+						final byte[] chars = TestWords.word(i % 100).getBytes(StandardCharsets.US_ASCII);
+						counts.accept(chars, 0, chars.length);
+					}
+				});
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			Assert.assertEquals(100, counts.size());
+			for (int i = 0; i < 100; i++) {
+				Assert.assertEquals(threads * rounds / 100, counts.getCount(TestWords.word(i)));
+			}
+		} finally {
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidStripes() {
+		new OffHeapWordCounts(12).close();
+	}
+
+}
@@ -0,0 +1,154 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.examples.Words;
+
+/**
+ * Tests the segment spliterator with its detectors.
+ */
+public class SegmentSpliteratorTest {
+
+	private static final int REPEATS = 400;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private List<String> lines;
+
+	@Before
+	public void setup() throws IOException {
+		lines = new ArrayList<>();
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < REPEATS; i++) {
+			final String line = i+": "+Words.LORE_IPSUM;
+			lines.add(line);
+			text.append(line).append(i % 3 == 0 ? "\r\n" : "\n");
+			if (i % 7 == 0) {
+				lines.add("");
+				text.append('\n');
+			}
+		}
+		// the last line is not ended
+		lines.add("Pi is 3.14... or so");
+		text.append("Pi is 3.14... or so");
+		file = folder.newFile();
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testLines() throws IOException {
+		for (int windowSize : new int[] { 1000, 4096, WordSpliterator.DEFAULT_WINDOW_SIZE }) {
+			try (final SegmentSpliterator spliterator = new SegmentSpliterator(file, SegmentSpliterator.LINES, 2048, windowSize)) {
+				Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED));
+				// the order of the lines is kept in parallel
+				Assert.assertEquals(lines, StreamSupport.stream(spliterator, true).map(CharSequence::toString).collect(Collectors.toList()));
+			}
+		}
+	}
+
+	@Test
+	public void testSentences() throws IOException {
+		final List<String> sentences;
+		try (final SegmentSpliterator spliterator = new SegmentSpliterator(file, SegmentSpliterator.SENTENCES, 2048, 4096)) {
+			sentences = StreamSupport.stream(spliterator, true).map(CharSequence::toString).collect(Collectors.toList());
+		}
+		Assert.assertEquals(4*REPEATS + 2, sentences.size());
+		Assert.assertEquals("0: Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.", sentences.get(0));
+		Assert.assertEquals("Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris nisi ut aliquip ex ea commodo consequat.", sentences.get(1));
+		Assert.assertEquals("Pi is 3.14...", sentences.get(sentences.size() - 2));
+		Assert.assertEquals("or so", sentences.get(sentences.size() - 1));
+	}
+
+	@Test
+	public void testParallelOrdered() throws IOException {
+		final List<String> many = new ArrayList<>();
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200000; i++) {
+			final String line = "line "+i;
+			many.add(line);
+			text.append(line).append('\n');
+		}
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.US_ASCII));
+		try (final SegmentSpliterator spliterator = new SegmentSpliterator(file, SegmentSpliterator.LINES, 64*1024, 128*1024)) {
+			// the segments are buffered while the parts before them are traversed, so they are copied first
+			final List<String> ordered = new ArrayList<>();
+			StreamSupport.stream(spliterator, true).map(CharSequence::toString).forEachOrdered(ordered::add);
+			Assert.assertEquals(many, ordered);
+		}
+	}
+
+	@Test
+	public void testWords() throws IOException {
+		final long expected;
+		try (final WordSpliterator spliterator = new WordSpliterator(file)) {
+			expected = StreamSupport.stream(spliterator, false).count();
+		}
+		try (final SegmentSpliterator spliterator = new SegmentSpliterator(file, SegmentSpliterator.words(TokenAlphabet.LETTERS), 1024, 4096)) {
+			Assert.assertEquals(expected, StreamSupport.stream(spliterator, true).count());
+		}
+	}
+
+	@Test
+	public void testUtf8() throws IOException {
+		final List<String> expected = Arrays.asList("Gr\u00fc\u00dfe aus K\u00f6ln", "plain ASCII", "\u20ac 5", "");
+		Files.write(file.toPath(), String.join("\n", expected).getBytes(StandardCharsets.UTF_8));
+		final List<String> decoded = new ArrayList<>();
+		try (final SegmentSpliterator spliterator = new SegmentSpliterator(file, SegmentSpliterator.LINES, StandardCharsets.UTF_8)) {
+			spliterator.forEachRemaining(line -> {
+				Assert.assertTrue(expected.get(decoded.size()).contentEquals(line));
+				decoded.add(line.toString());
+			});
+		}
+		Assert.assertEquals(expected.subList(0, 3), decoded);
+		Assert.assertEquals('\u00fc', decoded.get(0).charAt(2));
+	}
+
+	@Test
+	public void testViews() throws IOException {
+		final List<CharSequence> views = new ArrayList<>();
+		try (final SegmentSpliterator spliterator = new SegmentSpliterator(file, SegmentSpliterator.LINES)) {
+			Assert.assertTrue(spliterator.tryAdvance(views::add));
+			final CharSequence line = views.get(0);
+			Assert.assertEquals(lines.get(0).length(), line.length());
+			Assert.assertEquals('0', line.charAt(0));
+			Assert.assertEquals("Lorem", line.subSequence(3, 8).toString());
+			Assert.assertTrue(lines.get(0).contentEquals(line));
+		}
+		try {
+			views.get(0).charAt(0);
+			Assert.fail("the window is released");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		Files.write(file.toPath(), new byte[0]);
+		for (SegmentDetector detector : Arrays.asList(SegmentSpliterator.LINES, SegmentSpliterator.SENTENCES)) {
+			try (final SegmentSpliterator spliterator = new SegmentSpliterator(file, detector)) {
+				Assert.assertNull(spliterator.trySplit());
+				Assert.assertFalse(spliterator.tryAdvance(segment -> { /* none */ }));
+			}
+		}
+	}
+
+}
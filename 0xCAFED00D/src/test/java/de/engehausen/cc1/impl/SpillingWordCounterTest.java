@@ -0,0 +1,132 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Tests counting words with spilling to run files.
+ */
+public class SpillingWordCounterTest {
+
+	private static final int DISTINCT = 20000;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private File directory;
+
+	@Before
+	public void setup() throws IOException {
+		file = folder.newFile();
+		Files.write(file.toPath(), TestWords.skewed(DISTINCT).getBytes(StandardCharsets.US_ASCII));
+		directory = folder.newFolder();
+	}
+
+	@Test
+	public void testCounts() throws IOException {
+		final Map<String, Long> expected;
+		try (final WordSpliterator spliterator = new WordSpliterator(file, 16384)) {
+			expected = StreamSupport.stream(spliterator, true).collect(Collectors.groupingBy(Word::toString, Collectors.counting()));
+		}
+		try (final SpillingWordCounter counter = new SpillingWordCounter(directory, smallestBudget())) {
+			try (final WordSpliterator spliterator = new WordSpliterator(file, 16384)) {
+				counter.count(spliterator);
+			}
+			// the tables are far too small for the vocabulary
+			Assert.assertTrue(counter.getRunCount() > 2);
+			final Map<String, Long> counts = new HashMap<>();
+			final AtomicReference<String> previous = new AtomicReference<>("");
+			counter.forEachCount((word, count) -> {
+				Assert.assertTrue(previous.get().compareTo(word) < 0);
+				previous.set(word);
+				counts.put(word, Long.valueOf(count));
+			});
+			Assert.assertEquals(expected, counts);
+			Assert.assertEquals(DISTINCT, counts.size());
+		}
+		Assert.assertEquals(0, directory.list().length);
+	}
+
+	@Test
+	public void testTopWords() throws IOException {
+		final List<Word> expected;
+		try (final WordSpliterator spliterator = new WordSpliterator(file)) {
+			expected = new TopTenWordsImpl().getTopTenWords(StreamSupport.stream(spliterator, true));
+		}
+		try (final SpillingWordCounter counter = new SpillingWordCounter(directory, smallestBudget())) {
+			// counts add up over several calls
+			for (int i = 0; i < 2; i++) {
+				try (final WordSpliterator spliterator = new WordSpliterator(file, 16384)) {
+					counter.count(spliterator);
+				}
+			}
+			Assert.assertEquals(expected, counter.getTopWords(10));
+			Assert.assertEquals(expected.subList(0, 3), counter.getTopWords(3));
+			Assert.assertTrue(counter.getTopWords(0).isEmpty());
+		}
+	}
+
+	@Test
+	public void testUtf8() throws IOException {
+		Files.write(file.toPath(), "\u00c4rger \u03a9mega \u00f6l \u00e4rger caf\u00e9 \u03c9MEGA plain \u00e4rger\n".getBytes(StandardCharsets.UTF_8));
+		final Map<String, Long> expected;
+		try (final WordSpliterator spliterator = new WordSpliterator(file, 0, TokenAlphabet.UNICODE_LETTERS, StandardCharsets.UTF_8)) {
+			expected = StreamSupport.stream(spliterator, false).collect(Collectors.groupingBy(Word::toString, Collectors.counting()));
+		}
+		try (final SpillingWordCounter counter = new SpillingWordCounter(directory, smallestBudget())) {
+			try (final WordSpliterator spliterator = new WordSpliterator(file, 0, TokenAlphabet.UNICODE_LETTERS, StandardCharsets.UTF_8)) {
+				counter.count(spliterator);
+			}
+			final Map<String, Long> counts = new HashMap<>();
+			final AtomicReference<String> previous = new AtomicReference<>("");
+			counter.forEachCount((word, count) -> {
+				Assert.assertTrue(previous.get().compareTo(word) < 0);
+				previous.set(word);
+				counts.put(word, Long.valueOf(count));
+			});
+			Assert.assertEquals(expected, counts);
+			Assert.assertEquals(Long.valueOf(3L), counts.get("\u00c4RGER"));
+		}
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		Files.write(file.toPath(), new byte[0]);
+		try (final SpillingWordCounter counter = new SpillingWordCounter(directory, smallestBudget())) {
+			try (final WordSpliterator spliterator = new WordSpliterator(file)) {
+				counter.count(spliterator);
+			}
+			Assert.assertEquals(0, counter.getRunCount());
+			Assert.assertTrue(counter.getTopWords(10).isEmpty());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBudgetTooSmall() {
+		new SpillingWordCounter(directory, 1024).close();
+	}
+
+	private static long smallestBudget() {
+		return 64L*1024*(ForkJoinPool.getCommonPoolParallelism() + 1);
+	}
+
+}
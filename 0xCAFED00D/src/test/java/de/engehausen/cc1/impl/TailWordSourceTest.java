@@ -0,0 +1,178 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Tests following a growing file.
+ */
+public class TailWordSourceTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private File rotated;
+
+	@Before
+	public void setup() throws IOException {
+		file = folder.newFile("words.log");
+		rotated = new File(file.getPath()+".1");
+	}
+
+	@Test
+	public void testAppend() throws IOException {
+		append("alpha be");
+		try (final TailWordSource source = new TailWordSource(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, false, 8)) {
+			Assert.assertEquals(Arrays.asList("ALPHA"), poll(source));
+			Assert.assertEquals(6, source.getPosition());
+			Assert.assertEquals(Arrays.asList(), poll(source));
+			append("ta gamma delta epsilon\n");
+			Assert.assertEquals(Arrays.asList("BETA", "GAMMA", "DELTA", "EPSILON"), poll(source));
+			Assert.assertEquals(file.length(), source.getPosition());
+		}
+	}
+
+	@Test
+	public void testSkipExisting() throws IOException {
+		append("old words par");
+		try (final TailWordSource source = new TailWordSource(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, true)) {
+			Assert.assertEquals(Arrays.asList(), poll(source));
+			append("tial new ");
+			Assert.assertEquals(Arrays.asList("PARTIAL", "NEW"), poll(source));
+		}
+	}
+
+	@Test
+	public void testRotation() throws IOException {
+		append("one two");
+		try (final TailWordSource source = new TailWordSource(file)) {
+			Assert.assertEquals(Arrays.asList("ONE"), poll(source));
+			Files.move(file.toPath(), rotated.toPath());
+			// moved away, but not replaced yet
+			Assert.assertEquals(Arrays.asList(), poll(source));
+			append("three four");
+			Assert.assertEquals(Arrays.asList("TWO", "THREE"), poll(source));
+		}
+	}
+
+	@Test
+	public void testTruncation() throws IOException {
+		append("one two three ");
+		try (final TailWordSource source = new TailWordSource(file)) {
+			Assert.assertEquals(Arrays.asList("ONE", "TWO", "THREE"), poll(source));
+			Files.write(file.toPath(), "four ".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.TRUNCATE_EXISTING);
+			Assert.assertEquals(Arrays.asList("FOUR"), poll(source));
+		}
+	}
+
+	@Test
+	public void testReplacedWithoutFileKeys() {
+		final FileTime created = FileTime.fromMillis(1000L);
+		final Object identity = TailWordSource.identity(attributes(null, created, 10L));
+		Assert.assertEquals(created, identity);
+		// the same file, grown or not
+		Assert.assertFalse(TailWordSource.isReplaced(attributes(null, created, 10L), identity, 10L));
+		Assert.assertFalse(TailWordSource.isReplaced(attributes(null, FileTime.fromMillis(1000L), 20L), identity, 10L));
+		// another file created later, or one smaller than the open one
+		Assert.assertTrue(TailWordSource.isReplaced(attributes(null, FileTime.fromMillis(2000L), 20L), identity, 10L));
+		Assert.assertTrue(TailWordSource.isReplaced(attributes(null, created, 5L), identity, 10L));
+		// file keys take precedence
+		final Object key = "key";
+		Assert.assertEquals(key, TailWordSource.identity(attributes(key, created, 10L)));
+		Assert.assertFalse(TailWordSource.isReplaced(attributes(key, FileTime.fromMillis(2000L), 5L), key, 10L));
+		Assert.assertTrue(TailWordSource.isReplaced(attributes("other", created, 10L), key, 10L));
+	}
+
+	@Test
+	public void testFollow() throws IOException, InterruptedException {
+		final BlockingQueue<Word> words = new LinkedBlockingQueue<>();
+		try (final TailWordSource source = new TailWordSource(file)) {
+			source.follow(words::add, 5, TimeUnit.MILLISECONDS);
+			append("hello ");
+			Assert.assertEquals(Word.from("HELLO"), words.poll(10, TimeUnit.SECONDS));
+			append("world\n");
+			Assert.assertEquals(Word.from("WORLD"), words.poll(10, TimeUnit.SECONDS));
+		}
+	}
+
+	private void append(final String text) throws IOException {
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Returns the attributes of a file, as a file system may report them.
+	 * @param key the file key, may be <code>null</code>.
+	 * @param created the creation time
+	 * @param size the size of the file
+	 * @return the attributes, never <code>null</code>.
+	 */
+	private static BasicFileAttributes attributes(final Object key, final FileTime created, final long size) {
+		return new BasicFileAttributes() {
+			@Override
+			public FileTime lastModifiedTime() {
+				return created;
+			}
+			@Override
+			public FileTime lastAccessTime() {
+				return created;
+			}
+			@Override
+			public FileTime creationTime() {
+				return created;
+			}
+			@Override
+			public boolean isRegularFile() {
+				return true;
+			}
+			@Override
+			public boolean isDirectory() {
+				return false;
+			}
+			@Override
+			public boolean isSymbolicLink() {
+				return false;
+			}
+			@Override
+			public boolean isOther() {
+				return false;
+			}
+			@Override
+			public long size() {
+				return size;
+			}
+			@Override
+			public Object fileKey() {
+				return key;
+			}
+		};
+	}
+
+	private static List<String> poll(final TailWordSource source) throws IOException {
+		final List<Word> words = new ArrayList<>();
+		source.poll(words::add);
+		return words.stream().map(Word::toString).collect(Collectors.toList());
+	}
+
+}
@@ -0,0 +1,56 @@
+package de.engehausen.cc1.impl;
+
+import de.engehausen.cc1.examples.Words;
+
+/**
+ * The texts the tests of the word spliterators and counters are run on.
+ */
+final class TestWords {
+
+	private TestWords() {
+		// not instantiated
+	}
+
+	/**
+	 * Returns a distinct upper case word for the given number.
+	 * @param number the number
+	 * @return the word
+	 */
+	static String word(final int number) {
+		final StringBuilder result = new StringBuilder("W");
+		for (int n = number; n > 0; n /= 26) {
+			result.append((char) ('A' + n % 26));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns a text of the given number of distinct words, see {@link #word(int)},
+	 * in which some words occur more often than others.
+	 * @param distinct the number of distinct words
+	 * @return the text, US-ASCII characters only
+	 */
+	static String skewed(final int distinct) {
+		final StringBuilder result = new StringBuilder();
+		for (int i = 0; i < distinct; i++) {
+			for (int n = i % 5 == 0 ? 1 + i % 11 : 1; n > 0; n--) {
+				result.append(word((i * 7919) % distinct)).append(i % 9 == 0 ? '\n' : ' ');
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns the given number of lines of {@link Words#LORE_IPSUM}.
+	 * @param repeats the number of lines
+	 * @return the text, each line ended by <code>\n</code>
+	 */
+	static String loremIpsum(final int repeats) {
+		final StringBuilder result = new StringBuilder(repeats*(Words.LORE_IPSUM.length() + 1));
+		for (int i = 0; i < repeats; i++) {
+			result.append(Words.LORE_IPSUM).append('\n');
+		}
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,565 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Micro benchmarks for the word processing classes. These are not
+ * unit tests and are not run by the build; launch them manually, e.g. from
+ * the IDE, passing the benchmark name and optionally the corpus file.
+ * <p>The corpus defaults to the <code>bible_x_100.txt</code> file the
+ * challenger creates in the temporary directory.</p>
+ */
+public class WordBenchmark {
+
+	private static final int RUNS = 5;
+	// the multipliers of the affine letter substitutions, coprime to 26
+	private static final int[] MULTIPLIERS = { 1, 3, 5, 7, 9, 11, 15, 17, 19, 21, 23, 25 };
+
+	/**
+	 * Runs a benchmark.
+	 * @param args the name of the benchmark, and optionally the corpus file
+	 * @throws Exception in case of error
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("usage: WordBenchmark <contention|utf8|scan|count|splits|io|index|search|prefetch|distinct> [corpus-file]");
+			return;
+		}
+		final File corpus = args.length > 1 ? new File(args[1]) : new File(System.getProperty("java.io.tmpdir"), "bible_x_100.txt");
+		if (!corpus.exists()) {
+			throw new IOException("Not found: "+corpus.getCanonicalPath());
+		}
+		final WordBenchmark benchmark = new WordBenchmark(corpus);
+		switch (args[0]) {
+			case "contention":
+				benchmark.contention();
+				break;
+			case "utf8":
+				benchmark.utf8();
+				break;
+			case "scan":
+				benchmark.scan();
+				break;
+			case "count":
+				benchmark.count();
+				break;
+			case "splits":
+				benchmark.splits();
+				break;
+			case "io":
+				benchmark.io();
+				break;
+			case "index":
+				benchmark.index();
+				break;
+			case "search":
+				benchmark.search();
+				break;
+			case "prefetch":
+				benchmark.prefetch();
+				break;
+			case "distinct":
+				benchmark.distinct();
+				break;
+			default:
+				System.out.println("unknown benchmark: "+args[0]);
+				break;
+		}
+	}
+
+	private final File corpus;
+
+	/**
+	 * Creates the benchmark for the given corpus.
+	 * @param file the corpus file, must not be <code>null</code>.
+	 */
+	public WordBenchmark(final File file) {
+		corpus = file;
+	}
+
+	/**
+	 * Tokenizes the corpus with 1 to N threads, N being the number of
+	 * available processors, and reports the best time for each thread count.
+	 * All words are interned, the interesting part is how the word
+	 * interning scales with the number of threads.
+	 * <p>The intern table is never emptied, so tokenizing the same corpus again
+	 * would only hit the front caches. Each run therefore tokenizes a copy of
+	 * the corpus whose letters are substituted differently, see {@link #encipher(File, int)}:
+	 * the words are scanned the same way, but each of them is interned for the
+	 * first time (except for a few short words that different substitutions
+	 * map to the same word).</p>
+	 * @throws Exception in case of error
+	 */
+	public void contention() throws Exception {
+		final int cores = Runtime.getRuntime().availableProcessors();
+		System.out.printf("%8s %12s %12s%n", "threads", "best (ms)", "speedup");
+		final File fresh = File.createTempFile("wordbenchmark-", ".txt");
+		try {
+			int vocabulary = 0;
+			double single = 0;
+			for (int threads = 1; threads <= cores; threads = threads == cores ? cores+1 : Math.min(2*threads, cores)) {
+				final ForkJoinPool pool = new ForkJoinPool(threads);
+				try {
+					long best = Long.MAX_VALUE;
+					for (int i = 0; i < RUNS; i++) {
+						encipher(fresh, ++vocabulary);
+						final long then = System.nanoTime();
+						countWords(pool, fresh);
+						best = Math.min(best, System.nanoTime() - then);
+					}
+					final double millis = best/1000000d;
+					if (threads == 1) {
+						single = millis;
+					}
+					System.out.printf("%8d %12.1f %12.2f%n", Integer.valueOf(threads), Double.valueOf(millis), Double.valueOf(single/millis));
+				} finally {
+					pool.shutdown();
+				}
+			}
+		} finally {
+			fresh.delete();
+		}
+	}
+
+	/**
+	 * Writes the corpus to the given file with its US-ASCII letters substituted
+	 * by an affine cipher, a different one for each key. Upper and lower case
+	 * letters are substituted alike, so the case-folded words are distinct for
+	 * distinct keys as well.
+	 * @param target the file to write
+	 * @param key the key of the substitution, positive and less than <code>12*26</code>
+	 * @throws IOException in case of error
+	 */
+	private void encipher(final File target, final int key) throws IOException {
+		final int multiplier = MULTIPLIERS[key / 26];
+		final int shift = key % 26;
+		final byte[] table = new byte[256];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (byte) i;
+		}
+		for (int i = 0; i < 26; i++) {
+			final int substitute = (multiplier*i + shift) % 26;
+			table['A' + i] = (byte) ('A' + substitute);
+			table['a' + i] = (byte) ('a' + substitute);
+		}
+		try (final FileChannel in = FileChannel.open(corpus.toPath(), StandardOpenOption.READ);
+			final FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(1024*1024);
+			while (in.read(buffer) >= 0) {
+				buffer.flip();
+				for (int i = 0; i < buffer.limit(); i++) {
+					buffer.put(i, table[buffer.get(i) & 0xff]);
+				}
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+	}
+
+	/**
+	 * Compares the sequential throughput of the single-byte and the
+	 * UTF-8 mode of the word spliterator. The UTF-8 mode is run on the
+	 * corpus, taking the US-ASCII fast path, and with {@link TokenAlphabet#UNICODE_LETTERS}
+	 * on a copy of the corpus with multi-byte characters, see {@link #umlauts(File)}.
+	 * @throws IOException in case of error
+	 */
+	public void utf8() throws IOException {
+		final File multiByte = File.createTempFile("wordbenchmark-", ".txt");
+		try {
+			umlauts(multiByte);
+			utf8("ascii", corpus, StandardCharsets.US_ASCII, TokenAlphabet.LETTERS);
+			utf8("utf-8", corpus, StandardCharsets.UTF_8, TokenAlphabet.LETTERS);
+			utf8("utf-8 unicode", corpus, StandardCharsets.UTF_8, TokenAlphabet.UNICODE_LETTERS);
+			utf8("utf-8 umlauts", multiByte, StandardCharsets.UTF_8, TokenAlphabet.UNICODE_LETTERS);
+		} finally {
+			multiByte.delete();
+		}
+	}
+
+	private void utf8(final String name, final File file, final Charset charset, final TokenAlphabet alphabet) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			final long then = System.nanoTime();
+			try (final WordSpliterator spliterator = new WordSpliterator(file, Integer.MAX_VALUE, alphabet, charset)) {
+				StreamSupport.stream(spliterator, false).count();
+			}
+			best = Math.min(best, System.nanoTime() - then);
+		}
+		final double millis = best/1000000d;
+		System.out.printf("%-14s %10.1fms %10.1fMB/s%n", name, Double.valueOf(millis), Double.valueOf(file.length()/1000d/millis));
+	}
+
+	/**
+	 * Writes the corpus to the given file in UTF-8 with the vowels <code>a</code>,
+	 * <code>o</code> and <code>u</code> replaced by their umlauts, two bytes each,
+	 * so that most words contain multi-byte characters.
+	 * @param target the file to write
+	 * @throws IOException in case of error
+	 */
+	private void umlauts(final File target) throws IOException {
+		final byte[][] table = new byte[256][];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = new byte[] { (byte) i };
+		}
+		final String vowels = "aouAOU";
+		final String umlauts = "\u00e4\u00f6\u00fc\u00c4\u00d6\u00dc";
+		for (int i = 0; i < vowels.length(); i++) {
+			table[vowels.charAt(i)] = umlauts.substring(i, i + 1).getBytes(StandardCharsets.UTF_8);
+		}
+		try (final FileChannel in = FileChannel.open(corpus.toPath(), StandardOpenOption.READ);
+			final FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(1024*1024);
+			final ByteBuffer converted = ByteBuffer.allocate(2*buffer.capacity());
+			while (in.read(buffer) >= 0) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					converted.put(table[buffer.get() & 0xff]);
+				}
+				converted.flip();
+				while (converted.hasRemaining()) {
+					out.write(converted);
+				}
+				buffer.clear();
+				converted.clear();
+			}
+		}
+	}
+
+	/**
+	 * Compares table-based and SWAR word boundary scanning. The corpus
+	 * is scanned sequentially, counting the words and summing up their
+	 * case-folded first bytes so the folding is not optimized away.
+	 * @throws IOException in case of error
+	 */
+	public void scan() throws IOException {
+		final ByteBuffer mapped;
+		try (final RandomAccessFile file = new RandomAccessFile(corpus, "r")) {
+			mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L, file.length());
+		}
+		final byte[] table = TokenAlphabet.LETTERS.getTable();
+		for (boolean swar : new boolean[] { false, true }) {
+			final WordScanner scanner = new WordScanner(table, swar);
+			final long[] result = new long[2];
+			long best = Long.MAX_VALUE;
+			for (int i = 0; i < RUNS; i++) {
+				final long then = System.nanoTime();
+				result[0] = result[1] = 0;
+				scanner.scan(mapped.duplicate(), (buffer, offset, length) -> {
+					result[0]++;
+					result[1] += scanner.fold(buffer, offset, length)[0];
+				});
+				best = Math.min(best, System.nanoTime() - then);
+			}
+			final double millis = best/1000000d;
+			System.out.printf("%-6s %10d words %10.1fms %10.1fMB/s%n", swar ? "SWAR" : "table", Long.valueOf(result[0]), Double.valueOf(millis), Double.valueOf(corpus.length()/1000d/millis));
+		}
+	}
+
+	/**
+	 * The <code>countBibleWords</code> workload of the challenger: counting all
+	 * words of the corpus into a concurrent map using a parallel stream.
+	 * This is run with the bulk traversal of the word spliterator and with
+	 * a wrapper that only offers <code>tryAdvance</code>, i.e. uses the default
+	 * <code>forEachRemaining</code> implementation.
+	 * @throws IOException in case of error
+	 */
+	public void count() throws IOException {
+		double reference = 0;
+		for (boolean bulk : new boolean[] { false, true }) {
+			long best = Long.MAX_VALUE;
+			int unique = 0;
+			for (int i = 0; i < RUNS; i++) {
+				final WordSpliterator spliterator = new WordSpliterator(corpus, 1024*1024);
+				final long then = System.nanoTime();
+				final AtomicInteger one = new AtomicInteger(1);
+				final Map<Word, AtomicInteger> words = StreamSupport
+					.stream(bulk ? spliterator : new TryAdvanceOnly(spliterator), true)
+					.collect(
+						Collectors.<Word, Word, AtomicInteger>toConcurrentMap(
+							word -> word,
+							word -> one,
+							(oldValue, newValue) -> {
+								if (oldValue == one) {
+									return new AtomicInteger(1+newValue.get());
+								}
+								oldValue.addAndGet(newValue.get());
+								return oldValue;
+							}
+						)
+					);
+				best = Math.min(best, System.nanoTime() - then);
+				unique = words.size();
+			}
+			final double millis = best/1000000d;
+			if (!bulk) {
+				reference = millis;
+			}
+			System.out.printf("%-12s %8d unique %10.1fms speedup %5.2f%n", bulk ? "bulk" : "tryAdvance", Integer.valueOf(unique), Double.valueOf(millis), Double.valueOf(reference/millis));
+		}
+	}
+
+	/**
+	 * Compares fixed splitting thresholds with the adaptive threshold. The
+	 * words of the corpus are counted using a parallel stream; the best time
+	 * is reported together with the split tree statistics of the last run.
+	 * @throws IOException in case of error
+	 */
+	public void splits() throws IOException {
+		System.out.printf("parallelism %d, corpus %d bytes%n", Integer.valueOf(ForkJoinPool.getCommonPoolParallelism()), Long.valueOf(corpus.length()));
+		for (int threshold : new int[] { 8192, 1024*1024, WordSpliterator.ADAPTIVE_THRESHOLD }) {
+			long best = Long.MAX_VALUE;
+			SplitStatistics statistics = null;
+			for (int i = 0; i < RUNS; i++) {
+				final WordSpliterator spliterator = new WordSpliterator(corpus, threshold);
+				statistics = new SplitStatistics();
+				spliterator.setStatistics(statistics);
+				final long then = System.nanoTime();
+				StreamSupport.stream(spliterator, true).count();
+				best = Math.min(best, System.nanoTime() - then);
+			}
+			System.out.printf("%n%s threshold: %.1fms%n%s%n", threshold == WordSpliterator.ADAPTIVE_THRESHOLD ? "adaptive" : Integer.toString(threshold), Double.valueOf(best/1000000d), statistics);
+		}
+	}
+
+	/**
+	 * Compares mapping the corpus with positional reads at several block sizes.
+	 * The words of the corpus are counted using a parallel stream.
+	 */
+	public void io() {
+		final WordSpliteratorProviderImpl mapped = new WordSpliteratorProviderImpl();
+		System.out.printf("%-20s %10.1fms%n", "mapped", Double.valueOf(countWords(mapped)));
+		for (int blockSize : new int[] { 64*1024, 256*1024, 1024*1024, 4*1024*1024 }) {
+			final WordSpliteratorProviderImpl positional = new WordSpliteratorProviderImpl(TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, WordSpliteratorProviderImpl.IoMode.POSITIONAL, blockSize);
+			System.out.printf("%-20s %10.1fms%n", "positional "+(blockSize/1024)+"K", Double.valueOf(countWords(positional)));
+		}
+	}
+
+	/**
+	 * Compares looking up a word by scanning the corpus with a parallel
+	 * <code>findAny</code>, like the challenger does, with looking it up in a
+	 * word index. The time to build the index is reported as well.
+	 * @throws IOException in case of error
+	 */
+	public void index() throws IOException {
+		final Word agony = Word.from("AGONY");
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			final long then = System.nanoTime();
+			try (final WordSpliterator spliterator = new WordSpliterator(corpus)) {
+				StreamSupport.stream(spliterator, true).filter(agony::equals).findAny();
+			}
+			best = Math.min(best, System.nanoTime() - then);
+		}
+		System.out.printf("%-20s %12.1fus%n", "scan", Double.valueOf(best/1000d));
+		final File file = File.createTempFile("wordbenchmark-", ".idx");
+		try {
+			best = Long.MAX_VALUE;
+			for (int i = 0; i < RUNS; i++) {
+				final long then = System.nanoTime();
+				new WordIndexBuilder().build(Collections.singletonList(corpus), file);
+				best = Math.min(best, System.nanoTime() - then);
+			}
+			System.out.printf("%-20s %12.1fus (%d bytes)%n", "build index", Double.valueOf(best/1000d), Long.valueOf(file.length()));
+			try (final WordIndex index = new WordIndex(file)) {
+				final int lookups = 100000;
+				for (int run = 0; run < RUNS; run++) {
+					final long then = System.nanoTime();
+					int found = 0;
+					for (int i = 0; i < lookups; i++) {
+						found += index.count(agony);
+					}
+					best = System.nanoTime() - then;
+					if (run == RUNS - 1) {
+						System.out.printf("%-20s %12.3fus (%d occurrences)%n", "index lookup", Double.valueOf(best/1000d/lookups), Integer.valueOf(found/lookups));
+					}
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Compares searching a word in the parallel stream of the words of the corpus
+	 * with searching its bytes, for a word that occurs and one that does not.
+	 */
+	public void search() {
+		final WordSpliteratorProviderImpl provider = new WordSpliteratorProviderImpl();
+		for (String string : new String[] { "AGONY", "XYZZY" }) {
+			final Word word = Word.from(string);
+			long tokenized = Long.MAX_VALUE;
+			long searched = Long.MAX_VALUE;
+			for (int i = 0; i < RUNS; i++) {
+				long then = System.nanoTime();
+				try (final Stream<Word> words = provider.words(corpus)) {
+					words.filter(word::equals).findAny();
+				}
+				tokenized = Math.min(tokenized, System.nanoTime() - then);
+				then = System.nanoTime();
+				provider.find(corpus, word);
+				searched = Math.min(searched, System.nanoTime() - then);
+			}
+			System.out.printf("%-20s %12.1fus%n", "stream "+string, Double.valueOf(tokenized/1000d));
+			System.out.printf("%-20s %12.1fus%n", "find "+string, Double.valueOf(searched/1000d));
+		}
+	}
+
+	/**
+	 * Compares counting the distinct words of the corpus exactly with
+	 * estimating their number using sketches of several precisions.
+	 * @throws IOException in case of error
+	 */
+	public void distinct() throws IOException {
+		long exact = 0;
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			final long then = System.nanoTime();
+			exact = DistinctWords.count(corpus);
+			best = Math.min(best, System.nanoTime() - then);
+		}
+		System.out.printf("%-16s %10d %10.1fms%n", "exact", Long.valueOf(exact), Double.valueOf(best/1e6));
+		for (int precision : new int[] { 10, HyperLogLog.DEFAULT_PRECISION, HyperLogLog.MAX_PRECISION }) {
+			long estimate = 0;
+			best = Long.MAX_VALUE;
+			for (int i = 0; i < RUNS; i++) {
+				final long then = System.nanoTime();
+				estimate = DistinctWords.estimate(corpus, precision);
+				best = Math.min(best, System.nanoTime() - then);
+			}
+			System.out.printf("%-16s %10d %10.1fms %+6.2f%%%n", "precision "+precision, Long.valueOf(estimate), Double.valueOf(best/1e6), Double.valueOf(100d*(estimate - exact)/exact));
+		}
+	}
+
+	/**
+	 * Compares counting the words of the corpus in a parallel stream with and
+	 * without a prefetcher, on a warm and on a cold page cache. The page cache
+	 * is dropped before each cold run, which requires Linux and root privileges;
+	 * otherwise only the warm runs are reported.
+	 * @throws IOException in case of error
+	 */
+	public void prefetch() throws IOException {
+		final File dropCaches = new File("/proc/sys/vm/drop_caches");
+		final boolean cold = dropCaches.canWrite();
+		for (boolean prefetching : new boolean[] { false, true }) {
+			long warm = Long.MAX_VALUE;
+			long coldest = Long.MAX_VALUE;
+			for (int i = 0; i < RUNS; i++) {
+				warm = Math.min(warm, countPrefetched(prefetching));
+			}
+			for (int i = 0; cold && i < RUNS; i++) {
+				try (final FileOutputStream out = new FileOutputStream(dropCaches)) {
+					out.write('3');
+				}
+				coldest = Math.min(coldest, countPrefetched(prefetching));
+			}
+			final String name = prefetching ? "prefetch" : "no prefetch";
+			System.out.printf("%-20s warm %10.1fms %8.1fMB/s%n", name, Double.valueOf(warm/1000000d), Double.valueOf(corpus.length()*1000d/warm));
+			if (cold) {
+				System.out.printf("%-20s cold %10.1fms %8.1fMB/s%n", name, Double.valueOf(coldest/1000000d), Double.valueOf(corpus.length()*1000d/coldest));
+			}
+		}
+	}
+
+	private long countPrefetched(final boolean prefetching) throws IOException {
+		final long then = System.nanoTime();
+		try (final WordSpliterator spliterator = new WordSpliterator(corpus);
+			final Prefetcher prefetcher = prefetching ? new Prefetcher() : null) {
+			spliterator.setPrefetcher(prefetcher);
+			StreamSupport.stream(spliterator, true).count();
+		}
+		return System.nanoTime() - then;
+	}
+
+	/**
+	 * Counts the words of the corpus in a parallel stream using the given provider.
+	 * @param provider the provider to use
+	 * @return the best time in milliseconds
+	 */
+	protected double countWords(final WordSpliteratorProviderImpl provider) {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			final long then = System.nanoTime();
+			try (final Stream<Word> words = provider.words(corpus)) {
+				words.count();
+			}
+			best = Math.min(best, System.nanoTime() - then);
+		}
+		return best/1000000d;
+	}
+
+	/**
+	 * Counts the words of the given file in a parallel stream executed by the given pool.
+	 * @param pool the pool to use
+	 * @param file the file to count the words of
+	 * @return the number of words
+	 * @throws InterruptedException in case of error
+	 * @throws ExecutionException in case of error
+	 */
+	protected long countWords(final ForkJoinPool pool, final File file) throws InterruptedException, ExecutionException {
+		return pool.submit(() -> {
+			try (final WordSpliterator spliterator = new WordSpliterator(file, 1024*1024)) {
+				return Long.valueOf(StreamSupport.stream(spliterator, true).count());
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}).get().longValue();
+	}
+
+	/**
+	 * Hides the bulk traversal of a word spliterator.
+	 */
+	private static class TryAdvanceOnly implements Spliterator<Word> {
+
+		private final Spliterator<Word> delegate;
+
+		TryAdvanceOnly(final Spliterator<Word> spliterator) {
+			delegate = spliterator;
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super Word> action) {
+			return delegate.tryAdvance(action);
+		}
+
+		@Override
+		public Spliterator<Word> trySplit() {
+			final Spliterator<Word> split = delegate.trySplit();
+			return split == null ? null : new TryAdvanceOnly(split);
+		}
+
+		@Override
+		public long estimateSize() {
+			return delegate.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return delegate.characteristics();
+		}
+
+	}
+
+}
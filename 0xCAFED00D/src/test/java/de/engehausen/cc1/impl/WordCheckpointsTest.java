@@ -0,0 +1,136 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.StreamSupport;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+import de.engehausen.cc1.examples.Words;
+
+/**
+ * Tests the word checkpoints and the exact sizes of spliterators using them.
+ */
+public class WordCheckpointsTest {
+
+	private static final int REPEATS = 300;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private long words;
+
+	@Before
+	public void setup() throws IOException {
+		file = folder.newFile();
+		Files.write(file.toPath(), TestWords.loremIpsum(REPEATS).getBytes(StandardCharsets.US_ASCII));
+		words = REPEATS*Words.getLoreIpsumStream().count();
+	}
+
+	@Test
+	public void testBuildAndLoad() throws IOException {
+		Assert.assertNull(WordCheckpoints.load(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII));
+		final WordCheckpoints built = WordCheckpoints.build(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 1024);
+		Assert.assertEquals(words, built.getWordCount());
+		Assert.assertEquals(file.length(), built.getFileSize());
+		Assert.assertTrue(WordCheckpoints.getSidecar(file).isFile());
+		final WordCheckpoints loaded = WordCheckpoints.load(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII);
+		Assert.assertNotNull(loaded);
+		Assert.assertEquals(words, loaded.getWordCount());
+		Assert.assertEquals(1024, loaded.getInterval());
+		Assert.assertEquals(built.getCheckpointCount(), loaded.getCheckpointCount());
+		// built for another tokenization
+		Assert.assertNull(WordCheckpoints.load(file, TokenAlphabet.LETTERS_AND_DIGITS, StandardCharsets.US_ASCII));
+		Assert.assertNull(WordCheckpoints.load(file, TokenAlphabet.LETTERS, StandardCharsets.UTF_8));
+		// outdated
+		Assert.assertTrue(file.setLastModified(file.lastModified() - 10000));
+		Assert.assertNull(WordCheckpoints.load(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII));
+		Assert.assertEquals(words, WordCheckpoints.get(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII).getWordCount());
+	}
+
+	@Test
+	public void testExactSizes() throws IOException {
+		final WordCheckpoints checkpoints = WordCheckpoints.build(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 1024);
+		// small windows and thresholds, splitting ranges not mapped yet as well as windows
+		for (int windowSize : new int[] { 4096, 100000, WordSpliterator.DEFAULT_WINDOW_SIZE }) {
+			try (final WordSpliterator spliterator = new WordSpliterator(file, 2048, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, windowSize)) {
+				spliterator.setCheckpoints(checkpoints);
+				Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED|Spliterator.SUBSIZED));
+				Assert.assertEquals(words, spliterator.getExactSizeIfKnown());
+				Assert.assertEquals(words, countSplits(spliterator));
+			}
+			try (final WordSpliterator spliterator = new WordSpliterator(file, 2048, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, windowSize)) {
+				spliterator.setCheckpoints(checkpoints);
+				// allocates the array once, failing if the size is not exact
+				Assert.assertEquals(words, StreamSupport.stream(spliterator, true).toArray(Word[]::new).length);
+			}
+		}
+	}
+
+	@Test
+	public void testPartlyTraversed() throws IOException {
+		final WordCheckpoints checkpoints = WordCheckpoints.build(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 512);
+		try (final WordSpliterator spliterator = new WordSpliterator(file, 2048, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 8192)) {
+			spliterator.setCheckpoints(checkpoints);
+			for (int i = 0; i < 100; i++) {
+				Assert.assertTrue(spliterator.tryAdvance(word -> { /* skipped */ }));
+			}
+			Assert.assertEquals(words - 100, spliterator.estimateSize());
+			Assert.assertEquals(words - 100, countSplits(spliterator));
+		}
+	}
+
+	@Test
+	public void testProvider() throws IOException {
+		final WordSpliteratorProviderImpl provider = new WordSpliteratorProviderImpl();
+		Assert.assertFalse(provider.getWordSpliterator(file).hasCharacteristics(Spliterator.SIZED));
+		WordCheckpoints.build(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, WordCheckpoints.DEFAULT_INTERVAL);
+		final Spliterator<Word> spliterator = provider.getWordSpliterator(file);
+		Assert.assertEquals(words, spliterator.getExactSizeIfKnown());
+		((WordSpliterator) spliterator).close();
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		Files.write(file.toPath(), new byte[0]);
+		final WordCheckpoints checkpoints = WordCheckpoints.build(file, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 1024);
+		Assert.assertEquals(0, checkpoints.getWordCount());
+		try (final WordSpliterator spliterator = new WordSpliterator(file)) {
+			spliterator.setCheckpoints(checkpoints);
+			Assert.assertEquals(0, spliterator.getExactSizeIfKnown());
+			Assert.assertFalse(spliterator.tryAdvance(word -> { /* none */ }));
+		}
+	}
+
+	/**
+	 * Splits the given spliterator recursively, checking that the exact size of
+	 * each part is the number of words it traverses.
+	 * @param spliterator the spliterator
+	 * @return the number of words traversed
+	 */
+	private static long countSplits(final Spliterator<Word> spliterator) {
+		final long size = spliterator.getExactSizeIfKnown();
+		final Spliterator<Word> split = spliterator.trySplit();
+		if (split != null) {
+			final long total = countSplits(split) + countSplits(spliterator);
+			Assert.assertEquals(size, total);
+			return total;
+		}
+		final AtomicLong count = new AtomicLong();
+		spliterator.forEachRemaining(word -> count.incrementAndGet());
+		Assert.assertEquals(size, count.get());
+		return count.get();
+	}
+
+}
@@ -0,0 +1,155 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Tests the word index.
+ */
+public class WordIndexTest {
+
+	private static final int REPEATS = 200;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File lorem;
+	private File greek;
+	private File index;
+
+	@Before
+	public void setup() throws IOException {
+		lorem = folder.newFile();
+		Files.write(lorem.toPath(), TestWords.loremIpsum(REPEATS).getBytes(StandardCharsets.US_ASCII));
+		greek = folder.newFile();
+		Files.write(greek.toPath(), "alpha beta gamma\ndelta ipsum alpha".getBytes(StandardCharsets.US_ASCII));
+		index = folder.newFile("words.idx");
+		new WordIndexBuilder().build(Arrays.asList(lorem, greek), index);
+	}
+
+	/**
+	 * The index holds the same words and offsets as a scan of the files.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testOffsets() throws IOException {
+		final Map<Word, List<Long>> expected = new HashMap<>();
+		long start = 0;
+		for (File file : new File[] { lorem, greek }) {
+			final long offset = start;
+			new WordSpliterator(file).forEachOccurrence((word, position) -> expected.computeIfAbsent(word, key -> new ArrayList<>()).add(Long.valueOf(offset + position)));
+			start += file.length();
+		}
+		try (final WordIndex wordIndex = new WordIndex(index)) {
+			Assert.assertEquals(2, wordIndex.getDocumentCount());
+			Assert.assertEquals(lorem.getAbsoluteFile(), wordIndex.getDocument(0));
+			Assert.assertEquals(expected.size(), wordIndex.getWordCount());
+			Assert.assertEquals(expected.values().stream().mapToLong(List::size).sum(), wordIndex.getOccurrenceCount());
+			for (Map.Entry<Word, List<Long>> entry : expected.entrySet()) {
+				final Word word = entry.getKey();
+				Assert.assertTrue(wordIndex.contains(word));
+				Assert.assertEquals(entry.getValue().size(), wordIndex.count(word));
+				Assert.assertArrayEquals(entry.getValue().stream().mapToLong(Long::longValue).toArray(), wordIndex.offsets(word));
+			}
+			Assert.assertFalse(wordIndex.contains(Word.from("AGONY")));
+			Assert.assertEquals(0, wordIndex.count(Word.from("AAA")));
+			Assert.assertEquals(0, wordIndex.offsets(Word.from("ZZZ")).length);
+			Assert.assertTrue(wordIndex.isUpToDate());
+		}
+	}
+
+	/**
+	 * An index built in a small memory budget, spilling the offsets to run files,
+	 * is the same as one built in memory. The run files are deleted.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testSpilling() throws IOException {
+		final File directory = folder.newFolder();
+		final File spilled = new File(directory, "spilled.idx");
+		new WordIndexBuilder(TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 32*1024*(ForkJoinPool.getCommonPoolParallelism() + 1)).build(Arrays.asList(lorem, greek), spilled);
+		Assert.assertArrayEquals(Files.readAllBytes(index.toPath()), Files.readAllBytes(spilled.toPath()));
+		Assert.assertArrayEquals(new String[] { "spilled.idx" }, directory.list());
+	}
+
+	/**
+	 * An index exceeding the maximum size is rejected while merging the postings,
+	 * or when writing the dictionary; the index file is left as it was.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testTooLarge() throws IOException {
+		final byte[] before = Files.readAllBytes(index.toPath());
+		for (long maxSize : new long[] { 1024, index.length() - 1 }) {
+			try {
+				new WordIndexBuilder(TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, WordIndexBuilder.DEFAULT_BUDGET, maxSize).build(Arrays.asList(lorem, greek), index);
+				Assert.fail("too large: "+maxSize);
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Index too large"));
+			}
+			Assert.assertArrayEquals(before, Files.readAllBytes(index.toPath()));
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBudgetTooSmall() {
+		new WordIndexBuilder(TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 1024);
+	}
+
+	@Test
+	public void testDocuments() throws IOException {
+		try (final WordIndex wordIndex = new WordIndex(index)) {
+			Assert.assertArrayEquals(new int[] { 0, 1 }, wordIndex.documents(Word.from("IPSUM")));
+			Assert.assertArrayEquals(new int[] { 1 }, wordIndex.documents(Word.from("IPSUM"), Word.from("ALPHA")));
+			Assert.assertArrayEquals(new int[0], wordIndex.documents(Word.from("LOREM"), Word.from("ALPHA")));
+			Assert.assertArrayEquals(new int[0], wordIndex.documents(Word.from("LOREM"), Word.from("AGONY")));
+			final long offset = wordIndex.offsets(Word.from("DELTA"))[0];
+			Assert.assertEquals(1, wordIndex.getDocumentIndex(offset));
+			Assert.assertEquals(lorem.length(), wordIndex.getDocumentStart(1));
+			Assert.assertEquals(-1, wordIndex.getDocumentIndex(lorem.length() + greek.length()));
+		}
+	}
+
+	@Test
+	public void testNear() throws IOException {
+		try (final WordIndex wordIndex = new WordIndex(index)) {
+			// "lorem ipsum" once per line of the first file, "delta ipsum" once in the second
+			Assert.assertEquals(REPEATS, wordIndex.near(6, Word.from("LOREM"), Word.from("IPSUM")).length);
+			Assert.assertArrayEquals(wordIndex.offsets(Word.from("DELTA")), wordIndex.near(6, Word.from("DELTA"), Word.from("IPSUM")));
+			// the last word of the first file is not near the first word of the second
+			Assert.assertEquals(0, wordIndex.near(20, Word.from("LABORUM"), Word.from("ALPHA")).length);
+			Assert.assertEquals(0, wordIndex.near(1000, Word.from("LOREM"), Word.from("GAMMA")).length);
+		}
+	}
+
+	@Test
+	public void testUpToDate() throws IOException {
+		Files.write(greek.toPath(), "changed".getBytes(StandardCharsets.US_ASCII));
+		try (final WordIndex wordIndex = new WordIndex(index)) {
+			Assert.assertFalse(wordIndex.isUpToDate());
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void testNotAnIndex() throws IOException {
+		new WordIndex(lorem).close();
+	}
+
+}
@@ -0,0 +1,86 @@
+package de.engehausen.cc1.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+
+/**
+ * Tests the word scanner, in particular that SWAR scanning
+ * finds the same words as the table-based scanning.
+ */
+public class WordScannerTest {
+
+	@Test
+	public void testLetters() {
+		// all 256 byte values, only A-Z and a-z are letters
+		for (int b = 0; b < 256; b++) {
+			final long block = 0x2020202020202000L | b;
+			final boolean letter = (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+			Assert.assertEquals(Integer.toHexString(b), letter ? 0x80L : 0L, WordScanner.letters(block));
+		}
+	}
+
+	@Test
+	public void testSimple() {
+		final byte[] text = "  Lorem ipsum, dolor sit AMET consectetur\u00e9adipiscing-elit x".getBytes(StandardCharsets.ISO_8859_1);
+		final List<String> expected = Arrays.asList("LOREM", "IPSUM", "DOLOR", "SIT", "AMET", "CONSECTETUR", "ADIPISCING", "ELIT", "X");
+		Assert.assertEquals(expected, words(new WordScanner(TokenAlphabet.LETTERS.getTable(), true), text));
+		Assert.assertEquals(expected, words(new WordScanner(TokenAlphabet.LETTERS.getTable(), false), text));
+	}
+
+	@Test
+	public void testEmpty() {
+		final WordScanner scanner = new WordScanner(TokenAlphabet.LETTERS.getTable());
+		Assert.assertEquals(-1L, scanner.next(ByteBuffer.allocate(0)));
+		Assert.assertEquals(-1L, scanner.next(ByteBuffer.wrap(" .,;:-!?0123456789\n".getBytes(StandardCharsets.US_ASCII))));
+	}
+
+	@Test
+	public void testRandom() {
+		final Random random = new Random(667);
+		final byte[] text = new byte[65536];
+		for (int i = 0; i < text.length; i++) {
+			// mostly letters, some separators, some high bit bytes
+			final int r = random.nextInt(16);
+			if (r < 12) {
+				text[i] = (byte) ((r < 6 ? 'a' : 'A') + random.nextInt(26));
+			} else if (r < 15) {
+				text[i] = (byte) random.nextInt(128);
+			} else {
+				text[i] = (byte) (128 + random.nextInt(128));
+			}
+		}
+		final byte[] table = TokenAlphabet.LETTERS.getTable();
+		Assert.assertEquals(words(new WordScanner(table, false), text), words(new WordScanner(table, true), text));
+	}
+
+	@Test
+	public void testBoundaries() {
+		final ByteBuffer buffer = ByteBuffer.wrap("..abc...DEFGHIJKLMN".getBytes(StandardCharsets.US_ASCII));
+		final WordScanner scanner = new WordScanner(TokenAlphabet.LETTERS.getTable());
+		long word = scanner.next(buffer);
+		Assert.assertEquals(2, WordScanner.offset(word));
+		Assert.assertEquals(3, WordScanner.length(word));
+		word = scanner.next(buffer);
+		Assert.assertEquals(8, WordScanner.offset(word));
+		Assert.assertEquals(11, WordScanner.length(word));
+		Assert.assertEquals(-1L, scanner.next(buffer));
+	}
+
+	protected List<String> words(final WordScanner scanner, final byte[] text) {
+		final List<String> result = new ArrayList<>();
+		scanner.scan(ByteBuffer.wrap(text), (buffer, offset, length) -> {
+			result.add(new String(scanner.fold(buffer, offset, length), 0, length, StandardCharsets.ISO_8859_1));
+		});
+		return result;
+	}
+
+}
@@ -0,0 +1,103 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Tests the search for a single word.
+ */
+public class WordSearchTest {
+
+	private static final String TEXT = "AGONY agony,Agony xagony agonyx agon\nagony1 AGONY";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setup() throws IOException {
+		file = folder.newFile();
+	}
+
+	@Test
+	public void testWholeWords() throws IOException {
+		write(TEXT);
+		// "xagony", "agonyx" and "agon" are no occurrences; the digit separates "agony1"
+		final long[] expected = { 0, 6, 12, 37, 44 };
+		for (int rangeSize : new int[] { 1, 3, 7, 16, WordSpliterator.ADAPTIVE_THRESHOLD }) {
+			final WordSearch search = new WordSearch(file, Word.from("AGONY"), TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, rangeSize);
+			Assert.assertArrayEquals("range size "+rangeSize, expected, search.findAll());
+			Assert.assertEquals("range size "+rangeSize, expected.length, search.count());
+			Assert.assertTrue(search.find() >= 0);
+		}
+		Assert.assertEquals(-1, new WordSearch(file, Word.from("GONY"), TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 4).find());
+		Assert.assertArrayEquals(new long[] { 32 }, new WordSearch(file, Word.from("AGON"), TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 4).findAll());
+	}
+
+	@Test
+	public void testSameAsTokenizer() throws IOException {
+		write(TestWords.loremIpsum(50));
+		for (String string : new String[] { "IN", "DOLOR", "LABORUM", "A" }) {
+			final Word target = Word.from(string);
+			final List<Long> offsets = new ArrayList<>();
+			new WordSpliterator(file).forEachOccurrence((word, offset) -> {
+				if (word == target) {
+					offsets.add(Long.valueOf(offset));
+				}
+			});
+			final long[] expected = offsets.stream().mapToLong(Long::longValue).toArray();
+			for (int rangeSize : new int[] { 100, 4096, WordSpliterator.ADAPTIVE_THRESHOLD }) {
+				final WordSearch search = new WordSearch(file, target, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, rangeSize);
+				Assert.assertArrayEquals(string, expected, search.findAll());
+				Assert.assertEquals(string, expected.length, search.count());
+				Assert.assertEquals(string, expected.length > 0, search.find() >= 0);
+			}
+		}
+	}
+
+	@Test
+	public void testSupported() {
+		Assert.assertTrue(WordSearch.isSupported(Word.from("AGONY"), TokenAlphabet.LETTERS, StandardCharsets.US_ASCII));
+		Assert.assertTrue(WordSearch.isSupported(Word.from("AGONY"), TokenAlphabet.LETTERS, StandardCharsets.UTF_8));
+		Assert.assertFalse(WordSearch.isSupported(Word.from("AGONY"), TokenAlphabet.compile("\\p{L}"), StandardCharsets.UTF_8));
+		Assert.assertFalse(WordSearch.isSupported(Word.from("AGONY1"), TokenAlphabet.LETTERS, StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testProvider() throws IOException {
+		write(TEXT);
+		final WordSpliteratorProviderImpl provider = new WordSpliteratorProviderImpl();
+		Assert.assertTrue(provider.find(file, Word.from("AGONY")));
+		Assert.assertFalse(provider.find(file, Word.from("XAGONYX")));
+		Assert.assertEquals(5, provider.findAll(file, Word.from("AGONY")));
+		// not searchable, the default implementations tokenize the file
+		final WordSpliteratorProviderImpl unicode = new WordSpliteratorProviderImpl(TokenAlphabet.compile("\\p{L}"), StandardCharsets.UTF_8);
+		Assert.assertTrue(unicode.find(file, Word.from("AGONY")));
+		Assert.assertEquals(5, unicode.findAll(file, Word.from("AGONY")));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		Assert.assertEquals(-1, new WordSearch(file, Word.from("A"), TokenAlphabet.LETTERS, StandardCharsets.US_ASCII).find());
+		Assert.assertEquals(0, new WordSearch(file, Word.from("A"), TokenAlphabet.LETTERS, StandardCharsets.US_ASCII).findAll().length);
+	}
+
+	private void write(final String text) throws IOException {
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.US_ASCII));
+	}
+
+}
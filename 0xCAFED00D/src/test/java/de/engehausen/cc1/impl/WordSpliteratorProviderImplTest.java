@@ -1,14 +1,18 @@
 package de.engehausen.cc1.impl;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Spliterator;
+import java.util.stream.Stream;
 
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import de.engehausen.cc1.api.TokenAlphabet;
 import de.engehausen.cc1.api.Word;
 
 /**
@@ -41,6 +45,29 @@ public class WordSpliteratorProviderImplTest {
 		while (spliterator.tryAdvance( w -> {/*ignore*/} ));
 	}
 
+	@Test
+	public void testWords() throws IOException {
+		try (final FileOutputStream fos = new FileOutputStream(file)) {
+			fos.write("one two three".getBytes(StandardCharsets.US_ASCII));
+		}
+		final long mapped = WordSpliterator.getMappedBytes();
+		try (final Stream<Word> words = new WordSpliteratorProviderImpl().words(file)) {
+			Assert.assertEquals(3, words.count());
+		}
+		Assert.assertEquals(mapped, WordSpliterator.getMappedBytes());
+	}
+
+	@Test
+	public void testPositional() throws IOException {
+		try (final FileOutputStream fos = new FileOutputStream(file)) {
+			fos.write("one two three four".getBytes(StandardCharsets.US_ASCII));
+		}
+		final WordSpliteratorProviderImpl provider = new WordSpliteratorProviderImpl(TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, WordSpliteratorProviderImpl.IoMode.POSITIONAL, 8);
+		try (final Stream<Word> words = provider.words(file)) {
+			Assert.assertEquals(4, words.count());
+		}
+	}
+
 	@Test(expected=IllegalStateException.class)
 	public void testFileDoesNotExist() {
 		new WordSpliteratorProviderImpl().getWordSpliterator(new File("DOES-NOT-EXIST"));
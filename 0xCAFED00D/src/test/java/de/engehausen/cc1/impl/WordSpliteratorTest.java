@@ -3,7 +3,16 @@ package de.engehausen.cc1.impl;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.stream.Collectors;
@@ -12,6 +21,7 @@ import java.util.stream.StreamSupport;
 import org.junit.Assert;
 import org.junit.Test;
 
+import de.engehausen.cc1.api.TokenAlphabet;
 import de.engehausen.cc1.api.Word;
 import de.engehausen.cc1.examples.Words;
 
@@ -55,6 +65,479 @@ public class WordSpliteratorTest {
 		Assert.assertEquals(expected, collect(200000, true));
 	}
 	
+	/**
+	 * The bulk traversal must produce the same words as repeated <code>tryAdvance</code> calls.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testForEachRemaining() throws IOException {
+		final File tempFile = createWordFile(3);
+		try {
+			final List<Word> expected = new ArrayList<>();
+			final WordSpliterator single = new WordSpliterator(tempFile);
+			while (single.tryAdvance(expected::add));
+			final List<Word> actual = new ArrayList<>();
+			final WordSpliterator bulk = new WordSpliterator(tempFile);
+			// mix both styles of traversal
+			Assert.assertTrue(bulk.tryAdvance(actual::add));
+			bulk.forEachRemaining(actual::add);
+			Assert.assertEquals(expected, actual);
+			Assert.assertEquals(3*Words.getLoreIpsumStream().count(), actual.size());
+			Assert.assertFalse(bulk.tryAdvance(actual::add));
+		} finally {
+			deleteFile(tempFile);
+		}
+	}
+
+	/**
+	 * Mapping the file in small windows and splitting across and within windows
+	 * must produce the same words as mapping it at once.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testWindows() throws IOException {
+		final File tempFile = createWordFile(50);
+		try {
+			final List<Word> expected = new ArrayList<>();
+			new WordSpliterator(tempFile).forEachRemaining(expected::add);
+			for (int windowSize : new int[] { 16, 100, 4096, 65536 }) {
+				final List<Word> actual = new ArrayList<>();
+				final WordSpliterator sequential = new WordSpliterator(tempFile, 8192, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, windowSize);
+				while (sequential.tryAdvance(actual::add));
+				Assert.assertEquals(expected, actual);
+				actual.clear();
+				split(new WordSpliterator(tempFile, 64, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, windowSize), actual);
+				Assert.assertEquals(expected.size(), actual.size());
+				Assert.assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+			}
+		} finally {
+			deleteFile(tempFile);
+		}
+	}
+
+	/**
+	 * Reading the file in small blocks using positional reads must produce
+	 * the same words as mapping it. The pooled buffers must be given back.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testPositional() throws IOException {
+		final File tempFile = createWordFile(50);
+		try {
+			final List<Word> expected = new ArrayList<>();
+			new WordSpliterator(tempFile).forEachRemaining(expected::add);
+			for (int blockSize : new int[] { 16, 100, 4096, 65536 }) {
+				final BufferPool pool = new BufferPool(blockSize, 4);
+				final List<Word> actual = new ArrayList<>();
+				final WordSpliterator sequential = new WordSpliterator(tempFile, 8192, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, pool);
+				while (sequential.tryAdvance(actual::add));
+				Assert.assertEquals(expected, actual);
+				actual.clear();
+				split(new WordSpliterator(tempFile, 64, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, pool), actual);
+				Assert.assertEquals(expected.size(), actual.size());
+				Assert.assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+				// the buffer is reused
+				final ByteBuffer buffer = pool.acquire();
+				pool.release(buffer);
+				Assert.assertSame(buffer, pool.acquire());
+			}
+		} finally {
+			deleteFile(tempFile);
+		}
+	}
+
+	/**
+	 * Windows are unmapped once iterated, and on closing the spliterator.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testClose() throws IOException {
+		final File tempFile = createWordFile(50);
+		try {
+			final long mapped = WordSpliterator.getMappedBytes();
+			final WordSpliterator spliterator = new WordSpliterator(tempFile, 64, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 4096);
+			Assert.assertEquals(mapped, WordSpliterator.getMappedBytes());
+			final Spliterator<Word> other = spliterator.trySplit();
+			Assert.assertNotNull(other);
+			Assert.assertTrue(spliterator.tryAdvance(w -> { /*ignore*/}));
+			Assert.assertTrue(other.tryAdvance(w -> { /*ignore*/}));
+			Assert.assertEquals(mapped + 2*4096, WordSpliterator.getMappedBytes());
+			other.forEachRemaining(w -> { /*ignore*/});
+			Assert.assertEquals(mapped + 4096, WordSpliterator.getMappedBytes());
+			spliterator.close();
+			Assert.assertEquals(mapped, WordSpliterator.getMappedBytes());
+			try {
+				other.tryAdvance(w -> { /*ignore*/});
+				Assert.fail("closed");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		} finally {
+			deleteFile(tempFile);
+		}
+	}
+
+	/**
+	 * An interrupt closes the channel of the windows, which is opened again
+	 * for the next read.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testInterruptedRead() throws IOException {
+		final File tempFile = createWordFile(50);
+		try (final FileWindows windows = new FileWindows(tempFile, 4096)) {
+			final ByteBuffer bytes = ByteBuffer.allocate(16);
+			Thread.currentThread().interrupt();
+			try {
+				windows.read(bytes, 0L);
+				Assert.fail("interrupted");
+			} catch (ClosedByInterruptException e) {
+				// expected, clears the interrupt
+				Assert.assertTrue(Thread.interrupted());
+			}
+			bytes.clear();
+			windows.read(bytes, 0L);
+			Assert.assertFalse(bytes.hasRemaining());
+			final FileWindows.Window window = windows.map(0L, 4096);
+			Assert.assertEquals(bytes.get(0), window.buffer().get(0));
+			windows.release(window);
+		} finally {
+			deleteFile(tempFile);
+		}
+	}
+
+	@Test
+	public void testAdaptiveThreshold() {
+		// small files are not split
+		Assert.assertEquals(64*1024, WordSpliterator.adaptiveThreshold(1000, 8));
+		// four leaves per worker
+		Assert.assertEquals(1024*1024, WordSpliterator.adaptiveThreshold(32*1024*1024, 8));
+		Assert.assertEquals(8*1024*1024, WordSpliterator.adaptiveThreshold(32*1024*1024, 1));
+		// never more than a window
+		Assert.assertEquals(WordSpliterator.DEFAULT_WINDOW_SIZE, WordSpliterator.adaptiveThreshold(100L*1024*1024*1024, 4));
+	}
+
+	/**
+	 * The estimated number of words is based on samples and must be
+	 * close to the actual number of words.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testEstimateSize() throws IOException {
+		final File tempFile = createWordFile(500);
+		try {
+			final WordSpliterator spliterator = new WordSpliterator(tempFile);
+			final long estimate = spliterator.estimateSize();
+			final long actual = 500*Words.getLoreIpsumStream().count();
+			Assert.assertTrue(estimate+" vs. "+actual, Math.abs(estimate - actual) < actual / 10);
+		} finally {
+			deleteFile(tempFile);
+		}
+	}
+
+	/**
+	 * The split statistics must account for all bytes and words.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testStatistics() throws IOException {
+		final File tempFile = createWordFile(500);
+		try {
+			final WordSpliterator spliterator = new WordSpliterator(tempFile, 4096);
+			final SplitStatistics statistics = new SplitStatistics();
+			spliterator.setStatistics(statistics);
+			final long words = StreamSupport.stream(spliterator, true).count();
+			Assert.assertEquals(500*Words.getLoreIpsumStream().count(), words);
+			final List<SplitStatistics.Leaf> leaves = statistics.getLeaves();
+			Assert.assertEquals(statistics.getSplitCount() + 1, leaves.size());
+			Assert.assertEquals(words, leaves.stream().mapToLong(SplitStatistics.Leaf::getWords).sum());
+			Assert.assertEquals(tempFile.length(), leaves.stream().mapToLong(SplitStatistics.Leaf::getBytes).sum());
+			Assert.assertTrue(statistics.getImbalance() >= 1d);
+			Assert.assertTrue(statistics.toString().startsWith("splits: "+statistics.getSplitCount()));
+		} finally {
+			deleteFile(tempFile);
+		}
+	}
+
+	/**
+	 * A prefetcher reads the whole file ahead of the spliterators, which find the same words.
+	 * @throws IOException in case of error
+	 * @throws InterruptedException if interrupted
+	 */
+	@Test
+	public void testPrefetch() throws IOException, InterruptedException {
+		final File tempFile = createWordFile(500);
+		try (final Prefetcher prefetcher = new Prefetcher(4096, 64*1024*1024)) {
+			final WordSpliterator spliterator = new WordSpliterator(tempFile, 16384);
+			spliterator.setPrefetcher(prefetcher);
+			Assert.assertEquals(500*Words.getLoreIpsumStream().count(), StreamSupport.stream(spliterator, true).count());
+			final List<Word> words = new ArrayList<>();
+			final WordSpliterator sequential = new WordSpliterator(tempFile, 16384);
+			sequential.setPrefetcher(prefetcher);
+			sequential.forEachOccurrence((word, offset) -> words.add(word));
+			Assert.assertEquals(500*Words.getLoreIpsumStream().count(), words.size());
+			// the requests are read asynchronously
+			for (int i = 0; i < 100 && prefetcher.getPrefetchedBytes() < 2*tempFile.length(); i++) {
+				Thread.sleep(50);
+			}
+			// ranges split off may have been requested by their parent as well
+			Assert.assertTrue(prefetcher.getPrefetchedBytes() >= 2*tempFile.length());
+			Assert.assertEquals(0, prefetcher.getDroppedBytes());
+		} finally {
+			deleteFile(tempFile);
+		}
+	}
+
+	/**
+	 * Closing the prefetcher stops reading at once, and the windows it read from remain usable.
+	 * @throws IOException in case of error
+	 * @throws InterruptedException if interrupted
+	 */
+	@Test
+	public void testPrefetcherClose() throws IOException, InterruptedException {
+		final File tempFile = createWordFile(500);
+		try (final FileWindows windows = new FileWindows(tempFile, 4096)) {
+			final Prefetcher prefetcher = new Prefetcher(4096, Long.MAX_VALUE);
+			for (int i = 0; i < 1000; i++) {
+				prefetcher.request(windows, 0L, (int) tempFile.length());
+			}
+			prefetcher.close();
+			final long prefetched = prefetcher.getPrefetchedBytes();
+			Assert.assertTrue(prefetched < 1000*tempFile.length());
+			Thread.sleep(50);
+			Assert.assertEquals(prefetched, prefetcher.getPrefetchedBytes());
+			final ByteBuffer bytes = ByteBuffer.allocate(4096);
+			windows.read(bytes, 0L);
+			Assert.assertFalse(bytes.hasRemaining());
+		} finally {
+			deleteFile(tempFile);
+		}
+	}
+
+	/**
+	 * Bytes with the high bit set must not alias to US-ASCII letters.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testHighBitBytes() throws IOException {
+		// 0xC1 & 0x7f is 'A', 0xE2 & 0x7f is 'b'
+		Assert.assertEquals(Arrays.asList("X", "Y", "Z"), tokenize(new byte[] { 'x', (byte) 0xC1, 'y', (byte) 0xE2, 'z' }, TokenAlphabet.LETTERS));
+	}
+
+	/**
+	 * Tokenizes using custom alphabets.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testAlphabets() throws IOException {
+		final byte[] text = "Don't stop-me, 42 times!".getBytes(Charset.forName("US-ASCII"));
+		Assert.assertEquals(Arrays.asList("DON", "T", "STOP", "ME", "TIMES"), tokenize(text, TokenAlphabet.LETTERS));
+		Assert.assertEquals(Arrays.asList("DON'T", "STOP", "ME", "TIMES"), tokenize(text, TokenAlphabet.LETTERS_AND_APOSTROPHES));
+		Assert.assertEquals(Arrays.asList("DON", "T", "STOP-ME", "TIMES"), tokenize(text, TokenAlphabet.LETTERS_AND_HYPHENS));
+		Assert.assertEquals(Arrays.asList("DON", "T", "STOP", "ME", "42", "TIMES"), tokenize(text, TokenAlphabet.LETTERS_AND_DIGITS));
+		Assert.assertEquals(Arrays.asList("O", "O", "E", "I", "E"), tokenize(text, TokenAlphabet.compile("aeiou")));
+	}
+
+	/**
+	 * Tokenizes UTF-8 encoded text.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testUtf8() throws IOException {
+		final byte[] text = "Caf\u00e9 na\u00efve \u03a9mega, mu\u00dfte \ud801\udc28x plain ascii text".getBytes(StandardCharsets.UTF_8);
+		Assert.assertEquals(Arrays.asList("CAF", "NA", "VE", "MEGA", "MU", "TE", "X", "PLAIN", "ASCII", "TEXT"), tokenize(text, TokenAlphabet.LETTERS, StandardCharsets.UTF_8));
+		Assert.assertEquals(Arrays.asList("CAF\u00c9", "NA\u00cfVE", "MEGA", "MU\u00dfTE", "X", "PLAIN", "ASCII", "TEXT"), tokenize(text, TokenAlphabet.compile("A-Za-z\u00c0-\u00ff"), StandardCharsets.UTF_8));
+		Assert.assertEquals(Arrays.asList("CAF\u00c9", "NA\u00cfVE", "\u03a9MEGA", "MU\u00dfTE", "\ud801\udc00X", "PLAIN", "ASCII", "TEXT"), tokenize(text, TokenAlphabet.UNICODE_LETTERS, StandardCharsets.UTF_8));
+		// malformed sequences are separators
+		Assert.assertEquals(Arrays.asList("A", "B", "C"), tokenize(new byte[] { 'a', (byte) 0xc3, 'b', (byte) 0x80, 'c', (byte) 0xe2 }, TokenAlphabet.UNICODE_LETTERS, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Splitting must never happen inside of a multi-byte sequence.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testUtf8Splitting() throws IOException {
+		final String sentence = "\u00fcber \u03a9\u03a9\u03a9\u03a9\u03a9 na\u00efve gr\u00fc\u00dfe\n";
+		final StringBuilder text = new StringBuilder(65536);
+		while (text.length() < 60000) {
+			text.append(sentence);
+		}
+		final File f = createFile(text.toString().getBytes(StandardCharsets.UTF_8));
+		try {
+			final Set<String> words = StreamSupport.stream(new WordSpliterator(f, 64, TokenAlphabet.UNICODE_LETTERS, StandardCharsets.UTF_8), true)
+				.map(Word::toString)
+				.collect(Collectors.toSet());
+			Assert.assertEquals(new HashSet<>(Arrays.asList("\u00dcBER", "\u03a9\u03a9\u03a9\u03a9\u03a9", "NA\u00cfVE", "GR\u00dc\u00dfE")), words);
+		} finally {
+			deleteFile(f);
+		}
+	}
+
+	/**
+	 * The offsets of the words point to their bytes in the file, whether they
+	 * are gathered sequentially, split across and within windows, or streamed.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testOccurrences() throws IOException {
+		final File tempFile = createWordFile(50);
+		try {
+			final byte[] bytes = Files.readAllBytes(tempFile.toPath());
+			final List<WordOccurrence> expected = new ArrayList<>();
+			new WordSpliterator(tempFile).forEachOccurrence((word, offset) -> expected.add(new WordOccurrence(word, offset)));
+			Assert.assertEquals(50*Words.getLoreIpsumStream().count(), expected.size());
+			for (WordOccurrence occurrence : expected) {
+				final String word = occurrence.getWord().toString();
+				Assert.assertEquals(word, new String(bytes, (int) occurrence.getOffset(), word.length(), StandardCharsets.US_ASCII).toUpperCase());
+			}
+			final List<WordOccurrence> actual = new ArrayList<>();
+			final WordSpliterator sequential = new WordSpliterator(tempFile, 8192, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 100);
+			while (sequential.tryAdvanceOccurrence((word, offset) -> actual.add(new WordOccurrence(word, offset))));
+			Assert.assertEquals(expected, actual);
+			actual.clear();
+			splitOccurrences(new WordSpliterator(tempFile, 64, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII, 100), actual);
+			actual.sort(Comparator.comparingLong(WordOccurrence::getOffset));
+			Assert.assertEquals(expected, actual);
+			Assert.assertEquals(new HashSet<>(expected), StreamSupport.stream(new WordSpliterator(tempFile, 64).occurrences(), true).collect(Collectors.toSet()));
+		} finally {
+			deleteFile(tempFile);
+		}
+	}
+
+	/**
+	 * The offsets of decoded words are byte offsets.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testUtf8Occurrences() throws IOException {
+		final byte[] text = "\u00fcber \u03a9mega, na\u00efve".getBytes(StandardCharsets.UTF_8);
+		final List<WordOccurrence> actual = new ArrayList<>();
+		new WordSpliterator(ByteBuffer.wrap(text), TokenAlphabet.UNICODE_LETTERS, StandardCharsets.UTF_8).forEachOccurrence((word, offset) -> actual.add(new WordOccurrence(word, offset)));
+		Assert.assertEquals(Arrays.asList(
+			new WordOccurrence(Word.from("\u00dcBER"), 0),
+			new WordOccurrence(Word.from("\u03a9MEGA"), 6),
+			new WordOccurrence(Word.from("NA\u00cfVE"), 14)
+		), actual);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnsupportedEncoding() throws IOException {
+		final File f = createFile(new byte[0]);
+		try {
+			new WordSpliterator(f, 8192, TokenAlphabet.LETTERS, StandardCharsets.UTF_16);
+		} finally {
+			deleteFile(f);
+		}
+	}
+
+	/**
+	 * Single-byte encodings other than ISO-8859-1 and US-ASCII map bytes to
+	 * other characters, their words would be reported wrongly.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testNonLatin1Encodings() throws IOException {
+		Assert.assertEquals(Arrays.asList("CAF\u00c9"), tokenize("caf\u00e9".getBytes(StandardCharsets.ISO_8859_1), TokenAlphabet.compile("A-Za-z\u00c0-\u00ff"), StandardCharsets.ISO_8859_1));
+		final File f = createFile("\u0441\u043b\u043e\u0432\u043e".getBytes(Charset.forName("KOI8-R")));
+		try {
+			for (String name : new String[] { "KOI8-R", "windows-1251", "windows-1252", "ISO-8859-5", "ISO-8859-15" }) {
+				try {
+					new WordSpliterator(f, 8192, TokenAlphabet.UNICODE_LETTERS, Charset.forName(name));
+					Assert.fail(name);
+				} catch (IllegalArgumentException e) {
+					// expected
+				}
+			}
+		} finally {
+			deleteFile(f);
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testIllegalAlphabet() {
+		TokenAlphabet.compile("z-a");
+	}
+
+	/**
+	 * Splits the given spliterator as far as possible and collects
+	 * the words of all parts.
+	 * @param spliterator the spliterator to split
+	 * @param words the list to collect the words into
+	 */
+	protected void split(final Spliterator<Word> spliterator, final List<Word> words) {
+		final Spliterator<Word> other = spliterator.trySplit();
+		if (other != null) {
+			split(other, words);
+			split(spliterator, words);
+		} else {
+			spliterator.forEachRemaining(words::add);
+		}
+	}
+
+	/**
+	 * Splits the given spliterator as far as possible and collects
+	 * the word occurrences of all parts.
+	 * @param spliterator the spliterator to split
+	 * @param occurrences the list to collect the occurrences into
+	 */
+	protected void splitOccurrences(final WordSpliterator spliterator, final List<WordOccurrence> occurrences) {
+		final WordSpliterator other = spliterator.trySplit();
+		if (other != null) {
+			splitOccurrences(other, occurrences);
+			splitOccurrences(spliterator, occurrences);
+		} else {
+			spliterator.forEachOccurrence((word, offset) -> occurrences.add(new WordOccurrence(word, offset)));
+		}
+	}
+
+	/**
+	 * Tokenizes the given bytes using the given alphabet.
+	 * @param bytes the file contents
+	 * @param alphabet the alphabet to use
+	 * @return the words as strings, never <code>null</code>
+	 * @throws IOException in case of error
+	 */
+	protected List<String> tokenize(final byte[] bytes, final TokenAlphabet alphabet) throws IOException {
+		return tokenize(bytes, alphabet, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Tokenizes the given bytes using the given alphabet and encoding.
+	 * @param bytes the file contents
+	 * @param alphabet the alphabet to use
+	 * @param charset the encoding of the contents
+	 * @return the words as strings, never <code>null</code>
+	 * @throws IOException in case of error
+	 */
+	protected List<String> tokenize(final byte[] bytes, final TokenAlphabet alphabet, final Charset charset) throws IOException {
+		final File f = createFile(bytes);
+		try {
+			return StreamSupport.stream(new WordSpliterator(f, 8192, alphabet, charset), false)
+				.map(Word::toString)
+				.collect(Collectors.toList());
+		} finally {
+			deleteFile(f);
+		}
+	}
+
+	/**
+	 * Creates a temporary file with the given contents.
+	 * @param bytes the file contents
+	 * @return the temporary file, never <code>null</code>
+	 * @throws IOException in case of error
+	 */
+	protected File createFile(final byte[] bytes) throws IOException {
+		final File result = File.createTempFile(PREFIX, SUFFIX);
+		final FileOutputStream fos = new FileOutputStream(result.getCanonicalFile());
+		try {
+			fos.write(bytes);
+		} finally {
+			fos.close();
+		}
+		return result;
+	}
+
 	/**
 	 * Creates a temporary file repeating the "lore ipsum" words
 	 * the given number of time.
@@ -0,0 +1,221 @@
+package de.engehausen.cc1.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+
+/**
+ * Tests the interning of words. Words are interned for the lifetime of the
+ * JVM, so each test uses words no other test uses.
+ */
+public class WordTest {
+
+	private static final AtomicInteger UNIQUE = new AtomicInteger();
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testInternAll() {
+		final String a = unique();
+		final String b = unique();
+		Assert.assertEquals(2, Word.internAll(Arrays.asList(a, b, a)));
+		Assert.assertEquals(0, Word.internAll(Arrays.asList(b, a)));
+		final String c = unique();
+		Assert.assertEquals(1, Word.internAll(Arrays.asList(a, c)));
+		Assert.assertEquals(0, Word.internAll(new ArrayList<>()));
+		// words interned in bulk are the ones obtained later
+		final Word word = Word.from(c);
+		Assert.assertSame(word, Word.from(new String(c.toCharArray())));
+		Assert.assertEquals(c, word.toString());
+	}
+
+	@Test
+	public void testFrontCache() {
+		final String string = unique();
+		final Word word = Word.from(string);
+		// a hit in the front cache
+		Assert.assertSame(word, Word.from(new String(string.toCharArray())));
+		final byte[] bytes = ("." + string + ".").getBytes(StandardCharsets.ISO_8859_1);
+		Assert.assertSame(word, Word.from(bytes, 1, string.length()));
+		// a different word in the same slot of the front cache replaces it, the shared table still has it
+		for (int i = 0; i < 10000; i++) {
+			Word.from(unique());
+		}
+		Assert.assertSame(word, Word.from(string));
+		Assert.assertSame(word, Word.from(bytes, 1, string.length()));
+	}
+
+	@Test
+	public void testAcrossThreads() throws Exception {
+		final int threads = 4;
+		final List<String> strings = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			strings.add(unique());
+		}
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<Word[]>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final Callable<Word[]> task = () -> {
+					start.await();
+					final Word[] result = new Word[strings.size()];
+					// the second pass is served by the front cache of the thread
+					for (int pass = 0; pass < 2; pass++) {
+						for (int i = 0; i < result.length; i++) {
+							final Word word = Word.from(new String(strings.get(i).toCharArray()));
+							Assert.assertTrue(result[i] == null || result[i] == word);
+							result[i] = word;
+						}
+					}
+					return result;
+				};
+				futures.add(executor.submit(task));
+			}
+			start.countDown();
+			final Word[] first = futures.get(0).get();
+			for (Future<Word[]> future : futures) {
+				final Word[] words = future.get();
+				for (int i = 0; i < words.length; i++) {
+					Assert.assertSame(first[i], words[i]);
+				}
+			}
+			// all words have been interned by the threads
+			Assert.assertEquals(0, Word.internAll(strings));
+		} finally {
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testDictionaryRoundTrip() throws IOException {
+		final List<String> strings = Arrays.asList(unique(), unique(), unique() + "\u00c4\u03a9");
+		Word.internAll(strings);
+		final File file = folder.newFile();
+		final int count = Word.exportDictionary(file.toPath());
+		Assert.assertTrue(count >= strings.size());
+		// all words are interned already, including those of other tests
+		Assert.assertEquals(0, Word.preload(file.toPath()));
+		// exporting again yields the same file
+		final File again = folder.newFile();
+		Assert.assertEquals(count, Word.exportDictionary(again.toPath()));
+		Assert.assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(again.toPath()));
+	}
+
+	@Test
+	public void testPreloadOrdinals() throws IOException {
+		final String[] strings = { unique(), unique(), unique() };
+		Arrays.sort(strings);
+		final File file = dictionary(strings.length, 0, strings[0], 0, strings[1], 0, strings[2]);
+		Assert.assertEquals(3, Word.preload(file.toPath()));
+		final int first = Word.from(strings[0]).getOrdinal();
+		// ordinals are assigned in the order of the dictionary
+		Assert.assertEquals(first + 1, Word.from(strings[1]).getOrdinal());
+		Assert.assertEquals(first + 2, Word.from(strings[2]).getOrdinal());
+		Assert.assertEquals(0, Word.preload(file.toPath()));
+	}
+
+	@Test
+	public void testCorruptDictionary() throws IOException {
+		final String a = unique();
+		final String b = a + "X";
+		final String c = a + "Y";
+		final File valid = dictionary(3, 0, a, a.length(), "X", a.length(), "Y");
+		final byte[] bytes = Files.readAllBytes(valid.toPath());
+		for (int length = 0; length < bytes.length; length++) {
+			assertCorrupt(Files.write(folder.newFile().toPath(), Arrays.copyOf(bytes, length)).toFile());
+		}
+		// trailing garbage
+		assertCorrupt(Files.write(folder.newFile().toPath(), Arrays.copyOf(bytes, bytes.length + 1)).toFile());
+		// more words than entries
+		assertCorrupt(dictionary(1000, 0, a, a.length(), "X"));
+		assertCorrupt(dictionary(-1, 0, a));
+		// a prefix longer than the previous word
+		assertCorrupt(dictionary(2, 0, a, a.length() + 1, "X"));
+		// out of order
+		assertCorrupt(dictionary(2, 0, b, 0, a));
+		// an empty word
+		assertCorrupt(dictionary(1, 0, ""));
+		// invalid characters
+		assertCorrupt(dictionary(1, 0, a + " B"));
+		assertCorrupt(dictionary(1, 0, a + "\n"));
+		final File digits = dictionary(1, 0, a + "1");
+		try {
+			Word.preload(digits.toPath(), TokenAlphabet.LETTERS);
+			Assert.fail("not a letter");
+		} catch (IOException e) {
+			// expected
+		}
+		// nothing has been interned by the failed attempts
+		Assert.assertEquals(3, Word.internAll(Arrays.asList(a, b, c)));
+		Assert.assertEquals(1, Word.preload(digits.toPath(), TokenAlphabet.LETTERS_AND_DIGITS));
+		Assert.assertEquals(0, Word.preload(valid.toPath()));
+	}
+
+	private static void assertCorrupt(final File file) {
+		try {
+			Word.preload(file.toPath());
+			Assert.fail("corrupt");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Writes a dictionary file with the given entries.
+	 * @param count the number of words to declare
+	 * @param entries the entries, each a shared prefix length followed by the suffix
+	 * @return the file, never <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	private File dictionary(final int count, final Object... entries) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0x43433157);
+		out.writeInt(count);
+		for (int i = 0; i < entries.length; i += 2) {
+			final byte[] suffix = ((String) entries[i + 1]).getBytes(StandardCharsets.UTF_8);
+			// lengths below 128 take a single byte
+			out.write(((Integer) entries[i]).intValue());
+			out.write(suffix.length);
+			out.write(suffix);
+		}
+		return Files.write(folder.newFile().toPath(), bytes.toByteArray()).toFile();
+	}
+
+	/**
+	 * Returns a word used by no other test.
+	 * @return the word, never <code>null</code>.
+	 */
+	static String unique() {
+		final StringBuilder result = new StringBuilder("WORDTEST");
+		for (int n = UNIQUE.incrementAndGet(); n > 0; n /= 26) {
+			result.append((char) ('A' + n % 26));
+		}
+		return result.toString();
+	}
+
+}
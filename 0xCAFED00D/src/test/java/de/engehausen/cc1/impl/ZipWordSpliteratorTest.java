@@ -0,0 +1,145 @@
+package de.engehausen.cc1.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.engehausen.cc1.api.TokenAlphabet;
+import de.engehausen.cc1.api.Word;
+import de.engehausen.cc1.examples.Words;
+
+/**
+ * Tests the ZIP word spliterator.
+ */
+public class ZipWordSpliteratorTest {
+
+	private static final int SMALL_ENTRIES = 50;
+	private static final int LARGE_ENTRY_REPEATS = 1000;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File archive;
+	private Predicate<String> filter;
+	private long expected;
+
+	@Before
+	public void setup() throws IOException {
+		archive = folder.newFile("words.zip");
+		final String large = TestWords.loremIpsum(LARGE_ENTRY_REPEATS);
+		try (final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive))) {
+			zip.putNextEntry(new ZipEntry("sub/"));
+			for (int i = 0; i < SMALL_ENTRIES; i++) {
+				write(zip, "small-"+i+".txt", "alpha beta\ngamma", false);
+			}
+			write(zip, "empty.txt", "", false);
+			write(zip, "ignored.dat", "not counted", false);
+			write(zip, "sub/stored.txt", large, true);
+			write(zip, "sub/deflated.txt", large, false);
+		}
+		filter = name -> name.endsWith(".txt");
+		expected = 3*SMALL_ENTRIES + 2*LARGE_ENTRY_REPEATS*Words.getLoreIpsumStream().count();
+	}
+
+	@Test
+	public void testSequential() throws IOException {
+		final List<Word> words = new ArrayList<>();
+		try (final ZipWordSpliterator spliterator = create()) {
+			Assert.assertEquals(SMALL_ENTRIES + 2, spliterator.getEntryNames().size());
+			Assert.assertTrue(spliterator.tryAdvance(words::add));
+			Assert.assertEquals("small-0.txt", spliterator.getEntryNames().get(0));
+			spliterator.forEachRemaining(words::add);
+			Assert.assertTrue(spliterator.getEntryNames().isEmpty());
+		}
+		Assert.assertEquals(expected, words.size());
+		Assert.assertEquals(Word.from("ALPHA"), words.get(0));
+		Assert.assertTrue(words.contains(Word.from("LABORUM")));
+		Assert.assertFalse(words.contains(Word.from("COUNTED")));
+	}
+
+	@Test
+	public void testParallel() {
+		try (final Stream<Word> words = new ZipWordSpliteratorProvider(filter, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII).words(archive)) {
+			Assert.assertEquals(expected, words.count());
+		}
+		// all entries, including the ignored one
+		try (final Stream<Word> words = new ZipWordSpliteratorProvider().words(archive)) {
+			Assert.assertEquals(expected + 2, words.count());
+		}
+	}
+
+	/**
+	 * The entries are balanced by uncompressed size: the large entries end up on
+	 * their own, and the stored one is split further.
+	 * @throws IOException in case of error
+	 */
+	@Test
+	public void testSplit() throws IOException {
+		try (final ZipWordSpliterator spliterator = create()) {
+			final List<Spliterator<Word>> parts = new ArrayList<>();
+			split(spliterator, parts);
+			Assert.assertTrue(parts.size() > 3);
+			Assert.assertTrue(parts.stream().anyMatch(part -> part instanceof WordSpliterator));
+			long count = 0;
+			for (Spliterator<Word> part : parts) {
+				count += StreamSupport.stream(part, false).count();
+			}
+			Assert.assertEquals(expected, count);
+		}
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testNotAnArchive() throws IOException {
+		final File text = folder.newFile();
+		Files.write(text.toPath(), Arrays.asList(Words.LORE_IPSUM), StandardCharsets.US_ASCII);
+		new ZipWordSpliteratorProvider().getWordSpliterator(text);
+	}
+
+	protected ZipWordSpliterator create() throws IOException {
+		return new ZipWordSpliterator(archive, filter, TokenAlphabet.LETTERS, StandardCharsets.US_ASCII);
+	}
+
+	protected void write(final ZipOutputStream zip, final String name, final String text, final boolean stored) throws IOException {
+		final byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+		final ZipEntry entry = new ZipEntry(name);
+		if (stored) {
+			final CRC32 crc = new CRC32();
+			crc.update(bytes);
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(bytes.length);
+			entry.setCrc(crc.getValue());
+		}
+		zip.putNextEntry(entry);
+		zip.write(bytes);
+		zip.closeEntry();
+	}
+
+	protected void split(final Spliterator<Word> spliterator, final List<Spliterator<Word>> parts) {
+		final Spliterator<Word> other = spliterator.trySplit();
+		if (other != null) {
+			split(other, parts);
+			split(spliterator, parts);
+		} else {
+			parts.add(spliterator);
+		}
+	}
+
+}
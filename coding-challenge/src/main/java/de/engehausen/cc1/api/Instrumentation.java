@@ -0,0 +1,246 @@
+package de.engehausen.cc1.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters showing where the time of a word pipeline goes: reading and
+ * scanning bytes, interning words, or splitting the work.
+ * <p>Instrumentation is enabled by setting the system property
+ * <code>de.engehausen.cc1.instrumentation</code> to <code>true</code> when
+ * starting the JVM. When disabled, the counting code guarded by {@link #ENABLED}
+ * is removed by the JIT compiler, so it costs nothing.</p>
+ * <p>Each thread counts into an array of its own, without synchronization;
+ * the arrays of all threads are summed up on demand by {@link #snapshot()}.
+ * A snapshot taken while threads are counting may miss their latest counts.</p>
+ * <p>The counters are exposed through JMX once {@link #registerMBean()}
+ * has been called, as <code>de.engehausen.cc1:type=Instrumentation</code>.</p>
+ */
+public final class Instrumentation {
+
+	/**
+	 * <code>true</code> if instrumentation is enabled.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("de.engehausen.cc1.instrumentation");
+
+	/**
+	 * The name of the MBean exposing the counters.
+	 */
+	public static final String MBEAN_NAME = "de.engehausen.cc1:type=Instrumentation";
+
+	/**
+	 * The counters.
+	 */
+	public enum Counter {
+		/** The number of bytes scanned for words. */
+		BYTES_SCANNED,
+		/** The number of words found. */
+		WORDS_EMITTED,
+		/** The number of words found in the front cache of a thread, see {@link Word#from(String)}. */
+		FRONT_CACHE_HITS,
+		/** The number of words found in the shared intern table. */
+		INTERN_HITS,
+		/** The number of words added to the shared intern table. */
+		INTERN_MISSES,
+		/** The number of spliterators split off. */
+		SPLITS,
+		/** The number of spliterators traversed completely, i.e. the leaves of the split tree. */
+		LEAVES,
+		/** The time spent traversing the leaves, in nanoseconds. */
+		LEAF_NANOS
+	}
+
+	/**
+	 * The management interface of the counters.
+	 */
+	public interface InstrumentationMXBean {
+
+		/**
+		 * Returns the number of bytes scanned for words.
+		 * @return the number of bytes
+		 */
+		long getBytesScanned();
+
+		/**
+		 * Returns the number of words found.
+		 * @return the number of words
+		 */
+		long getWordsEmitted();
+
+		/**
+		 * Returns the number of words found in the front caches.
+		 * @return the number of words
+		 */
+		long getFrontCacheHits();
+
+		/**
+		 * Returns the number of words found in the shared intern table.
+		 * @return the number of words
+		 */
+		long getInternHits();
+
+		/**
+		 * Returns the number of words added to the shared intern table.
+		 * @return the number of words
+		 */
+		long getInternMisses();
+
+		/**
+		 * Returns the number of spliterators split off.
+		 * @return the number of splits
+		 */
+		long getSplits();
+
+		/**
+		 * Returns the number of leaves of the split trees.
+		 * @return the number of leaves
+		 */
+		long getLeaves();
+
+		/**
+		 * Returns the average number of bytes of a leaf.
+		 * @return the average leaf size in bytes, zero if there are no leaves
+		 */
+		long getAverageLeafBytes();
+
+		/**
+		 * Returns the average time traversing a leaf.
+		 * @return the average time in nanoseconds, zero if there are no leaves
+		 */
+		long getAverageLeafNanos();
+
+		/**
+		 * Resets all counters to zero.
+		 */
+		void reset();
+
+	}
+
+	private static final Counter[] COUNTERS = Counter.values();
+	// the counters of all threads that have counted
+	private static final Queue<long[]> ALL = new ConcurrentLinkedQueue<>();
+	private static final ThreadLocal<long[]> LOCAL = ThreadLocal.withInitial(() -> {
+		final long[] result = new long[COUNTERS.length];
+		ALL.add(result);
+		return result;
+	});
+
+	private Instrumentation() {
+		// not instantiated
+	}
+
+	/**
+	 * Adds to a counter of the current thread. Callers should check {@link #ENABLED}
+	 * first, so the code computing the amount is removed as well if disabled.
+	 * @param counter the counter, must not be <code>null</code>.
+	 * @param amount the amount to add
+	 */
+	public static void add(final Counter counter, final long amount) {
+		if (ENABLED) {
+			LOCAL.get()[counter.ordinal()] += amount;
+		}
+	}
+
+	/**
+	 * Sums up the counters of all threads.
+	 * @return the counters, never <code>null</code>. All counters are zero if disabled.
+	 */
+	public static Map<Counter, Long> snapshot() {
+		final long[] sums = new long[COUNTERS.length];
+		for (long[] counters : ALL) {
+			for (int i = 0; i < sums.length; i++) {
+				sums[i] += counters[i];
+			}
+		}
+		final Map<Counter, Long> result = new EnumMap<>(Counter.class);
+		for (Counter counter : COUNTERS) {
+			result.put(counter, Long.valueOf(sums[counter.ordinal()]));
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * Resets the counters of all threads to zero. Counts of threads counting
+	 * at the same time may be lost.
+	 */
+	public static void reset() {
+		for (long[] counters : ALL) {
+			for (int i = 0; i < counters.length; i++) {
+				counters[i] = 0L;
+			}
+		}
+	}
+
+	/**
+	 * Registers the MBean exposing the counters with the platform MBean server,
+	 * unless already registered.
+	 * @throws JMException in case of error
+	 */
+	public static synchronized void registerMBean() throws JMException {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = new ObjectName(MBEAN_NAME);
+		if (!server.isRegistered(name)) {
+			server.registerMBean(new InstrumentationMXBean() {
+				@Override
+				public long getBytesScanned() {
+					return get(Counter.BYTES_SCANNED);
+				}
+				@Override
+				public long getWordsEmitted() {
+					return get(Counter.WORDS_EMITTED);
+				}
+				@Override
+				public long getFrontCacheHits() {
+					return get(Counter.FRONT_CACHE_HITS);
+				}
+				@Override
+				public long getInternHits() {
+					return get(Counter.INTERN_HITS);
+				}
+				@Override
+				public long getInternMisses() {
+					return get(Counter.INTERN_MISSES);
+				}
+				@Override
+				public long getSplits() {
+					return get(Counter.SPLITS);
+				}
+				@Override
+				public long getLeaves() {
+					return get(Counter.LEAVES);
+				}
+				@Override
+				public long getAverageLeafBytes() {
+					final Map<Counter, Long> counters = snapshot();
+					return average(counters.get(Counter.BYTES_SCANNED), counters.get(Counter.LEAVES));
+				}
+				@Override
+				public long getAverageLeafNanos() {
+					final Map<Counter, Long> counters = snapshot();
+					return average(counters.get(Counter.LEAF_NANOS), counters.get(Counter.LEAVES));
+				}
+				@Override
+				public void reset() {
+					Instrumentation.reset();
+				}
+			}, name);
+		}
+	}
+
+	private static long get(final Counter counter) {
+		return snapshot().get(counter).longValue();
+	}
+
+	private static long average(final Long total, final Long count) {
+		return count.longValue() == 0 ? 0L : total.longValue() / count.longValue();
+	}
+
+}
@@ -0,0 +1,198 @@
+package de.engehausen.cc1.api;
+
+/**
+ * The alphabet of a tokenizer, i.e. the set of byte values that make up
+ * the characters of a {@link Word}. Any other byte value separates words.
+ * <p>An alphabet is compiled from a character class specification
+ * into a translation table with one entry per byte value. Looking up a byte
+ * in this table yields either the (upper case) word character or zero, so
+ * a tokenizer can classify and case-fold a byte with a single array access.</p>
+ * <p>The specification uses the syntax of the contents of a regular expression
+ * character class, e.g. <code>A-Za-z0-9'</code>: single characters and ranges
+ * of characters; a backslash escapes the following character. All characters
+ * must be in the range from <code>0x01</code> to <code>0xff</code>. Lower case
+ * letters are folded to upper case where the upper case letter is in range.
+ * The special class <code>\p{L}</code> denotes all Unicode letters; these are
+ * only relevant to tokenizers decoding multi-byte encodings such as UTF-8,
+ * see {@link #translateCodePoint(int)}.</p>
+ */
+public final class TokenAlphabet {
+
+	private static final String UNICODE_LETTERS_CLASS = "\\p{L}";
+
+	/**
+	 * The default alphabet, the letters from A to Z, ignoring case.
+	 * The words of this alphabet match the regular expression <code>[A-Z]+</code>.
+	 */
+	public static final TokenAlphabet LETTERS = compile("A-Za-z");
+
+	/**
+	 * The letters from A to Z, ignoring case, and the digits from 0 to 9.
+	 */
+	public static final TokenAlphabet LETTERS_AND_DIGITS = compile("A-Za-z0-9");
+
+	/**
+	 * The letters from A to Z, ignoring case, and the apostrophe, e.g. to keep <code>DON'T</code>.
+	 */
+	public static final TokenAlphabet LETTERS_AND_APOSTROPHES = compile("A-Za-z'");
+
+	/**
+	 * The letters from A to Z, ignoring case, and the hyphen, e.g. to keep <code>SELF-EVIDENT</code>.
+	 */
+	public static final TokenAlphabet LETTERS_AND_HYPHENS = compile("A-Za-z\\-");
+
+	/**
+	 * All Unicode letters, folded to upper case.
+	 */
+	public static final TokenAlphabet UNICODE_LETTERS = compile(UNICODE_LETTERS_CLASS);
+
+	/**
+	 * Compiles the given character class specification into an alphabet.
+	 * @param spec the specification, e.g. <code>A-Za-z</code>, must not be <code>null</code>.
+	 * @return the alphabet, never <code>null</code>.
+	 * @throws IllegalArgumentException if the specification is invalid
+	 */
+	public static TokenAlphabet compile(final String spec) throws IllegalArgumentException {
+		final byte[] table = new byte[256];
+		final int length = spec.length();
+		boolean unicodeLetters = false;
+		int i = 0;
+		while (i < length) {
+			if (spec.startsWith(UNICODE_LETTERS_CLASS, i)) {
+				unicodeLetters = true;
+				for (int c = 1; c < table.length; c++) {
+					if (Character.isLetter(c)) {
+						table[c] = (byte) fold(c);
+					}
+				}
+				i += UNICODE_LETTERS_CLASS.length();
+				continue;
+			}
+			final int from = spec.charAt(i) == '\\' ? escaped(spec, ++i) : spec.charAt(i);
+			i++;
+			int to = from;
+			if (i + 1 < length && spec.charAt(i) == '-') {
+				i++;
+				to = spec.charAt(i) == '\\' ? escaped(spec, ++i) : spec.charAt(i);
+				i++;
+			}
+			if (from == 0 || to > 0xff || to < from) {
+				throw new IllegalArgumentException("Invalid range "+from+"-"+to+" in "+spec);
+			}
+			for (int c = from; c <= to; c++) {
+				table[c] = (byte) fold(c);
+			}
+		}
+		return new TokenAlphabet(spec, table, unicodeLetters);
+	}
+
+	private static int escaped(final String spec, final int idx) {
+		if (idx >= spec.length()) {
+			throw new IllegalArgumentException("Dangling escape in "+spec);
+		}
+		return spec.charAt(idx);
+	}
+
+	private static int fold(final int c) {
+		final int upper = Character.toUpperCase(c);
+		return upper <= 0xff ? upper : c;
+	}
+
+	private final String spec;
+	private final byte[] table;
+	private final boolean letters;
+
+	private TokenAlphabet(final String specification, final byte[] translation, final boolean unicodeLetters) {
+		spec = specification;
+		table = translation;
+		letters = unicodeLetters;
+	}
+
+	/**
+	 * Returns the word character for the given byte.
+	 * @param b the byte value
+	 * @return the (upper case) word character, or the value 0 (zero) if not a word character.
+	 */
+	public char translate(final byte b) {
+		return (char) (table[b & 0xff] & 0xff);
+	}
+
+	/**
+	 * Returns the word character for the given character value.
+	 * Characters outside of the range of the alphabet are never word characters.
+	 * @param c the character value
+	 * @return the (upper case) word character, or the value 0 (zero) if not a word character.
+	 */
+	public char translate(final int c) {
+		if ((c & ~0xff) == 0) {
+			return (char) (table[c] & 0xff);
+		}
+		return letters && c <= Character.MAX_VALUE ? (char) translateCodePoint(c) : 0;
+	}
+
+	/**
+	 * Returns the word character for the given Unicode code point.
+	 * This is meant for the (rare) code points beyond US-ASCII found when
+	 * decoding multi-byte encodings; code points up to <code>0xff</code>
+	 * are looked up in the translation table, all others are word characters
+	 * only if the alphabet contains all Unicode letters (<code>\p{L}</code>).
+	 * @param codePoint the code point
+	 * @return the (upper case) word character code point, or the value 0 (zero) if not a word character.
+	 */
+	public int translateCodePoint(final int codePoint) {
+		if ((codePoint & ~0xff) == 0) {
+			return table[codePoint] & 0xff;
+		}
+		if (letters && Character.isLetter(codePoint)) {
+			return Character.toUpperCase(codePoint);
+		}
+		return 0;
+	}
+
+	/**
+	 * Indicates whether all word characters of the alphabet are US-ASCII characters.
+	 * For such an alphabet, any byte with the high bit set is a separator, regardless
+	 * of whether the input is decoded as a single-byte encoding or as <code>UTF-8</code>.
+	 * @return <code>true</code> if all word characters are US-ASCII characters.
+	 */
+	public boolean isAscii() {
+		if (letters) {
+			return false;
+		}
+		for (int c = 0x80; c < table.length; c++) {
+			if (table[c] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a copy of the translation table. The table has 256 entries,
+	 * one per (unsigned) byte value; a value of zero marks a separator,
+	 * any other value is the (unsigned) word character.
+	 * Tokenizers keep the table in a field to look up bytes directly.
+	 * @return a copy of the translation table, never <code>null</code>.
+	 */
+	public byte[] getTable() {
+		return table.clone();
+	}
+
+	/**
+	 * Returns the specification the alphabet was compiled from.
+	 * @return the specification, never <code>null</code>.
+	 */
+	public String getSpec() {
+		return spec;
+	}
+
+	/**
+	 * Returns the specification of the alphabet.
+	 * @return the specification of the alphabet.
+	 */
+	@Override
+	public String toString() {
+		return spec;
+	}
+
+}
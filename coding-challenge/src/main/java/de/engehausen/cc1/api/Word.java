@@ -1,8 +1,18 @@
 package de.engehausen.cc1.api;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.engehausen.cc1.examples.Words;
 
@@ -10,11 +20,25 @@ import de.engehausen.cc1.examples.Words;
  * Representation of a word. A word is a string with characters
  * exclusively in the range from A to Z and has a minimal length of one character,
  * i.e. a word is a string that matches the regular expression <code>[A-Z]+</code>.
+ * Tokenizers using a custom {@link TokenAlphabet} may produce words with other
+ * characters of that alphabet.
  * <p>A word can be obtained from its {@link String} representation using
  * the {@link #from(String)} method.</p>
  * <p>The class offers a helper that can efficiently map characters to
  * word characters, see {@link #getWordChar(int)}. This may be useful when
  * implementing a word stream.</p>
+ * <p>Words are interned: there is only one instance per distinct word.
+ * Each thread keeps a small direct-mapped front cache of the words it
+ * recently obtained, so that frequent words are resolved without
+ * touching the shared intern table. Known vocabularies can be interned
+ * up-front using {@link #internAll(Iterable)}.</p>
+ * <p>Each interned word has an {@link #getOrdinal() ordinal}, a small
+ * number unique within the running JVM. The intern table can be
+ * written to a dictionary file using {@link #exportDictionary(Path)};
+ * a later JVM can {@link #preload(Path)} this file before it starts
+ * processing words, saving it the work of building the table again.</p>
+ * <p>The hits of the front caches and the intern table are counted if
+ * {@link Instrumentation} is enabled.</p>
  * <p>You find example words in {@link Words}.</p>
  */
 public class Word {
@@ -27,43 +51,332 @@ public class Word {
 	/**
 	 * Returns the word representation for the given word
 	 * @param string a <b>valid</b> string representation of the word, i.e.
-	 * a string matching the regular expression <code>[A-Z]+</code>.
+	 * a string matching the regular expression <code>[A-Z]+</code>, or a
+	 * non-empty string of word characters of a custom {@link TokenAlphabet}.
 	 * @return the word representation of the given string, never <code>null</code>.
 	 * Please note: Illegal input results in illegal output unless you have assertions enabled.
 	 */
 	public static Word from(final String string) {
-		Word result = cache.get(string);
+		final Word[] front = FRONT_CACHE.get();
+		final int idx = frontIndex(string.hashCode());
+		Word result = front[idx];
+		if (result == null || !result.value.equals(string)) {
+			// front cache miss, consult the shared table
+			result = intern(string);
+			front[idx] = result;
+		} else if (Instrumentation.ENABLED) {
+			Instrumentation.add(Instrumentation.Counter.FRONT_CACHE_HITS, 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the word representation for the given characters, one byte
+	 * per character (<code>ISO-8859-1</code>). This allows tokenizers working
+	 * on bytes to obtain words without creating a string first; a string is only
+	 * created if the word is not found in the front cache.
+	 * @param chars the array holding the <b>valid</b> characters of the word, see {@link #from(String)};
+	 * must not be <code>null</code>.
+	 * @param offset the offset of the first character in the array
+	 * @param length the number of characters of the word
+	 * @return the word representation of the given characters, never <code>null</code>.
+	 */
+	public static Word from(final byte[] chars, final int offset, final int length) {
+		// same as String.hashCode(), so both variants share the front cache slots
+		int hash = 0;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			hash = 31*hash + (chars[i] & 0xff);
+		}
+		final Word[] front = FRONT_CACHE.get();
+		final int idx = frontIndex(hash);
+		Word result = front[idx];
+		if (result == null || !result.matches(chars, offset, length)) {
+			result = intern(new String(chars, offset, length, StandardCharsets.ISO_8859_1));
+			front[idx] = result;
+		} else if (Instrumentation.ENABLED) {
+			Instrumentation.add(Instrumentation.Counter.FRONT_CACHE_HITS, 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Interns all strings of the given vocabulary. This is useful
+	 * to warm up the word cache for a known corpus before processing
+	 * it in parallel, avoiding contention on the shared intern table
+	 * while the words are encountered for the first time.
+	 * @param vocabulary the <b>valid</b> string representations of the words
+	 * to intern, see {@link #from(String)}; must not be <code>null</code>.
+	 * @return the number of words that were not interned before.
+	 */
+	public static int internAll(final Iterable<String> vocabulary) {
+		final int[] added = { 0 };
+		for (String string : vocabulary) {
+			if (!cache.containsKey(string)) {
+				cache.computeIfAbsent(string, key -> {
+					added[0]++;
+					return new Word(key);
+				});
+			}
+		}
+		return added[0];
+	}
+
+	/**
+	 * Writes all currently interned words to the given file.
+	 * The words are stored in lexicographical order and prefix-compressed:
+	 * each entry only holds the length of the prefix it shares with the
+	 * previous word and the remaining characters.
+	 * @param path the file to write, must not be <code>null</code>.
+	 * An existing file is overwritten.
+	 * @return the number of words written
+	 * @throws IOException in case of error
+	 * @see #preload(Path)
+	 */
+	public static int exportDictionary(final Path path) throws IOException {
+		final String[] words = cache.keySet().toArray(new String[0]);
+		Arrays.sort(words);
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(64*1024);
+			buffer.putInt(DICTIONARY_MAGIC).putInt(words.length);
+			String previous = "";
+			for (String word : words) {
+				final int shared = sharedPrefix(previous, word);
+				final byte[] suffix = word.substring(shared).getBytes(StandardCharsets.UTF_8);
+				// two variable length ints take at most ten bytes
+				final int entrySize = 10 + suffix.length;
+				if (buffer.remaining() < entrySize) {
+					write(channel, buffer);
+					if (buffer.capacity() < entrySize) {
+						buffer = ByteBuffer.allocate(entrySize);
+					}
+				}
+				putVarInt(buffer, shared);
+				putVarInt(buffer, suffix.length);
+				buffer.put(suffix);
+				previous = word;
+			}
+			write(channel, buffer);
+			channel.force(false);
+		}
+		return words.length;
+	}
+
+	/**
+	 * Interns all words of the given dictionary file. Words not interned
+	 * yet receive their ordinals in the order of the dictionary, i.e. in a
+	 * fresh JVM the ordinal of a preloaded word is its index in the dictionary.
+	 * The file is checked completely before the first word is interned; words
+	 * must not contain control characters or whitespace.
+	 * @param path a dictionary file written by {@link #exportDictionary(Path)},
+	 * must not be <code>null</code>.
+	 * @return the number of words that were not interned before.
+	 * @throws IOException in case of error, e.g. if the file is not a dictionary
+	 * or is corrupt
+	 */
+	public static int preload(final Path path) throws IOException {
+		return preload(path, null);
+	}
+
+	/**
+	 * Interns all words of the given dictionary file, which must consist of
+	 * (case-folded) word characters of the given alphabet only.
+	 * See {@link #preload(Path)}.
+	 * @param path a dictionary file written by {@link #exportDictionary(Path)},
+	 * must not be <code>null</code>.
+	 * @param alphabet the alphabet of the words, <code>null</code> to only
+	 * reject control characters and whitespace
+	 * @return the number of words that were not interned before.
+	 * @throws IOException in case of error, e.g. if the file is not a dictionary,
+	 * is corrupt or has words with characters not in the alphabet
+	 */
+	public static int preload(final Path path, final TokenAlphabet alphabet) throws IOException {
+		// read rather than mapped, the mapping would outlive the call
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+		if (buffer.remaining() < 8 || buffer.getInt() != DICTIONARY_MAGIC) {
+			throw new IOException("Not a word dictionary: "+path);
+		}
+		final int count = buffer.getInt();
+		// each entry takes at least three bytes
+		if (count < 0 || count > buffer.remaining() / 3) {
+			throw corrupt(path, "invalid number of words "+count);
+		}
+		final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+		final String[] words = new String[count];
+		final StringBuilder word = new StringBuilder(32);
+		String previous = "";
+		for (int i = 0; i < count; i++) {
+			final int prefix = getVarInt(buffer, path);
+			final int length = getVarInt(buffer, path);
+			if (prefix < 0 || prefix > word.length() || length < 0 || length > buffer.remaining()) {
+				throw corrupt(path, "invalid entry "+i);
+			}
+			final ByteBuffer suffix = buffer.slice();
+			suffix.limit(length);
+			buffer.position(buffer.position() + length);
+			word.setLength(prefix);
+			word.append(decoder.decode(suffix));
+			final String string = word.toString();
+			// the words are distinct and sorted, this detects most damage to the prefixes
+			if (string.compareTo(previous) <= 0) {
+				throw corrupt(path, "words out of order at entry "+i);
+			}
+			checkCharacters(string, alphabet, path);
+			words[i] = string;
+			previous = string;
+		}
+		if (buffer.hasRemaining()) {
+			throw corrupt(path, buffer.remaining()+" trailing bytes");
+		}
+		final int[] added = { 0 };
+		for (String string : words) {
+			cache.computeIfAbsent(string, key -> {
+				added[0]++;
+				return new Word(key);
+			});
+		}
+		return added[0];
+	}
+
+	/**
+	 * Returns the word from the shared intern table, adding it if
+	 * not present yet. Concurrent callers for the same string always
+	 * obtain the same instance.
+	 * @param string the string representation of the word
+	 * @return the interned word, never <code>null</code>.
+	 */
+	private static Word intern(final String string) {
+		final Word result = cache.get(string);
 		if (result == null) {
-			result = new Word(string);
-			cache.put(string, result);
+			if (Instrumentation.ENABLED) {
+				Instrumentation.add(Instrumentation.Counter.INTERN_MISSES, 1);
+			}
+			// computeIfAbsent creates the word exactly once, keeping the ordinals dense
+			return cache.computeIfAbsent(string, Word::new);
+		}
+		if (Instrumentation.ENABLED) {
+			Instrumentation.add(Instrumentation.Counter.INTERN_HITS, 1);
 		}
 		return result;
 	}
 
+	/**
+	 * Computes the front cache slot for the given hash code.
+	 * @param hash the hash code of the word string
+	 * @return the slot index in the front cache
+	 */
+	private static int frontIndex(final int hash) {
+		// spread higher bits downwards, short words differ mostly in the low bits
+		return (hash ^ (hash >>> 12)) & (FRONT_CACHE_SIZE - 1);
+	}
+
+	/**
+	 * Returns the length of the common prefix of the two strings.
+	 * A surrogate pair is never split.
+	 * @param a the first string
+	 * @param b the second string
+	 * @return the length of the common prefix
+	 */
+	private static int sharedPrefix(final String a, final String b) {
+		final int max = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < max && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		if (i > 0 && Character.isHighSurrogate(a.charAt(i-1))) {
+			i--;
+		}
+		return i;
+	}
+
+	private static void checkCharacters(final String word, final TokenAlphabet alphabet, final Path path) throws IOException {
+		for (int i = 0; i < word.length(); ) {
+			final int c = word.codePointAt(i);
+			if (Character.isISOControl(c) || Character.isWhitespace(c) || (alphabet != null && alphabet.translateCodePoint(c) != c)) {
+				throw corrupt(path, "invalid character in word "+word);
+			}
+			i += Character.charCount(c);
+		}
+	}
+
+	private static IOException corrupt(final Path path, final String reason) {
+		return new IOException("Corrupt word dictionary "+path+": "+reason);
+	}
+
+	private static void write(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static void putVarInt(final ByteBuffer buffer, final int value) {
+		int v = value;
+		while ((v & ~0x7f) != 0) {
+			buffer.put((byte) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	private static int getVarInt(final ByteBuffer buffer, final Path path) throws IOException {
+		int result = 0;
+		for (int shift = 0; ; shift += 7) {
+			if (!buffer.hasRemaining() || shift > 28) {
+				throw corrupt(path, "invalid length at offset "+buffer.position());
+			}
+			final byte b = buffer.get();
+			result |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return result;
+			}
+		}
+	}
+
 	/**
 	 * Returns a word character for the given character value.
+	 * Characters outside of the US-ASCII range are never word characters.
 	 * @param c the character value.
 	 * @return the word character, or the value 0 (zero) if not a word character.
+	 * @see TokenAlphabet#LETTERS
 	 */
 	public static char getWordChar(final int c) {
-		return WORD_CHARACTERS[c & 0x7f];
+		return (c & ~0xff) == 0 ? WORD_CHARACTERS[c] : 0;
 	}
-	private static char WORD_CHARACTERS[];
+
+	/**
+	 * Returns a word character for the given byte value.
+	 * Bytes outside of the US-ASCII range are never word characters.
+	 * @param b the byte value.
+	 * @return the word character, or the value 0 (zero) if not a word character.
+	 * @see TokenAlphabet#LETTERS
+	 */
+	public static char getWordChar(final byte b) {
+		return WORD_CHARACTERS[b & 0xff];
+	}
+	private static final char WORD_CHARACTERS[];
 	static {
-		WORD_CHARACTERS = new char[128];
+		WORD_CHARACTERS = new char[256];
 		for (int c = 0; c < WORD_CHARACTERS.length; c++) {
-			if (c >= 'a' && c <= 'z') {
-				WORD_CHARACTERS[c] = (char) (c - 32);
-			} else if (c >= 'A' && c <= 'Z') {
-				WORD_CHARACTERS[c] = (char) c;
-			}
+			WORD_CHARACTERS[c] = TokenAlphabet.LETTERS.translate(c);
 		}
 	}
 
 	// http://www.lingholic.com/how-many-words-do-i-need-to-know-the-955-rule-in-language-learning-part-2/
-	private static Map<String, Word> cache = new ConcurrentHashMap<>(20000);//new WeakHashMap<>(20000);
-	
+	private static final Map<String, Word> cache = new ConcurrentHashMap<>(20000);//new WeakHashMap<>(20000);
+
+	// per-thread, direct-mapped front cache; must be a power of two.
+	// 2048 references fit comfortably into the L1 cache and cover
+	// the most frequent words of a typical English text
+	private static final int FRONT_CACHE_SIZE = 2048;
+	private static final ThreadLocal<Word[]> FRONT_CACHE = ThreadLocal.withInitial(() -> new Word[FRONT_CACHE_SIZE]);
+
+	private static final AtomicInteger ORDINALS = new AtomicInteger();
+	// "CC1W", identifies a dictionary file
+	private static final int DICTIONARY_MAGIC = 0x43433157;
+
 	private final String value;
+	private final int ordinal;
 
 	/**
 	 * Creates the word based on its string representation.
@@ -71,8 +384,38 @@ public class Word {
 	 */
 	private Word(final String string) {
 		assert string != null;
-		assert string.matches("[A-Z]+");
+		assert string.length() > 0;
 		value = string;
+		ordinal = ORDINALS.getAndIncrement();
+	}
+
+	/**
+	 * Checks whether the word consists of the given characters.
+	 * @param chars the characters, one byte per character
+	 * @param offset the offset of the first character
+	 * @param length the number of characters
+	 * @return <code>true</code> if the word has exactly the given characters.
+	 */
+	private boolean matches(final byte[] chars, final int offset, final int length) {
+		if (value.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (value.charAt(i) != (chars[offset + i] & 0xff)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the ordinal of the word. Ordinals are assigned in the order
+	 * in which words are interned, starting at zero. They are unique within
+	 * the running JVM and dense, so they may be used as array indices.
+	 * @return the ordinal of the word.
+	 */
+	public int getOrdinal() {
+		return ordinal;
 	}
 
 	/**
@@ -1,7 +1,17 @@
 package de.engehausen.cc1.challenge;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
 import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import de.engehausen.cc1.api.Word;
 
@@ -18,4 +28,82 @@ public interface WordSpliteratorProvider {
 	 */
 	Spliterator<Word> getWordSpliterator(File file);
 
+	/**
+	 * Returns a spliterator of the words of all files of the given directory tree
+	 * selected by the given filter. The default implementation concatenates the
+	 * spliterators of the files returned by {@link #getWordSpliterator(File)};
+	 * implementations should override this to split the files among parallel workers.
+	 * @param directory the root of the directory tree, never <code>null</code>.
+	 * @param filter the filter selecting the files, matching their paths as found
+	 * walking the directory tree; <code>null</code> selects all regular files.
+	 * @return a spliterator of words for the files, never <code>null</code>.
+	 */
+	default Spliterator<Word> getWordSpliterator(final Path directory, final PathMatcher filter) {
+		final List<File> files;
+		try (final Stream<Path> paths = Files.walk(directory)) {
+			files = paths
+				.filter(path -> Files.isRegularFile(path) && (filter == null || filter.matches(path)))
+				.sorted()
+				.map(Path::toFile)
+				.collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return files.stream()
+			.flatMap(file -> StreamSupport.stream(getWordSpliterator(file), false))
+			.spliterator();
+	}
+
+	/**
+	 * Returns a parallel stream of the words of the given file.
+	 * If the spliterator of the file holds resources, i.e. is {@link Closeable},
+	 * closing the stream releases them, so the stream should be used in a
+	 * <code>try</code>-with-resources statement. The stream must not be closed
+	 * while its terminal operation is still running.
+	 * @param file the file to stream the words of, never <code>null</code>.
+	 * @return a stream of words of the given file, never <code>null</code>.
+	 * @see #getWordSpliterator(File)
+	 */
+	default Stream<Word> words(final File file) {
+		final Spliterator<Word> spliterator = getWordSpliterator(file);
+		final Stream<Word> result = StreamSupport.stream(spliterator, true);
+		if (spliterator instanceof Closeable) {
+			return result.onClose(() -> {
+				try {
+					((Closeable) spliterator).close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Indicates whether the given word occurs in the given file. The default
+	 * implementation searches the words of the file returned by {@link #words(File)};
+	 * implementations should override this to search the file without tokenizing it.
+	 * @param file the file to search, never <code>null</code>.
+	 * @param target the word to search for, never <code>null</code>.
+	 * @return <code>true</code> if the word occurs in the file.
+	 */
+	default boolean find(final File file, final Word target) {
+		try (final Stream<Word> stream = words(file)) {
+			return stream.anyMatch(target::equals);
+		}
+	}
+
+	/**
+	 * Counts the occurrences of the given word in the given file. The default
+	 * implementation counts the words of the file returned by {@link #words(File)}.
+	 * @param file the file to search, never <code>null</code>.
+	 * @param target the word to search for, never <code>null</code>.
+	 * @return the number of occurrences of the word in the file.
+	 */
+	default long findAll(final File file, final Word target) {
+		try (final Stream<Word> stream = words(file)) {
+			return stream.filter(target::equals).count();
+		}
+	}
+
 }
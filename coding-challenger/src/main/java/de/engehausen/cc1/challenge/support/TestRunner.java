@@ -3,6 +3,7 @@ package de.engehausen.cc1.challenge.support;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -21,6 +22,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import de.engehausen.cc1.api.ArtifactDescriptor;
 import de.engehausen.cc1.api.ArtifactDescriptor.Key;
+import de.engehausen.cc1.api.Word;
 import de.engehausen.cc1.challenge.SquaresTest;
 
 /**
@@ -30,6 +32,8 @@ import de.engehausen.cc1.challenge.SquaresTest;
 public class TestRunner extends RunListener implements Runnable {
 
 	private static final String UNKNOWN_ARTIFACTID = "unknown";
+	/** system property naming a word dictionary to preload, see {@link Word#preload(java.nio.file.Path)} */
+	public static final String DICTIONARY_PROPERTY = "cc1.dictionary";
 	private static TestRunner instance;
 
 	public static TestRunner getInstance() {
@@ -182,6 +186,11 @@ public class TestRunner extends RunListener implements Runnable {
 	}
 
 	public static void main(final String[] args) throws Throwable {
+		final String dictionary = System.getProperty(DICTIONARY_PROPERTY);
+		if (dictionary != null) {
+			// warm start, the test process does not have to build the word table from scratch
+			Word.preload(Paths.get(dictionary));
+		}
 		createInstance((args != null && args.length > 0) ? args[0] : SquaresTest.class.getName());
 		instance.run();
 	}